@@ -0,0 +1,98 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import physics.Gravity;
+import physics.GravityAttraction;
+import physics.Particle;
+import physics.ParticleSystem;
+import physics.Spring;
+
+/**
+ * Measures the cost of applying each kind of force to every
+ * particle in a system once. The springs are in a state of their
+ * own, so only the spring benchmark is run for each spring count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForceBenchmark {
+	@Param({ "100", "1000", "10000" })
+	public int particles;
+
+	private ParticleSystem ps;
+	private Gravity gravity;
+	private List<GravityAttraction> attractions;
+
+	@Setup
+	public void setUp() {
+		this.ps = Scenes.springMesh(this.particles, 0);
+		List<Particle> list = this.ps.getParticles();
+		this.gravity = new Gravity(this.ps, 981);
+
+		// One attraction between each particle and the next
+		this.attractions = new ArrayList<>(this.particles);
+		for (int i = 0; i < list.size(); i++) {
+			this.attractions.add(new GravityAttraction(list.get(i), list.get((i + 1) % list.size()), 100));
+		}
+	}
+
+	/**
+	 * The springs between the particles of the system, a few
+	 * per particle.
+	 */
+	@State(Scope.Thread)
+	public static class Springs {
+		@Param({ "1", "4" })
+		public int springsPerParticle;
+
+		private List<Spring> springs;
+
+		@Setup
+		public void setUp(ForceBenchmark benchmark) {
+			this.springs = Scenes.springs(benchmark.ps.getParticles(), this.springsPerParticle);
+		}
+	}
+
+	@Benchmark
+	public ParticleSystem springApplyForce(Springs s) {
+		this.ps.clearForces();
+		for (int i = 0; i < s.springs.size(); i++) {
+			s.springs.get(i).applyForce();
+		}
+		return this.ps;
+	}
+
+	@Benchmark
+	public ParticleSystem gravityApplyForce() {
+		this.ps.clearForces();
+		this.gravity.applyForce();
+		return this.ps;
+	}
+
+	@Benchmark
+	public ParticleSystem gravityAttractionApplyForce() {
+		this.ps.clearForces();
+		for (int i = 0; i < this.attractions.size(); i++) {
+			this.attractions.get(i).applyForce();
+		}
+		return this.ps;
+	}
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import physics.Particle;
+import physics.ParticleSystem;
+import physics.Spring;
+
+/**
+ * Builds the particle systems the benchmarks run on.
+ */
+final class Scenes {
+	private Scenes() {
+	}
+
+	/**
+	 * Build a system of particles scattered over a square, where
+	 * each particle is connected by springs to the next few particles.
+	 * The springs start close to their resting length so the system
+	 * stays well behaved for the length of a benchmark.
+	 *
+	 * @param particles the number of particles
+	 * @param springsPerParticle the number of springs leaving each particle
+	 * @return the new system
+	 */
+	static ParticleSystem springMesh(int particles, int springsPerParticle) {
+		Random r = new Random(42);
+		ParticleSystem ps = new ParticleSystem();
+		List<Particle> list = new ArrayList<>(particles);
+		double side = Math.sqrt(particles) * 10;
+		for (int i = 0; i < particles; i++) {
+			list.add(new Particle(r.nextDouble() * side, r.nextDouble() * side, 0, 0, 1 + r.nextDouble()));
+		}
+		ps.addParticles(list);
+		ps.addForces(new ArrayList<>(springs(list, springsPerParticle)));
+		return ps;
+	}
+
+	/**
+	 * Create springs between each particle and the ones after it.
+	 *
+	 * @param particles the particles to connect
+	 * @param springsPerParticle the number of springs leaving each particle
+	 * @return the springs
+	 */
+	static List<Spring> springs(List<Particle> particles, int springsPerParticle) {
+		int n = particles.size();
+		List<Spring> springs = new ArrayList<>(n * springsPerParticle);
+		for (int i = 0; i < n; i++) {
+			for (int s = 1; s <= springsPerParticle && s < n; s++) {
+				Particle a = particles.get(i);
+				Particle b = particles.get((i + s) % n);
+				double l = a.getPosition().sub(b.getPosition()).mag();
+				springs.add(new Spring(a, b, 100, l));
+			}
+		}
+		return springs;
+	}
+}
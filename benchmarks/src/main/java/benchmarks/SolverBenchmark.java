@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import physics.EulerSolver;
+import physics.MidpointSolver;
+import physics.NumericalSolver;
+import physics.ParticleSystem;
+import physics.RK4Solver;
+
+/**
+ * Measures the cost of one step of each solver on a spring mesh.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolverBenchmark {
+	@Param({ "100", "1000", "10000" })
+	public int particles;
+
+	@Param({ "1", "4" })
+	public int springsPerParticle;
+
+	@Param({ "euler", "midpoint", "rk4" })
+	public String solver;
+
+	private ParticleSystem ps;
+	private NumericalSolver ns;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		this.ps = Scenes.springMesh(this.particles, this.springsPerParticle);
+		switch (this.solver) {
+		case "euler":
+			this.ns = new EulerSolver();
+			break;
+		case "midpoint":
+			this.ns = new MidpointSolver();
+			break;
+		default:
+			this.ns = new RK4Solver();
+			break;
+		}
+	}
+
+	@Benchmark
+	public ParticleSystem step() {
+		this.ns.step(this.ps, 1e-3);
+		return this.ps;
+	}
+}
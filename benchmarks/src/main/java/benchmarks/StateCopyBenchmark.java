@@ -0,0 +1,94 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import physics.ParticleSystem;
+import physics.Vec2;
+
+/**
+ * Measures the ParticleSystem methods that copy the state of the
+ * system in and out, both the Vec2 versions and the array versions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateCopyBenchmark {
+	@Param({ "100", "1000", "10000" })
+	public int particles;
+
+	@Param({ "1", "4" })
+	public int springsPerParticle;
+
+	private ParticleSystem ps;
+	private Vec2[] vecState;
+	private double[] state;
+	private double[] derivatives;
+
+	@Setup
+	public void setUp() {
+		this.ps = Scenes.springMesh(this.particles, this.springsPerParticle);
+		this.vecState = this.ps.getSystemState();
+		this.state = new double[this.ps.getStateLength()];
+		this.derivatives = new double[this.ps.getStateLength()];
+		this.ps.getSystemState(this.state);
+		// So updateSystemStateArray() adds real derivatives, not zeros
+		this.ps.calculateDerivatives(this.derivatives);
+	}
+
+	@Benchmark
+	public Vec2[] getSystemStateVec2() {
+		return this.ps.getSystemState();
+	}
+
+	@Benchmark
+	public double[] getSystemStateArray() {
+		this.ps.getSystemState(this.state);
+		return this.state;
+	}
+
+	@Benchmark
+	public ParticleSystem setSystemStateVec2() {
+		this.ps.setSystemState(this.vecState);
+		return this.ps;
+	}
+
+	@Benchmark
+	public ParticleSystem setSystemStateArray() {
+		this.ps.setSystemState(this.state);
+		return this.ps;
+	}
+
+	@Benchmark
+	public Vec2[] calculateDerivativesVec2() {
+		return this.ps.calculateDerivatives();
+	}
+
+	@Benchmark
+	public double[] calculateDerivativesArray() {
+		this.ps.calculateDerivatives(this.derivatives);
+		return this.derivatives;
+	}
+
+	@Benchmark
+	public ParticleSystem updateSystemStateArray() {
+		// Step forwards and back so the state doesn't wander off
+		this.ps.updateSystemState(this.derivatives, 1e-6);
+		this.ps.updateSystemState(this.derivatives, -1e-6);
+		return this.ps;
+	}
+}
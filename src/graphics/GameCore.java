@@ -20,9 +20,26 @@ import java.awt.Color;
 public abstract class GameCore {
     protected static final int FONT_SIZE = 24;
 
+    // The defaults for the fixed timestep
+    private static final double DEFAULT_FIXED_TIME_STEP = 1.0 / 120.0;
+    private static final int DEFAULT_MAX_SUBSTEPS = 5;
+
+    // Frames longer than this are treated as this long, so that
+    // a breakpoint or a dragged window doesn't make a huge jump
+    private static final long MAX_FRAME_NANOS = 250_000_000L;
+
     private boolean isRunning;
     protected ScreenManager screen;
 
+    // The fixed timestep, in seconds, and in nanoseconds for the accumulator
+    private double fixedTimeStep = DEFAULT_FIXED_TIME_STEP;
+    private long fixedTimeStepNanos = (long)(DEFAULT_FIXED_TIME_STEP * 1e9);
+    private int maxSubsteps = DEFAULT_MAX_SUBSTEPS;
+
+    // Time that has passed but hasn't been simulated yet
+    private long accumulator;
+    private double interpolationAlpha;
+
     /**
      * Signals to the game loop that it's time to quit.
      */
@@ -75,20 +92,92 @@ public abstract class GameCore {
         return new ImageIcon(fileName).getImage();
     }
 
+    /**
+     * Get the length of a fixed update.
+     *
+     * @return the fixed timestep, in seconds
+     */
+    public double getFixedTimeStep() {
+        return this.fixedTimeStep;
+    }
+
+    /**
+     * Set the length of a fixed update.
+     *
+     * @param fixedTimeStep the new fixed timestep, in seconds
+     */
+    public void setFixedTimeStep(double fixedTimeStep) {
+        this.fixedTimeStep = fixedTimeStep;
+        this.fixedTimeStepNanos = Math.max((long)(fixedTimeStep * 1e9), 1);
+    }
+
+    /**
+     * Get the most fixed updates that are run in one frame.
+     *
+     * @return the maximum number of fixed updates per frame
+     */
+    public int getMaxSubsteps() {
+        return this.maxSubsteps;
+    }
+
+    /**
+     * Set the most fixed updates that are run in one frame. If
+     * the fixed updates can't keep up, the time they can't catch
+     * up on is dropped instead of piling up, so the simulation
+     * slows down rather than grinding to a halt.
+     *
+     * @param maxSubsteps the new maximum number of fixed updates per frame
+     */
+    public void setMaxSubsteps(int maxSubsteps) {
+        this.maxSubsteps = Math.max(maxSubsteps, 1);
+    }
+
+    /**
+     * Get how far the current frame is between the last fixed
+     * update and the next one. Drawing the state blended between
+     * the last two fixed updates by this amount makes motion smooth
+     * even when the frame rate and the fixed timestep don't match.
+     *
+     * @return a value from 0 (the last fixed update) to 1 (the next one)
+     */
+    public double getInterpolationAlpha() {
+        return this.interpolationAlpha;
+    }
+
     /**
      * Runs through the game loop until stop() is called.
      */
     public void gameLoop() {
-        long startTime = System.currentTimeMillis();
-        long currTime = startTime;
+        long currTime = System.nanoTime();
+        // update() is given whole milliseconds, so this only moves on by the
+        // milliseconds it was given and the rest is carried to the next frame
+        long updateTime = currTime;
+        double fps = 0;
 
         SynchronizedEventQueue.use();
         
         while (isRunning) {
-	        long elapsedTime = System.currentTimeMillis() - currTime;
-	        currTime += elapsedTime;
+	        long now = System.nanoTime();
+	        long elapsedNanos = now - currTime;
+	        currTime = now;
 	
-	        this.update(elapsedTime);
+	        long elapsedMillis = (now - updateTime) / 1_000_000L;
+	        updateTime += elapsedMillis * 1_000_000L;
+	        this.update(elapsedMillis);
+
+	        // Run the fixed updates that fit in the time that has passed
+	        this.accumulator += Math.min(elapsedNanos, MAX_FRAME_NANOS);
+	        int substeps = 0;
+	        while (this.accumulator >= this.fixedTimeStepNanos && substeps < this.maxSubsteps) {
+	            this.fixedUpdate(this.fixedTimeStep);
+	            this.accumulator -= this.fixedTimeStepNanos;
+	            substeps++;
+	        }
+	        if (this.accumulator >= this.fixedTimeStepNanos) {
+	            // Fell behind; drop the steps that didn't fit
+	            this.accumulator %= this.fixedTimeStepNanos;
+	        }
+	        this.interpolationAlpha = (double)this.accumulator / this.fixedTimeStepNanos;
 
 	        synchronized (SynchronizedEventQueue.MUTEX) {
 	            // Draw to the screen
@@ -96,7 +185,9 @@ public abstract class GameCore {
 	            g.clearRect(0, 0, this.screen.getWidth(), this.screen.getHeight());
 	            
 	            // Print the FPS in the top left of the screen
-	            double fps = 1000.0 / elapsedTime;
+	            if (elapsedNanos > 0) {
+	                fps = 1e9 / elapsedNanos;
+	            }
 	            g.drawString(String.format("FPS: %.2f", fps), 0, 20);
 	            
 	            this.draw(g);
@@ -121,6 +212,18 @@ public abstract class GameCore {
         // do nothing, subclasses must override this method if they have anything to update
     }
 
+    /**
+     * Advances the state of the game by a fixed amount of time.
+     * This is called zero or more times per frame, after update(),
+     * so that the simulation always moves in steps of the same size
+     * no matter how fast frames are drawn.
+     *
+     * @param dt the fixed timestep, in seconds
+     */
+    public void fixedUpdate(double dt) {
+        // do nothing, subclasses must override this method if they have anything to update
+    }
+
     /**
      * Draws to the screen. Subclasses must override this method.
      *
@@ -22,4 +22,75 @@ public class AABB {
 		this.a = new Vec2(a);
 		this.b = new Vec2(b);
 	}
+	
+	/**
+	 * Create the smallest box around a circle.
+	 * 
+	 * @param x the x-component of the center of the circle
+	 * @param y the y-component of the center of the circle
+	 * @param r the radius of the circle
+	 * @return the box around the circle
+	 */
+	public static AABB around(double x, double y, double r) {
+		return new AABB(x - r, y - r, x + r, y + r);
+	}
+	
+	/**
+	 * Check whether two boxes given by their corners overlap.
+	 * Boxes that only touch count as overlapping.
+	 * 
+	 * @param minX1 the smallest x-coordinate of the first box
+	 * @param minY1 the smallest y-coordinate of the first box
+	 * @param maxX1 the largest x-coordinate of the first box
+	 * @param maxY1 the largest y-coordinate of the first box
+	 * @param minX2 the smallest x-coordinate of the second box
+	 * @param minY2 the smallest y-coordinate of the second box
+	 * @param maxX2 the largest x-coordinate of the second box
+	 * @param maxY2 the largest y-coordinate of the second box
+	 * @return true if the boxes overlap
+	 */
+	public static boolean overlaps(double minX1, double minY1, double maxX1, double maxY1,
+			double minX2, double minY2, double maxX2, double maxY2) {
+		return minX1 <= maxX2 && minX2 <= maxX1 && minY1 <= maxY2 && minY2 <= maxY1;
+	}
+	
+	/**
+	 * Check whether this box overlaps another one.
+	 * 
+	 * @param o the other box
+	 * @return true if the boxes overlap
+	 */
+	public boolean overlaps(AABB o) {
+		return overlaps(this.a.getX(), this.a.getY(), this.b.getX(), this.b.getY(),
+				o.a.getX(), o.a.getY(), o.b.getX(), o.b.getY());
+	}
+	
+	/**
+	 * Check whether a point is inside this box.
+	 * 
+	 * @param p the point
+	 * @return true if the point is inside the box or on its edge
+	 */
+	public boolean contains(Vec2 p) {
+		return p.getX() >= this.a.getX() && p.getX() <= this.b.getX()
+				&& p.getY() >= this.a.getY() && p.getY() <= this.b.getY();
+	}
+	
+	/**
+	 * Get the width of this box.
+	 * 
+	 * @return the width of the box
+	 */
+	public double getWidth() {
+		return this.b.getX() - this.a.getX();
+	}
+	
+	/**
+	 * Get the height of this box.
+	 * 
+	 * @return the height of the box
+	 */
+	public double getHeight() {
+		return this.b.getY() - this.a.getY();
+	}
 }
@@ -0,0 +1,553 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * A dynamic bounding volume hierarchy: a binary tree of AABBs where
+ * every object is a leaf and every other node holds the box around its
+ * two children. Finding the objects whose boxes overlap a point or a box
+ * only has to go down the branches that overlap it, which takes
+ * O(log N) time for a small query in a tree of N objects.
+ *
+ * The box stored for an object is made bigger than the object by a
+ * margin on every side. Moving an object only changes the tree when its
+ * new box isn't inside the fat one any more, so objects that move a
+ * little each frame can be refit without the tree changing at all. When
+ * an object does escape, it is removed and inserted again, and the tree
+ * is kept balanced with rotations on the way back up.
+ *
+ * Objects are referred to by the proxy returned when they are inserted,
+ * which stays the same until they are removed. The tree isn't safe to use
+ * from more than one thread at a time, even for queries.
+ *
+ * @param <T> the type of the objects in the tree
+ */
+public class AABBTree<T> {
+	/**
+	 * Something that wants to be told about the objects found by
+	 * a query.
+	 *
+	 * @param <T> the type of the objects in the tree
+	 */
+	public interface Visitor<T> {
+		/**
+		 * Called once for every object whose fat box overlaps the query.
+		 *
+		 * @param proxy the proxy of the object
+		 * @param object the object
+		 */
+		public void visit(int proxy, T object);
+	}
+
+	private static final int NULL = -1;
+
+	private double margin;
+
+	// The nodes. A node is a leaf if it has no children, and the object
+	// of a leaf is in objects. Free nodes are linked through parent.
+	private double[] minX;
+	private double[] minY;
+	private double[] maxX;
+	private double[] maxY;
+	private int[] parent;
+	private int[] left;
+	private int[] right;
+	private int[] height;
+	private Object[] objects;
+
+	private int root;
+	private int freeList;
+	private int nodeCount;
+	private int size;
+
+	// The nodes still to be searched by a query
+	private int[] stack;
+
+	/**
+	 * Create an empty tree.
+	 *
+	 * @param margin how far the fat box of an object reaches past its real box on every side
+	 */
+	public AABBTree(double margin) {
+		this.margin = margin;
+		this.minX = new double[0];
+		this.minY = new double[0];
+		this.maxX = new double[0];
+		this.maxY = new double[0];
+		this.parent = new int[0];
+		this.left = new int[0];
+		this.right = new int[0];
+		this.height = new int[0];
+		this.objects = new Object[0];
+		this.stack = new int[64];
+		this.clear();
+	}
+
+	/**
+	 * Remove every object from the tree.
+	 */
+	public void clear() {
+		this.root = NULL;
+		this.freeList = NULL;
+		this.nodeCount = 0;
+		this.size = 0;
+		Arrays.fill(this.objects, null);
+	}
+
+	/**
+	 * Get the number of objects in the tree.
+	 *
+	 * @return the number of objects
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Get the height of the tree.
+	 *
+	 * @return the number of nodes on the longest path from the root to a leaf, or 0 if the tree is empty
+	 */
+	public int getHeight() {
+		return (this.root == NULL) ? 0 : this.height[this.root] + 1;
+	}
+
+	/**
+	 * Add an object to the tree.
+	 *
+	 * @param box the box around the object
+	 * @param object the object
+	 * @return the proxy of the object
+	 * @throws IllegalArgumentException if the object is null
+	 */
+	public int insert(AABB box, T object) {
+		if (object == null) {
+			throw new IllegalArgumentException("Can't add null to the tree");
+		}
+		int leaf = this.allocateNode();
+		this.setFatBox(leaf, box);
+		this.objects[leaf] = object;
+		this.height[leaf] = 0;
+		this.insertLeaf(leaf);
+		this.size++;
+		return leaf;
+	}
+
+	/**
+	 * Remove an object from the tree.
+	 *
+	 * @param proxy the proxy of the object
+	 * @throws IllegalArgumentException if the proxy isn't in the tree
+	 */
+	public void remove(int proxy) {
+		this.checkProxy(proxy);
+		this.removeLeaf(proxy);
+		this.freeNode(proxy);
+		this.size--;
+	}
+
+	/**
+	 * Tell the tree an object has moved. If the new box is still
+	 * inside the fat box of the object nothing happens; otherwise the
+	 * object is moved to the right place in the tree with a new fat box.
+	 *
+	 * @param proxy the proxy of the object
+	 * @param box the new box around the object
+	 * @return true if the tree had to be changed
+	 * @throws IllegalArgumentException if the proxy isn't in the tree
+	 */
+	public boolean move(int proxy, AABB box) {
+		this.checkProxy(proxy);
+		if (this.minX[proxy] <= box.a.getX() && this.minY[proxy] <= box.a.getY() && box.b.getX() <= this.maxX[proxy]
+				&& box.b.getY() <= this.maxY[proxy]) {
+			return false;
+		}
+
+		this.removeLeaf(proxy);
+		this.setFatBox(proxy, box);
+		this.insertLeaf(proxy);
+		return true;
+	}
+
+	/**
+	 * Get an object in the tree.
+	 *
+	 * @param proxy the proxy of the object
+	 * @return the object
+	 * @throws IllegalArgumentException if the proxy isn't in the tree
+	 */
+	@SuppressWarnings("unchecked")
+	public T getObject(int proxy) {
+		this.checkProxy(proxy);
+		return (T)this.objects[proxy];
+	}
+
+	/**
+	 * Get the fat box stored for an object.
+	 *
+	 * @param proxy the proxy of the object
+	 * @return a copy of the fat box
+	 * @throws IllegalArgumentException if the proxy isn't in the tree
+	 */
+	public AABB getFatAABB(int proxy) {
+		this.checkProxy(proxy);
+		return new AABB(this.minX[proxy], this.minY[proxy], this.maxX[proxy], this.maxY[proxy]);
+	}
+
+	/**
+	 * Find the objects whose fat boxes contain a point.
+	 *
+	 * @param p the point
+	 * @param visitor what to tell about each object found
+	 */
+	public void query(Vec2 p, Visitor<T> visitor) {
+		this.query(p.getX(), p.getY(), p.getX(), p.getY(), visitor);
+	}
+
+	/**
+	 * Find the objects whose fat boxes overlap a box.
+	 *
+	 * @param box the box
+	 * @param visitor what to tell about each object found
+	 */
+	public void query(AABB box, Visitor<T> visitor) {
+		this.query(box.a.getX(), box.a.getY(), box.b.getX(), box.b.getY(), visitor);
+	}
+
+	/**
+	 * Find the objects whose fat boxes overlap a box given by its corners.
+	 *
+	 * @param qMinX the smallest x-coordinate of the box
+	 * @param qMinY the smallest y-coordinate of the box
+	 * @param qMaxX the largest x-coordinate of the box
+	 * @param qMaxY the largest y-coordinate of the box
+	 * @param visitor what to tell about each object found
+	 */
+	@SuppressWarnings("unchecked")
+	public void query(double qMinX, double qMinY, double qMaxX, double qMaxY, Visitor<T> visitor) {
+		if (this.root == NULL) {
+			return;
+		}
+
+		int top = 0;
+		this.stack[top++] = this.root;
+		while (top > 0) {
+			int node = this.stack[--top];
+			if (!AABB.overlaps(qMinX, qMinY, qMaxX, qMaxY, this.minX[node], this.minY[node], this.maxX[node],
+					this.maxY[node])) {
+				continue;
+			}
+
+			if (this.left[node] == NULL) {
+				visitor.visit(node, (T)this.objects[node]);
+			} else {
+				if (top + 2 > this.stack.length) {
+					this.stack = Arrays.copyOf(this.stack, 2 * this.stack.length);
+				}
+				this.stack[top++] = this.left[node];
+				this.stack[top++] = this.right[node];
+			}
+		}
+	}
+
+	/**
+	 * Check that a proxy refers to an object in the tree.
+	 *
+	 * @param proxy the proxy
+	 * @throws IllegalArgumentException if it doesn't
+	 */
+	private void checkProxy(int proxy) {
+		if (proxy < 0 || proxy >= this.nodeCount || this.objects[proxy] == null) {
+			throw new IllegalArgumentException("No object in the tree has proxy " + proxy);
+		}
+	}
+
+	/**
+	 * Set the box of a leaf to a box made bigger by the margin.
+	 *
+	 * @param leaf the leaf
+	 * @param box the box around its object
+	 */
+	private void setFatBox(int leaf, AABB box) {
+		this.minX[leaf] = box.a.getX() - this.margin;
+		this.minY[leaf] = box.a.getY() - this.margin;
+		this.maxX[leaf] = box.b.getX() + this.margin;
+		this.maxY[leaf] = box.b.getY() + this.margin;
+	}
+
+	/**
+	 * Get a node that isn't in use, growing the arrays if there isn't one.
+	 *
+	 * @return the node
+	 */
+	private int allocateNode() {
+		int node;
+		if (this.freeList != NULL) {
+			node = this.freeList;
+			this.freeList = this.parent[node];
+		} else {
+			if (this.nodeCount == this.parent.length) {
+				int capacity = Math.max(16, 2 * this.parent.length);
+				this.minX = Arrays.copyOf(this.minX, capacity);
+				this.minY = Arrays.copyOf(this.minY, capacity);
+				this.maxX = Arrays.copyOf(this.maxX, capacity);
+				this.maxY = Arrays.copyOf(this.maxY, capacity);
+				this.parent = Arrays.copyOf(this.parent, capacity);
+				this.left = Arrays.copyOf(this.left, capacity);
+				this.right = Arrays.copyOf(this.right, capacity);
+				this.height = Arrays.copyOf(this.height, capacity);
+				this.objects = Arrays.copyOf(this.objects, capacity);
+			}
+			node = this.nodeCount++;
+		}
+		this.parent[node] = NULL;
+		this.left[node] = NULL;
+		this.right[node] = NULL;
+		this.height[node] = 0;
+		return node;
+	}
+
+	/**
+	 * Put a node on the free list.
+	 *
+	 * @param node the node
+	 */
+	private void freeNode(int node) {
+		this.objects[node] = null;
+		this.height[node] = -1;
+		this.parent[node] = this.freeList;
+		this.freeList = node;
+	}
+
+	/**
+	 * Get the perimeter of the box around two nodes, which is how
+	 * the cost of putting them under the same parent is measured.
+	 *
+	 * @param a the first node
+	 * @param b the second node
+	 * @return the perimeter of the box around both
+	 */
+	private double combinedPerimeter(int a, int b) {
+		double w = Math.max(this.maxX[a], this.maxX[b]) - Math.min(this.minX[a], this.minX[b]);
+		double h = Math.max(this.maxY[a], this.maxY[b]) - Math.min(this.minY[a], this.minY[b]);
+		return 2 * (w + h);
+	}
+
+	/**
+	 * Get the perimeter of the box of a node.
+	 *
+	 * @param node the node
+	 * @return the perimeter of its box
+	 */
+	private double perimeter(int node) {
+		return 2 * ((this.maxX[node] - this.minX[node]) + (this.maxY[node] - this.minY[node]));
+	}
+
+	/**
+	 * Set the box of a node to the box around its children.
+	 *
+	 * @param node the node
+	 */
+	private void refit(int node) {
+		int a = this.left[node];
+		int b = this.right[node];
+		this.minX[node] = Math.min(this.minX[a], this.minX[b]);
+		this.minY[node] = Math.min(this.minY[a], this.minY[b]);
+		this.maxX[node] = Math.max(this.maxX[a], this.maxX[b]);
+		this.maxY[node] = Math.max(this.maxY[a], this.maxY[b]);
+		this.height[node] = 1 + Math.max(this.height[a], this.height[b]);
+	}
+
+	/**
+	 * Put a leaf into the tree next to the node that makes the
+	 * boxes grow the least, then fix the boxes above it.
+	 *
+	 * @param leaf the leaf
+	 */
+	private void insertLeaf(int leaf) {
+		if (this.root == NULL) {
+			this.root = leaf;
+			this.parent[leaf] = NULL;
+			return;
+		}
+
+		// Go down the tree towards the cheapest place for the leaf. Going
+		// down a level makes every box on the way bigger, which is paid
+		// for in the inheritance cost.
+		int index = this.root;
+		while (this.left[index] != NULL) {
+			int a = this.left[index];
+			int b = this.right[index];
+
+			double area = this.perimeter(index);
+			double combined = this.combinedPerimeter(index, leaf);
+			double cost = 2 * combined;
+			double inheritance = 2 * (combined - area);
+
+			double costA = this.descendCost(a, leaf) + inheritance;
+			double costB = this.descendCost(b, leaf) + inheritance;
+			if (cost < costA && cost < costB) {
+				break;
+			}
+			index = (costA < costB) ? a : b;
+		}
+
+		// Make a new parent for the leaf and the node it goes next to
+		int sibling = index;
+		int oldParent = this.parent[sibling];
+		int newParent = this.allocateNode();
+		this.parent[newParent] = oldParent;
+		this.objects[newParent] = null;
+		this.left[newParent] = sibling;
+		this.right[newParent] = leaf;
+		this.parent[sibling] = newParent;
+		this.parent[leaf] = newParent;
+		this.refit(newParent);
+		if (oldParent == NULL) {
+			this.root = newParent;
+		} else if (this.left[oldParent] == sibling) {
+			this.left[oldParent] = newParent;
+		} else {
+			this.right[oldParent] = newParent;
+		}
+
+		this.fixUpwards(this.parent[leaf]);
+	}
+
+	/**
+	 * Get the cost of going down to a child when inserting a leaf.
+	 *
+	 * @param child the child
+	 * @param leaf the leaf being inserted
+	 * @return the cost, not counting what is inherited from above
+	 */
+	private double descendCost(int child, int leaf) {
+		if (this.left[child] == NULL) {
+			return this.combinedPerimeter(child, leaf);
+		}
+		return this.combinedPerimeter(child, leaf) - this.perimeter(child);
+	}
+
+	/**
+	 * Take a leaf out of the tree, putting its sibling in the place
+	 * of their parent.
+	 *
+	 * @param leaf the leaf
+	 */
+	private void removeLeaf(int leaf) {
+		if (leaf == this.root) {
+			this.root = NULL;
+			return;
+		}
+
+		int p = this.parent[leaf];
+		int grandparent = this.parent[p];
+		int sibling = (this.left[p] == leaf) ? this.right[p] : this.left[p];
+		if (grandparent == NULL) {
+			this.root = sibling;
+			this.parent[sibling] = NULL;
+			this.freeNode(p);
+			return;
+		}
+
+		if (this.left[grandparent] == p) {
+			this.left[grandparent] = sibling;
+		} else {
+			this.right[grandparent] = sibling;
+		}
+		this.parent[sibling] = grandparent;
+		this.freeNode(p);
+		this.fixUpwards(grandparent);
+	}
+
+	/**
+	 * Balance every node from a node up to the root and fix their
+	 * boxes and heights.
+	 *
+	 * @param node the lowest node to fix
+	 */
+	private void fixUpwards(int node) {
+		while (node != NULL) {
+			node = this.balance(node);
+			this.refit(node);
+			node = this.parent[node];
+		}
+	}
+
+	/**
+	 * If one child of a node is more than one level taller than the
+	 * other, rotate the taller child up into the place of the node.
+	 *
+	 * @param a the node
+	 * @return the node now in the place of a
+	 */
+	private int balance(int a) {
+		if (this.left[a] == NULL || this.height[a] < 2) {
+			return a;
+		}
+
+		int b = this.left[a];
+		int c = this.right[a];
+		int difference = this.height[c] - this.height[b];
+		if (difference > 1) {
+			// c goes up, a becomes its left child, and the taller of its children stays with it
+			int f = this.left[c];
+			int g = this.right[c];
+			this.left[c] = a;
+			this.parent[c] = this.parent[a];
+			this.parent[a] = c;
+			this.replaceChild(this.parent[c], a, c);
+			if (this.height[f] > this.height[g]) {
+				this.right[c] = f;
+				this.right[a] = g;
+				this.parent[g] = a;
+			} else {
+				this.right[c] = g;
+				this.right[a] = f;
+				this.parent[f] = a;
+			}
+			this.refit(a);
+			this.refit(c);
+			return c;
+		}
+		if (difference < -1) {
+			// b goes up, a becomes its left child, and the taller of its children stays with it
+			int d = this.left[b];
+			int e = this.right[b];
+			this.left[b] = a;
+			this.parent[b] = this.parent[a];
+			this.parent[a] = b;
+			this.replaceChild(this.parent[b], a, b);
+			if (this.height[d] > this.height[e]) {
+				this.right[b] = d;
+				this.left[a] = e;
+				this.parent[e] = a;
+			} else {
+				this.right[b] = e;
+				this.left[a] = d;
+				this.parent[d] = a;
+			}
+			this.refit(a);
+			this.refit(b);
+			return b;
+		}
+		return a;
+	}
+
+	/**
+	 * Replace a child of a node, or the root if there is no node.
+	 *
+	 * @param node the node, or NULL
+	 * @param oldChild the child to replace
+	 * @param newChild the child to put in its place
+	 */
+	private void replaceChild(int node, int oldChild, int newChild) {
+		if (node == NULL) {
+			this.root = newChild;
+		} else if (this.left[node] == oldChild) {
+			this.left[node] = newChild;
+		} else {
+			this.right[node] = newChild;
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * This force models the gravitational attraction between every
+ * pair of particles in a system, like a GravityAttraction between
+ * each pair would, but in O(N log N) time instead of O(N^2). Each
+ * time the force is applied, a quadtree is built over the particles
+ * and every node stores the total mass and center of mass of the
+ * particles inside it. A node that is far enough away from a particle
+ * (its width divided by its distance is less than the opening angle)
+ * is treated as a single particle at its center of mass.
+ *
+ * The force between two particles is G * m1 * m2 / (r^2 + e^2),
+ * where e is the softening length. With a softening length of 0
+ * this is the same force GravityAttraction applies.
+ */
+public class BarnesHutGravity extends Force {
+	// Past this depth particles that land in the same node share a leaf
+	private static final int MAX_DEPTH = 48;
+
+	private ParticleSystem ps;
+	private double G;
+	private double theta;
+	private double softening;
+
+	// The nodes of the quadtree. A node's children are at
+	// child[4 * node + quadrant], and are -1 if they don't exist.
+	// Leaves keep a list of particles that starts at first[node]
+	// and continues through next[particle]; internal nodes have
+	// first[node] set to INTERNAL.
+	private static final int INTERNAL = -2;
+	private int nodeCount;
+	private double[] nodeX;
+	private double[] nodeY;
+	private double[] nodeSize;
+	private double[] nodeMass;
+	private double[] comX;
+	private double[] comY;
+	private int[] child;
+	private int[] first;
+	private int[] next;
+	private int[] stack;
+
+	/**
+	 * Create Barnes-Hut gravity with an opening angle of 0.5
+	 * and no softening.
+	 *
+	 * @param ps the system whose particles attract each other
+	 * @param G the gravitational constant
+	 */
+	public BarnesHutGravity(ParticleSystem ps, double G) {
+		this(ps, G, 0.5, 0.0);
+	}
+
+	/**
+	 * Create Barnes-Hut gravity.
+	 *
+	 * @param ps the system whose particles attract each other
+	 * @param G the gravitational constant
+	 * @param theta the opening angle; smaller is more accurate and slower
+	 * @param softening the softening length, which keeps close encounters from blowing up
+	 */
+	public BarnesHutGravity(ParticleSystem ps, double G, double theta, double softening) {
+		this.ps = ps;
+		this.G = G;
+		this.theta = theta;
+		this.softening = softening;
+		this.next = new int[0];
+		this.stack = new int[3 * MAX_DEPTH + 4];
+		this.allocateNodes(64);
+	}
+
+	/**
+	 * Get the gravitational constant.
+	 *
+	 * @return the gravitational constant
+	 */
+	public double getConstant() {
+		return this.G;
+	}
+
+	/**
+	 * Set the gravitational constant.
+	 *
+	 * @param G the new gravitational constant
+	 */
+	public void setConstant(double G) {
+		this.G = G;
+		this.ps.getParticleStore().markChanged();
+	}
+
+	/**
+	 * Get the opening angle.
+	 *
+	 * @return the opening angle
+	 */
+	public double getOpeningAngle() {
+		return this.theta;
+	}
+
+	/**
+	 * Set the opening angle. A node is treated as a single particle
+	 * when its width divided by its distance is less than this, so
+	 * 0 gives the exact (and slow) answer.
+	 *
+	 * @param theta the new opening angle
+	 */
+	public void setOpeningAngle(double theta) {
+		this.theta = theta;
+		this.ps.getParticleStore().markChanged();
+	}
+
+	/**
+	 * Get the softening length.
+	 *
+	 * @return the softening length
+	 */
+	public double getSoftening() {
+		return this.softening;
+	}
+
+	/**
+	 * Set the softening length.
+	 *
+	 * @param softening the new softening length
+	 */
+	public void setSoftening(double softening) {
+		this.softening = softening;
+		this.ps.getParticleStore().markChanged();
+	}
+
+	/**
+	 * Calculate the gravitational potential energy of every pair
+	 * of particles, -G * m1 * m2 / sqrt(r^2 + e^2). This sums over
+	 * every pair exactly, so it takes O(N^2) time.
+	 *
+	 * @return the potential energy of the particles
+	 */
+	@Override
+	public double calculateEnergy() {
+		ParticleStore store = this.ps.getParticleStore();
+		double[] x = store.getPositions();
+		double[] m = store.getMasses();
+		double eps2 = this.softening * this.softening;
+		double energy = 0.0;
+		for (int i = 0; i < store.size(); i++) {
+			double e = 0.0;
+			for (int j = i + 1; j < store.size(); j++) {
+				double dx = x[2 * j] - x[2 * i];
+				double dy = x[2 * j + 1] - x[2 * i + 1];
+				e += m[j] / Math.sqrt(dx * dx + dy * dy + eps2);
+			}
+			energy -= this.G * m[i] * e;
+		}
+		return energy;
+	}
+
+	@Override
+	public Force copy(ParticleSystem from, ParticleSystem to) {
+		return new BarnesHutGravity(to, this.G, this.theta, this.softening);
+	}
+
+	@Override
+	public void applyForce() {
+		ParticleStore store = this.ps.getParticleStore();
+		int n = store.size();
+		if (n < 2) {
+			return;
+		}
+
+		this.buildTree(store.getPositions(), store.getMasses(), n);
+
+		double[] x = store.getPositions();
+		double[] m = store.getMasses();
+		double[] f = store.getForceAccumulators();
+		double theta2 = this.theta * this.theta;
+		double eps2 = this.softening * this.softening;
+
+		for (int i = 0; i < n; i++) {
+			double px = x[2 * i];
+			double py = x[2 * i + 1];
+			double ax = 0.0;
+			double ay = 0.0;
+
+			int top = 0;
+			this.stack[top++] = 0;
+			while (top > 0) {
+				int node = this.stack[--top];
+
+				if (this.first[node] != INTERNAL) {
+					// Leaves are summed up particle by particle
+					for (int j = this.first[node]; j != -1; j = this.next[j]) {
+						if (j == i) {
+							continue;
+						}
+						double dx = x[2 * j] - px;
+						double dy = x[2 * j + 1] - py;
+						double d2 = dx * dx + dy * dy + eps2;
+						double s = m[j] / (d2 * Math.sqrt(d2));
+						ax += s * dx;
+						ay += s * dy;
+					}
+					continue;
+				}
+
+				double dx = this.comX[node] - px;
+				double dy = this.comY[node] - py;
+				double d2 = dx * dx + dy * dy;
+				double size = this.nodeSize[node];
+
+				if (size * size < theta2 * d2 && !this.contains(node, px, py)) {
+					d2 += eps2;
+					double s = this.nodeMass[node] / (d2 * Math.sqrt(d2));
+					ax += s * dx;
+					ay += s * dy;
+				} else {
+					for (int q = 0; q < 4; q++) {
+						int c = this.child[4 * node + q];
+						if (c != -1) {
+							this.stack[top++] = c;
+						}
+					}
+				}
+			}
+
+			f[2 * i] += this.G * m[i] * ax;
+			f[2 * i + 1] += this.G * m[i] * ay;
+		}
+	}
+
+	/**
+	 * Build the quadtree over the particles and calculate the mass
+	 * and center of mass of every node.
+	 *
+	 * @param x the interleaved positions of the particles
+	 * @param m the masses of the particles
+	 * @param n the number of particles
+	 */
+	private void buildTree(double[] x, double[] m, int n) {
+		if (this.next.length < n) {
+			this.next = new int[n];
+		}
+
+		// The root is the smallest square around all the particles
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[2 * i]);
+			minY = Math.min(minY, x[2 * i + 1]);
+			maxX = Math.max(maxX, x[2 * i]);
+			maxY = Math.max(maxY, x[2 * i + 1]);
+		}
+
+		this.nodeCount = 0;
+		this.newNode(minX, minY, Math.max(Math.max(maxX - minX, maxY - minY), 1e-9));
+
+		for (int i = 0; i < n; i++) {
+			this.insert(i, x[2 * i], x[2 * i + 1]);
+		}
+
+		// Children always come after their parents, so walking the
+		// nodes backwards fills in the children before the parents
+		for (int node = this.nodeCount - 1; node >= 0; node--) {
+			double mass = 0.0;
+			double mx = 0.0;
+			double my = 0.0;
+			if (this.first[node] == INTERNAL) {
+				for (int q = 0; q < 4; q++) {
+					int c = this.child[4 * node + q];
+					if (c != -1) {
+						mass += this.nodeMass[c];
+						mx += this.nodeMass[c] * this.comX[c];
+						my += this.nodeMass[c] * this.comY[c];
+					}
+				}
+			} else {
+				for (int j = this.first[node]; j != -1; j = this.next[j]) {
+					mass += m[j];
+					mx += m[j] * x[2 * j];
+					my += m[j] * x[2 * j + 1];
+				}
+			}
+
+			this.nodeMass[node] = mass;
+			if (mass > 0.0) {
+				this.comX[node] = mx / mass;
+				this.comY[node] = my / mass;
+			} else {
+				this.comX[node] = this.nodeX[node] + 0.5 * this.nodeSize[node];
+				this.comY[node] = this.nodeY[node] + 0.5 * this.nodeSize[node];
+			}
+		}
+	}
+
+	/**
+	 * Insert a particle into the quadtree.
+	 *
+	 * @param i the index of the particle
+	 * @param px the x-component of the particle's position
+	 * @param py the y-component of the particle's position
+	 */
+	private void insert(int i, double px, double py) {
+		this.next[i] = -1;
+		int node = 0;
+		int depth = 0;
+
+		while (true) {
+			if (this.first[node] == INTERNAL) {
+				int q = this.quadrant(node, px, py);
+				int c = this.child[4 * node + q];
+				if (c == -1) {
+					c = this.newChild(node, q);
+					this.first[c] = i;
+					return;
+				}
+				node = c;
+				depth++;
+			} else if (this.first[node] == -1) {
+				this.first[node] = i;
+				return;
+			} else if (depth >= MAX_DEPTH) {
+				// The particles are too close together to separate
+				this.next[i] = this.first[node];
+				this.first[node] = i;
+				return;
+			} else {
+				// Split the leaf and push the particle it held down a level
+				int j = this.first[node];
+				this.first[node] = INTERNAL;
+				double[] x = this.ps.getParticleStore().getPositions();
+				int c = this.newChild(node, this.quadrant(node, x[2 * j], x[2 * j + 1]));
+				this.first[c] = j;
+			}
+		}
+	}
+
+	/**
+	 * Find which quadrant of a node a point is in. Quadrants are
+	 * numbered 0 to 3; bit 0 is set for the right half and bit 1
+	 * is set for the bottom half.
+	 *
+	 * @param node the node
+	 * @param px the x-component of the point
+	 * @param py the y-component of the point
+	 * @return the quadrant the point is in
+	 */
+	private int quadrant(int node, double px, double py) {
+		double half = 0.5 * this.nodeSize[node];
+		int q = 0;
+		if (px >= this.nodeX[node] + half) {
+			q |= 1;
+		}
+		if (py >= this.nodeY[node] + half) {
+			q |= 2;
+		}
+		return q;
+	}
+
+	/**
+	 * Check whether a point is inside the square of a node.
+	 *
+	 * @param node the node
+	 * @param px the x-component of the point
+	 * @param py the y-component of the point
+	 * @return true if the point is inside the node
+	 */
+	private boolean contains(int node, double px, double py) {
+		return px >= this.nodeX[node] && px <= this.nodeX[node] + this.nodeSize[node]
+				&& py >= this.nodeY[node] && py <= this.nodeY[node] + this.nodeSize[node];
+	}
+
+	/**
+	 * Create the child of a node in the given quadrant.
+	 *
+	 * @param parent the parent node
+	 * @param q the quadrant
+	 * @return the index of the new node
+	 */
+	private int newChild(int parent, int q) {
+		double half = 0.5 * this.nodeSize[parent];
+		double cx = this.nodeX[parent] + (((q & 1) != 0) ? half : 0.0);
+		double cy = this.nodeY[parent] + (((q & 2) != 0) ? half : 0.0);
+		int c = this.newNode(cx, cy, half);
+		this.child[4 * parent + q] = c;
+		return c;
+	}
+
+	/**
+	 * Create an empty leaf node.
+	 *
+	 * @param x the x-component of the top left corner
+	 * @param y the y-component of the top left corner
+	 * @param size the width of the node
+	 * @return the index of the new node
+	 */
+	private int newNode(double x, double y, double size) {
+		if (this.nodeCount == this.nodeX.length) {
+			this.allocateNodes(this.nodeX.length * 2);
+		}
+
+		int node = this.nodeCount++;
+		this.nodeX[node] = x;
+		this.nodeY[node] = y;
+		this.nodeSize[node] = size;
+		this.first[node] = -1;
+		this.child[4 * node] = -1;
+		this.child[4 * node + 1] = -1;
+		this.child[4 * node + 2] = -1;
+		this.child[4 * node + 3] = -1;
+		return node;
+	}
+
+	/**
+	 * Grow the node arrays, keeping the nodes already in them.
+	 *
+	 * @param capacity the new number of nodes the arrays can hold
+	 */
+	private void allocateNodes(int capacity) {
+		if (this.nodeX == null) {
+			this.nodeX = new double[0];
+			this.nodeY = new double[0];
+			this.nodeSize = new double[0];
+			this.nodeMass = new double[0];
+			this.comX = new double[0];
+			this.comY = new double[0];
+			this.child = new int[0];
+			this.first = new int[0];
+		}
+
+		this.nodeX = Arrays.copyOf(this.nodeX, capacity);
+		this.nodeY = Arrays.copyOf(this.nodeY, capacity);
+		this.nodeSize = Arrays.copyOf(this.nodeSize, capacity);
+		this.nodeMass = Arrays.copyOf(this.nodeMass, capacity);
+		this.comX = Arrays.copyOf(this.comX, capacity);
+		this.comY = Arrays.copyOf(this.comY, capacity);
+		this.child = Arrays.copyOf(this.child, 4 * capacity);
+		this.first = Arrays.copyOf(this.first, capacity);
+	}
+}
@@ -0,0 +1,495 @@
+package physics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of a ParticleSystem that a run can be resumed
+ * from. A checkpoint holds the state of every particle, every force
+ * with its parameters, the class of the solver and the system clock.
+ *
+ * Forces refer to their particles by the ids the particles had when
+ * the checkpoint was written; when the checkpoint is read, new
+ * particles are created and the references are pointed at them. The
+ * built-in forces are supported; writing a system with any other
+ * kind of force throws an exception. Collisions are saved with their
+ * settings. Spatial hashes, force evaluators and the internal state of
+ * the solver aren't saved.
+ *
+ * The format is little-endian:
+ * <pre>
+ * int magic, int version, double t, int length, byte[length] solver class name
+ * int particles, then (long id, double x, y, vx, vy, m, r) per particle
+ * byte 1 if there are collisions, then double restitution, int iterations
+ * int forces, then (byte type, ...parameters) per force
+ * int CRC32 of everything before it
+ * </pre>
+ *
+ * Version 1 checkpoints, which have no radii and no collisions, can
+ * still be read.
+ */
+public class Checkpoint {
+	private static final int MAGIC = 0x32445043; // "2DPC"
+	private static final int VERSION = 2;
+
+	// Type tags for the forces
+	private static final byte GRAVITY = 1;
+	private static final byte SPRING = 2;
+	private static final byte PIVOTED_SPRING = 3;
+	private static final byte GRAVITY_ATTRACTION = 4;
+	private static final byte BARNES_HUT_GRAVITY = 5;
+	private static final byte SPRING_NETWORK = 6;
+
+	// The id written for a reference to no particle
+	private static final long NO_PARTICLE = -1;
+
+	private ParticleSystem ps;
+	private String solverName;
+
+	private Checkpoint(ParticleSystem ps, String solverName) {
+		this.ps = ps;
+		this.solverName = solverName;
+	}
+
+	/**
+	 * Get the system restored from the checkpoint.
+	 *
+	 * @return the restored system
+	 */
+	public ParticleSystem getParticleSystem() {
+		return this.ps;
+	}
+
+	/**
+	 * Get the time on the clock of the system when the
+	 * checkpoint was written.
+	 *
+	 * @return the simulated time of the checkpoint
+	 */
+	public double getTime() {
+		return this.ps.getTime();
+	}
+
+	/**
+	 * Get the class name of the solver the system was being
+	 * stepped with.
+	 *
+	 * @return the name of the solver class, or an empty string if there wasn't one
+	 */
+	public String getSolverName() {
+		return this.solverName;
+	}
+
+	/**
+	 * Create a new solver of the same class the system was being
+	 * stepped with. The solver has to have a constructor that takes
+	 * no arguments.
+	 *
+	 * @return a new solver
+	 * @throws IllegalStateException if the solver can't be created
+	 */
+	public NumericalSolver createSolver() {
+		try {
+			// Check the class is a solver before running any of its code
+			Class<? extends NumericalSolver> type = Class.forName(this.solverName, false,
+					Checkpoint.class.getClassLoader()).asSubclass(NumericalSolver.class);
+			return type.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalStateException("Can't create solver " + this.solverName, e);
+		}
+	}
+
+	/**
+	 * Write a checkpoint to a file. The checkpoint is written to a
+	 * temporary file next to it first and then moved into place, so
+	 * a crash while writing leaves the old checkpoint intact.
+	 *
+	 * @param ps the system to save
+	 * @param ns the solver the system is being stepped with, or null
+	 * @param path the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public static void write(ParticleSystem ps, NumericalSolver ns, Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(ps, ns, channel);
+			channel.force(false);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Write a checkpoint to a channel.
+	 *
+	 * @param ps the system to save
+	 * @param ns the solver the system is being stepped with, or null
+	 * @param channel the channel to write to
+	 * @throws IOException if the channel can't be written to
+	 */
+	public static void write(ParticleSystem ps, NumericalSolver ns, WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(encodedSize(ps, ns));
+		encode(ps, ns, buffer);
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Read a checkpoint from a file. The file is memory-mapped
+	 * instead of being copied into a buffer.
+	 *
+	 * @param path the file to read
+	 * @return the checkpoint
+	 * @throws IOException if the file can't be read or isn't a valid checkpoint
+	 */
+	public static Checkpoint read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return decode(buffer);
+		}
+	}
+
+	/**
+	 * Read a checkpoint from a channel. The channel is read
+	 * until it ends.
+	 *
+	 * @param channel the channel to read from
+	 * @return the checkpoint
+	 * @throws IOException if the channel can't be read or doesn't hold a valid checkpoint
+	 */
+	public static Checkpoint read(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		while (channel.read(buffer) != -1) {
+			if (!buffer.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				bigger.put(buffer);
+				buffer = bigger;
+			}
+		}
+		buffer.flip();
+		return decode(buffer);
+	}
+
+	/**
+	 * Get the number of bytes a checkpoint of a system takes up.
+	 *
+	 * @param ps the system
+	 * @param ns the solver the system is being stepped with, or null
+	 * @return the size of the checkpoint, in bytes
+	 */
+	public static int encodedSize(ParticleSystem ps, NumericalSolver ns) {
+		int size = 4 + 4 + 8 + 4 + solverName(ns).length;
+		size += 4 + ps.getParticles().size() * (8 + 6 * 8);
+		size += 1 + ((ps.getCollisions() != null) ? 8 + 4 : 0);
+		size += 4;
+		List<Force> forces = ps.getForces();
+		for (int i = 0; i < forces.size(); i++) {
+			size += 1 + forceSize(forces.get(i));
+		}
+		return size + 4;
+	}
+
+	/**
+	 * Write a checkpoint of a system into a buffer, starting at its
+	 * position. Snapshots can be kept in memory this way without
+	 * going through a channel.
+	 *
+	 * @param ps the system to save
+	 * @param ns the solver the system is being stepped with, or null
+	 * @param buffer the buffer to write to, with at least encodedSize() bytes remaining
+	 */
+	public static void encode(ParticleSystem ps, NumericalSolver ns, ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int start = buffer.position();
+
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putDouble(ps.getTime());
+		byte[] name = solverName(ns);
+		buffer.putInt(name.length);
+		buffer.put(name);
+
+		ParticleStore store = ps.getParticleStore();
+		List<Particle> particles = ps.getParticles();
+		double[] x = store.getPositions();
+		double[] v = store.getVelocities();
+		double[] m = store.getMasses();
+		double[] r = store.getRadii();
+		buffer.putInt(particles.size());
+		for (int i = 0; i < particles.size(); i++) {
+			buffer.putLong(particles.get(i).getId());
+			buffer.putDouble(x[2 * i]);
+			buffer.putDouble(x[2 * i + 1]);
+			buffer.putDouble(v[2 * i]);
+			buffer.putDouble(v[2 * i + 1]);
+			buffer.putDouble(m[i]);
+			buffer.putDouble(r[i]);
+		}
+
+		ParticleCollisions collisions = ps.getCollisions();
+		buffer.put((byte)((collisions != null) ? 1 : 0));
+		if (collisions != null) {
+			buffer.putDouble(collisions.getRestitution());
+			buffer.putInt(collisions.getIterations());
+		}
+
+		List<Force> forces = ps.getForces();
+		buffer.putInt(forces.size());
+		for (int i = 0; i < forces.size(); i++) {
+			encodeForce(forces.get(i), buffer);
+		}
+
+		buffer.putInt(checksum(buffer, start, buffer.position()));
+		buffer.order(order);
+	}
+
+	/**
+	 * Read a checkpoint from a buffer, starting at its position.
+	 *
+	 * @param buffer the buffer to read from
+	 * @return the checkpoint
+	 * @throws IOException if the buffer doesn't hold a valid checkpoint
+	 */
+	public static Checkpoint decode(ByteBuffer buffer) throws IOException {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int start = buffer.position();
+
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a checkpoint");
+			}
+			int version = buffer.getInt();
+			if (version < 1 || version > VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version);
+			}
+
+			ParticleSystem ps = new ParticleSystem();
+			ps.setTime(buffer.getDouble());
+			byte[] name = new byte[buffer.getInt()];
+			buffer.get(name);
+
+			int n = buffer.getInt();
+			Particle[] particles = new Particle[n];
+			Map<Long, Particle> ids = new HashMap<>(2 * n);
+			for (int i = 0; i < n; i++) {
+				long id = buffer.getLong();
+				particles[i] = new Particle(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+						buffer.getDouble(), buffer.getDouble());
+				if (version >= 2) {
+					particles[i].setRadius(buffer.getDouble());
+				}
+				ids.put(id, particles[i]);
+			}
+			ps.addParticle(particles);
+
+			if (version >= 2 && buffer.get() != 0) {
+				ParticleCollisions collisions = new ParticleCollisions(buffer.getDouble());
+				collisions.setIterations(buffer.getInt());
+				ps.setCollisions(collisions);
+			}
+
+			int forceCount = buffer.getInt();
+			Force[] forces = new Force[forceCount];
+			for (int i = 0; i < forceCount; i++) {
+				forces[i] = decodeForce(ps, ids, buffer);
+			}
+			ps.addForce(forces);
+
+			int expected = checksum(buffer, start, buffer.position());
+			if (buffer.getInt() != expected) {
+				throw new IOException("Checkpoint is corrupt");
+			}
+
+			return new Checkpoint(ps, new String(name, StandardCharsets.UTF_8));
+		} catch (RuntimeException e) {
+			// A truncated file runs off the end of the buffer
+			throw new IOException("Checkpoint is truncated or corrupt", e);
+		}
+	}
+
+	/**
+	 * Get the number of bytes the parameters of a force take up.
+	 *
+	 * @param f the force
+	 * @return the size of the parameters, in bytes
+	 */
+	private static int forceSize(Force f) {
+		if (f instanceof Gravity) {
+			return 8;
+		} else if (f instanceof Spring) {
+			return 2 * 8 + 2 * 8;
+		} else if (f instanceof PivotedSpring) {
+			return 8 + 4 * 8;
+		} else if (f instanceof GravityAttraction) {
+			return 2 * 8 + 8;
+		} else if (f instanceof BarnesHutGravity) {
+			return 3 * 8;
+		} else if (f instanceof SpringNetwork) {
+			return 4 + ((SpringNetwork)f).size() * (2 * 8 + 3 * 8);
+		}
+		throw new UnsupportedOperationException(f.getClass().getName() + " can't be checkpointed");
+	}
+
+	/**
+	 * Write the type and parameters of a force.
+	 *
+	 * @param f the force
+	 * @param buffer the buffer to write to
+	 */
+	private static void encodeForce(Force f, ByteBuffer buffer) {
+		if (f instanceof Gravity) {
+			buffer.put(GRAVITY);
+			buffer.putDouble(((Gravity)f).getConstant());
+		} else if (f instanceof Spring) {
+			Spring s = (Spring)f;
+			Particle[] ends = s.getParticles();
+			buffer.put(SPRING);
+			buffer.putLong(ends[0].getId());
+			buffer.putLong(ends[1].getId());
+			buffer.putDouble(s.getSpringConstant());
+			buffer.putDouble(s.getLength());
+		} else if (f instanceof PivotedSpring) {
+			PivotedSpring s = (PivotedSpring)f;
+			buffer.put(PIVOTED_SPRING);
+			buffer.putLong((s.getParticle() == null) ? NO_PARTICLE : s.getParticle().getId());
+			buffer.putDouble(s.getPivot().getX());
+			buffer.putDouble(s.getPivot().getY());
+			buffer.putDouble(s.getSpringConstant());
+			buffer.putDouble(s.getLength());
+		} else if (f instanceof GravityAttraction) {
+			GravityAttraction g = (GravityAttraction)f;
+			Particle[] ends = g.getParticles();
+			buffer.put(GRAVITY_ATTRACTION);
+			buffer.putLong(ends[0].getId());
+			buffer.putLong(ends[1].getId());
+			buffer.putDouble(g.getConstant());
+		} else if (f instanceof BarnesHutGravity) {
+			BarnesHutGravity g = (BarnesHutGravity)f;
+			buffer.put(BARNES_HUT_GRAVITY);
+			buffer.putDouble(g.getConstant());
+			buffer.putDouble(g.getOpeningAngle());
+			buffer.putDouble(g.getSoftening());
+		} else if (f instanceof SpringNetwork) {
+			SpringNetwork network = (SpringNetwork)f;
+			buffer.put(SPRING_NETWORK);
+			buffer.putInt(network.size());
+			for (int i = 0; i < network.size(); i++) {
+				Particle[] ends = network.getParticles(i);
+				buffer.putLong(ends[0].getId());
+				buffer.putLong(ends[1].getId());
+				buffer.putDouble(network.getSpringConstant(i));
+				buffer.putDouble(network.getLength(i));
+				buffer.putDouble(network.getDamping(i));
+			}
+		} else {
+			throw new UnsupportedOperationException(f.getClass().getName() + " can't be checkpointed");
+		}
+	}
+
+	/**
+	 * Read a force written by encodeForce().
+	 *
+	 * @param ps the system the force is in
+	 * @param ids the particles of the system by the ids they had when they were written
+	 * @param buffer the buffer to read from
+	 * @return the force
+	 * @throws IOException if the force is of an unknown type or refers to an unknown particle
+	 */
+	private static Force decodeForce(ParticleSystem ps, Map<Long, Particle> ids, ByteBuffer buffer) throws IOException {
+		byte type = buffer.get();
+		switch (type) {
+		case GRAVITY:
+			return new Gravity(ps, buffer.getDouble());
+		case SPRING:
+			return new Spring(particle(ids, buffer.getLong()), particle(ids, buffer.getLong()),
+					buffer.getDouble(), buffer.getDouble());
+		case PIVOTED_SPRING: {
+			long id = buffer.getLong();
+			Particle p = (id == NO_PARTICLE) ? null : particle(ids, id);
+			Vec2 pivot = new Vec2(buffer.getDouble(), buffer.getDouble());
+			return new PivotedSpring(p, pivot, buffer.getDouble(), buffer.getDouble());
+		}
+		case GRAVITY_ATTRACTION:
+			return new GravityAttraction(particle(ids, buffer.getLong()), particle(ids, buffer.getLong()),
+					buffer.getDouble());
+		case BARNES_HUT_GRAVITY:
+			return new BarnesHutGravity(ps, buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+		case SPRING_NETWORK: {
+			SpringNetwork network = new SpringNetwork(ps);
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++) {
+				network.addSpring(particle(ids, buffer.getLong()), particle(ids, buffer.getLong()),
+						buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+			}
+			return network;
+		}
+		default:
+			throw new IOException("Unknown force type " + type);
+		}
+	}
+
+	/**
+	 * Look up a particle by the id it was written with.
+	 *
+	 * @param ids the particles by id
+	 * @param id the id
+	 * @return the particle
+	 * @throws IOException if there is no particle with the id
+	 */
+	private static Particle particle(Map<Long, Particle> ids, long id) throws IOException {
+		Particle p = ids.get(id);
+		if (p == null) {
+			throw new IOException("Force refers to particle " + id + ", which isn't in the checkpoint");
+		}
+		return p;
+	}
+
+	/**
+	 * Get the class name of a solver as UTF-8.
+	 *
+	 * @param ns the solver, or null
+	 * @return the bytes of the name
+	 */
+	private static byte[] solverName(NumericalSolver ns) {
+		if (ns instanceof InstrumentedSolver) {
+			ns = ((InstrumentedSolver)ns).getSolver();
+		}
+		String name = (ns == null) ? "" : ns.getClass().getName();
+		return name.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Calculate the CRC32 of a range of a buffer without moving
+	 * its position.
+	 *
+	 * @param buffer the buffer
+	 * @param from the index of the first byte
+	 * @param to the index after the last byte
+	 * @return the checksum
+	 */
+	private static int checksum(ByteBuffer buffer, int from, int to) {
+		CRC32 crc = new CRC32();
+		ByteBuffer range = buffer.duplicate();
+		range.position(from).limit(to);
+		crc.update(range);
+		return (int)crc.getValue();
+	}
+}
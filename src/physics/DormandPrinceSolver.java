@@ -0,0 +1,350 @@
+package physics;
+
+/**
+ * Solver that implements the adaptive Dormand-Prince 5(4)
+ * Runge-Kutta method. Each step produces a fifth-order solution
+ * and a fourth-order solution, and the difference between them is
+ * used as an estimate of the error. If the error is bigger than the
+ * tolerance the step is thrown away and tried again with a smaller
+ * step size; otherwise the step is kept and the step size is grown
+ * or shrunk for the next step.
+ *
+ * The dt handed to step() is covered by as many internal steps as
+ * the tolerance calls for. The last stage of an accepted step is
+ * evaluated at the new state, so it is reused as the first stage of
+ * the next step (first same as last) and a step only costs six
+ * force evaluations. The clock of the system, and with it anything
+ * that runs at the end of a step like collisions, is only advanced once
+ * the whole dt has been covered, so nothing changes the state between
+ * internal steps and k1 stays right.
+ */
+public class DormandPrinceSolver implements NumericalSolver {
+	// The Butcher tableau for the Dormand-Prince method
+	private static final double A21 = 1.0 / 5.0;
+	private static final double A31 = 3.0 / 40.0;
+	private static final double A32 = 9.0 / 40.0;
+	private static final double A41 = 44.0 / 45.0;
+	private static final double A42 = -56.0 / 15.0;
+	private static final double A43 = 32.0 / 9.0;
+	private static final double A51 = 19372.0 / 6561.0;
+	private static final double A52 = -25360.0 / 2187.0;
+	private static final double A53 = 64448.0 / 6561.0;
+	private static final double A54 = -212.0 / 729.0;
+	private static final double A61 = 9017.0 / 3168.0;
+	private static final double A62 = -355.0 / 33.0;
+	private static final double A63 = 46732.0 / 5247.0;
+	private static final double A64 = 49.0 / 176.0;
+	private static final double A65 = -5103.0 / 18656.0;
+	private static final double A71 = 35.0 / 384.0;
+	private static final double A73 = 500.0 / 1113.0;
+	private static final double A74 = 125.0 / 192.0;
+	private static final double A75 = -2187.0 / 6784.0;
+	private static final double A76 = 11.0 / 84.0;
+
+	// The difference between the fifth and fourth order weights
+	private static final double E1 = 71.0 / 57600.0;
+	private static final double E3 = -71.0 / 16695.0;
+	private static final double E4 = 71.0 / 1920.0;
+	private static final double E5 = -17253.0 / 339200.0;
+	private static final double E6 = 22.0 / 525.0;
+	private static final double E7 = -1.0 / 40.0;
+
+	// Step size control
+	private static final double SAFETY = 0.9;
+	private static final double MIN_FACTOR = 0.2;
+	private static final double MAX_FACTOR = 5.0;
+
+	private double absoluteTolerance;
+	private double relativeTolerance;
+	private double minStepSize;
+
+	// The step size that will be tried next, or 0 if there isn't one yet
+	private double h;
+
+	private long acceptedSteps;
+	private long rejectedSteps;
+
+	private double[] y0;
+	private double[] stage;
+	private double[] k1;
+	private double[] k2;
+	private double[] k3;
+	private double[] k4;
+	private double[] k5;
+	private double[] k6;
+	private double[] k7;
+
+	// The system, modification count and store version k1 was calculated for
+	private ParticleSystem cachedSystem;
+	private int cachedModCount;
+	private int cachedVersion;
+
+	/**
+	 * Create a solver with an absolute and relative tolerance of 1e-6.
+	 */
+	public DormandPrinceSolver() {
+		this(1e-6, 1e-6);
+	}
+
+	/**
+	 * Create a solver with the given tolerances.
+	 *
+	 * @param absoluteTolerance the largest error allowed in a component near 0
+	 * @param relativeTolerance the largest error allowed relative to the size of a component
+	 */
+	public DormandPrinceSolver(double absoluteTolerance, double relativeTolerance) {
+		this.setTolerance(absoluteTolerance, relativeTolerance);
+		this.minStepSize = 1e-9;
+		this.h = 0.0;
+	}
+
+	@Override
+	public void step(ParticleSystem ps, double dt) {
+		int n = ps.getStateLength();
+		this.ensureBuffers(n);
+
+		if (!this.isCacheValid(ps)) {
+			ps.calculateDerivatives(this.k1);
+		}
+
+		double remaining = dt;
+		if (this.h <= 0.0) {
+			this.h = dt;
+		}
+
+		while (remaining > 0.0) {
+			double h = Math.min(this.h, remaining);
+			// Don't leave a sliver of the interval for a separate step
+			if (remaining - h < this.minStepSize) {
+				h = remaining;
+			}
+
+			double err = this.attemptStep(ps, h, n);
+
+			if (Double.isNaN(err) || Double.isInfinite(err)) {
+				// A smaller step might keep the state from blowing up, but if the
+				// forces themselves aren't finite no step size is going to help
+				ps.setSystemState(this.y0);
+				this.rejectedSteps++;
+				if (h <= this.minStepSize) {
+					this.reset();
+					throw new IllegalStateException("The error of a step of " + h + " isn't finite");
+				}
+				this.h = Math.max(this.minStepSize, h * MIN_FACTOR);
+			} else if (err <= 1.0 || h <= this.minStepSize) {
+				// The state of the system is already the new state, and k7 is
+				// the derivative there, so it becomes k1 of the next step
+				double[] tmp = this.k1;
+				this.k1 = this.k7;
+				this.k7 = tmp;
+
+				remaining -= h;
+				this.acceptedSteps++;
+
+				double factor = (err == 0.0) ? MAX_FACTOR : SAFETY * Math.pow(err, -0.2);
+				this.h = h * Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+			} else {
+				ps.setSystemState(this.y0);
+				this.rejectedSteps++;
+
+				double factor = SAFETY * Math.pow(err, -0.2);
+				this.h = Math.max(this.minStepSize, h * Math.max(MIN_FACTOR, Math.min(1.0, factor)));
+			}
+		}
+
+		// setSystemState() changes the version of the store, so it is saved
+		// after the last internal step. Collisions resolved by updateClock()
+		// change it again if they move anything.
+		this.cachedSystem = ps;
+		this.cachedModCount = ps.getModificationCount();
+		this.cachedVersion = ps.getParticleStore().getVersion();
+		ps.updateClock(dt);
+	}
+
+	/**
+	 * Take one Dormand-Prince step of size h starting from the current
+	 * state of the system. k1 must already hold the derivatives at the
+	 * current state. The system is left at the fifth-order solution.
+	 *
+	 * @param ps the system to step
+	 * @param h the step size
+	 * @param n the length of the state
+	 * @return the scaled error norm of the step; the step is good if it is at most 1
+	 */
+	private double attemptStep(ParticleSystem ps, double h, int n) {
+		double[] y0 = this.y0;
+		double[] y = this.stage;
+		double[] k1 = this.k1;
+		double[] k2 = this.k2;
+		double[] k3 = this.k3;
+		double[] k4 = this.k4;
+		double[] k5 = this.k5;
+		double[] k6 = this.k6;
+		double[] k7 = this.k7;
+
+		ps.getSystemState(y0);
+
+		for (int i = 0; i < n; i++) {
+			y[i] = y0[i] + h * A21 * k1[i];
+		}
+		ps.setSystemState(y);
+		ps.calculateDerivatives(k2);
+
+		for (int i = 0; i < n; i++) {
+			y[i] = y0[i] + h * (A31 * k1[i] + A32 * k2[i]);
+		}
+		ps.setSystemState(y);
+		ps.calculateDerivatives(k3);
+
+		for (int i = 0; i < n; i++) {
+			y[i] = y0[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+		}
+		ps.setSystemState(y);
+		ps.calculateDerivatives(k4);
+
+		for (int i = 0; i < n; i++) {
+			y[i] = y0[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+		}
+		ps.setSystemState(y);
+		ps.calculateDerivatives(k5);
+
+		for (int i = 0; i < n; i++) {
+			y[i] = y0[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65 * k5[i]);
+		}
+		ps.setSystemState(y);
+		ps.calculateDerivatives(k6);
+
+		// The seventh stage is evaluated at the fifth-order solution
+		for (int i = 0; i < n; i++) {
+			y[i] = y0[i] + h * (A71 * k1[i] + A73 * k3[i] + A74 * k4[i] + A75 * k5[i] + A76 * k6[i]);
+		}
+		ps.setSystemState(y);
+		ps.calculateDerivatives(k7);
+
+		// Root mean square of the error relative to the tolerance
+		double sum = 0.0;
+		for (int i = 0; i < n; i++) {
+			double e = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i] + E7 * k7[i]);
+			double scale = this.absoluteTolerance + this.relativeTolerance * Math.max(Math.abs(y0[i]), Math.abs(y[i]));
+			double r = e / scale;
+			sum += r * r;
+		}
+
+		return (n == 0) ? 0.0 : Math.sqrt(sum / n);
+	}
+
+	/**
+	 * Set the tolerances used to decide whether a step is accepted.
+	 *
+	 * @param absoluteTolerance the largest error allowed in a component near 0
+	 * @param relativeTolerance the largest error allowed relative to the size of a component
+	 */
+	public void setTolerance(double absoluteTolerance, double relativeTolerance) {
+		this.absoluteTolerance = absoluteTolerance;
+		this.relativeTolerance = relativeTolerance;
+	}
+
+	/**
+	 * Get the absolute tolerance.
+	 *
+	 * @return the absolute tolerance
+	 */
+	public double getAbsoluteTolerance() {
+		return this.absoluteTolerance;
+	}
+
+	/**
+	 * Get the relative tolerance.
+	 *
+	 * @return the relative tolerance
+	 */
+	public double getRelativeTolerance() {
+		return this.relativeTolerance;
+	}
+
+	/**
+	 * Set the smallest step size the solver will take. A step
+	 * this small is accepted even if its error is too big, so that
+	 * the solver can't get stuck.
+	 *
+	 * @param minStepSize the smallest step size
+	 */
+	public void setMinStepSize(double minStepSize) {
+		this.minStepSize = minStepSize;
+	}
+
+	/**
+	 * Get the step size the solver will try next.
+	 *
+	 * @return the next step size, or 0 if the solver hasn't taken a step yet
+	 */
+	public double getStepSize() {
+		return this.h;
+	}
+
+	/**
+	 * Get the number of internal steps that have been accepted.
+	 *
+	 * @return the number of accepted steps
+	 */
+	public long getAcceptedSteps() {
+		return this.acceptedSteps;
+	}
+
+	/**
+	 * Get the number of internal steps that have been rejected
+	 * because their error was too big.
+	 *
+	 * @return the number of rejected steps
+	 */
+	public long getRejectedSteps() {
+		return this.rejectedSteps;
+	}
+
+	/**
+	 * Throw away the derivatives saved from the last step and the
+	 * step size. Call this if the state of the system was changed
+	 * from outside the solver without going through the setters of
+	 * its particles and forces or ParticleStore.markChanged().
+	 */
+	public void reset() {
+		this.cachedSystem = null;
+		this.h = 0.0;
+	}
+
+	/**
+	 * Check whether k1 still holds the derivatives of the
+	 * current state of the system.
+	 *
+	 * @param ps the system being solved
+	 * @return true if k1 can be used
+	 */
+	private boolean isCacheValid(ParticleSystem ps) {
+		return this.cachedSystem == ps 
+				&& this.cachedModCount == ps.getModificationCount()
+				&& this.cachedVersion == ps.getParticleStore().getVersion();
+	}
+
+	/**
+	 * Make sure the stage buffers match the length of
+	 * the state of the system being solved.
+	 *
+	 * @param n the length of the state
+	 */
+	private void ensureBuffers(int n) {
+		if (this.y0 != null && this.y0.length == n) {
+			return;
+		}
+
+		this.y0 = new double[n];
+		this.stage = new double[n];
+		this.k1 = new double[n];
+		this.k2 = new double[n];
+		this.k3 = new double[n];
+		this.k4 = new double[n];
+		this.k5 = new double[n];
+		this.k6 = new double[n];
+		this.k7 = new double[n];
+		this.cachedSystem = null;
+	}
+}
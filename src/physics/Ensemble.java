@@ -0,0 +1,214 @@
+package physics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Runs many copies of the same system side by side, each with some
+ * of its parameters changed, which is useful for sweeping a spring
+ * constant or a mass to see how it changes the behavior of a rig.
+ *
+ * Every replica is a copy of a prototype system (see
+ * ParticleSystem.copy()) with an override applied to it. The forces
+ * in a replica are in the same order as in the prototype, so an
+ * override can find the force it wants to change by its index in
+ * getForces(). When the ensemble is run, the replicas are stepped
+ * in parallel on a fork/join pool, one replica per task, and the
+ * energy, final positions and any extra observables of each replica
+ * are collected into an EnsembleResult.
+ */
+public class Ensemble {
+	private ParticleSystem prototype;
+	private Supplier<NumericalSolver> solvers;
+	private ForkJoinPool pool;
+
+	private List<String> labels;
+	private List<Consumer<ParticleSystem>> overrides;
+	private Map<String, ToDoubleFunction<ParticleSystem>> observables;
+
+	/**
+	 * Create an ensemble that runs on one thread per processor.
+	 *
+	 * @param prototype the system every replica is copied from
+	 * @param solvers creates a solver for each replica
+	 */
+	public Ensemble(ParticleSystem prototype, Supplier<NumericalSolver> solvers) {
+		this(prototype, solvers, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create an ensemble.
+	 *
+	 * @param prototype the system every replica is copied from
+	 * @param solvers creates a solver for each replica
+	 * @param parallelism the number of replicas stepped at the same time
+	 */
+	public Ensemble(ParticleSystem prototype, Supplier<NumericalSolver> solvers, int parallelism) {
+		this.prototype = prototype;
+		this.solvers = solvers;
+		this.pool = new ForkJoinPool(Math.max(parallelism, 1));
+		this.labels = new ArrayList<>();
+		this.overrides = new ArrayList<>();
+		this.observables = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Add a replica.
+	 *
+	 * @param label the name of the replica in the results
+	 * @param override changes the copy of the prototype before it is run
+	 * @return the index of the replica
+	 */
+	public int addReplica(String label, Consumer<ParticleSystem> override) {
+		this.labels.add(label);
+		this.overrides.add(override);
+		return this.labels.size() - 1;
+	}
+
+	/**
+	 * Add one replica for each value of a parameter. The replicas
+	 * are labelled name=value.
+	 *
+	 * @param name the name of the parameter
+	 * @param values the values to try
+	 * @param override sets the parameter on the copy of the prototype
+	 */
+	public void addSweep(String name, double[] values, ObjDoubleConsumer<ParticleSystem> override) {
+		for (int i = 0; i < values.length; i++) {
+			double value = values[i];
+			this.addReplica(name + "=" + value, ps -> override.accept(ps, value));
+		}
+	}
+
+	/**
+	 * Get the number of replicas.
+	 *
+	 * @return the number of replicas
+	 */
+	public int size() {
+		return this.labels.size();
+	}
+
+	/**
+	 * Measure something about every replica at the end of a run.
+	 *
+	 * @param name the name of the observable in the results
+	 * @param observable measures a replica
+	 */
+	public void addObservable(String name, ToDoubleFunction<ParticleSystem> observable) {
+		this.observables.put(name, observable);
+	}
+
+	/**
+	 * Step every replica for the same number of steps and collect
+	 * the results. The prototype isn't changed.
+	 *
+	 * @param dt the length of a step
+	 * @param steps the number of steps
+	 * @return the results of each replica, in the order the replicas were added
+	 */
+	public List<EnsembleResult> run(double dt, int steps) {
+		// The copies are made on this thread so that the prototype
+		// is only ever read by one thread
+		List<Callable<EnsembleResult>> tasks = new ArrayList<>(this.labels.size());
+		for (int r = 0; r < this.labels.size(); r++) {
+			ParticleSystem replica = this.prototype.copy();
+			this.overrides.get(r).accept(replica);
+			String label = this.labels.get(r);
+			NumericalSolver ns = this.solvers.get();
+			tasks.add(() -> this.runReplica(label, replica, ns, dt, steps));
+		}
+
+		List<Future<EnsembleResult>> futures = this.pool.invokeAll(tasks);
+		List<EnsembleResult> results = new ArrayList<>(futures.size());
+		try {
+			for (int r = 0; r < futures.size(); r++) {
+				results.add(futures.get(r).get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Stop the threads used by this ensemble. The ensemble
+	 * shouldn't be run afterwards.
+	 */
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * Step one replica and measure it.
+	 *
+	 * @param label the name of the replica
+	 * @param ps the replica
+	 * @param ns the solver to step it with
+	 * @param dt the length of a step
+	 * @param steps the number of steps
+	 * @return the results of the replica
+	 */
+	private EnsembleResult runReplica(String label, ParticleSystem ps, NumericalSolver ns, double dt, int steps) {
+		long start = System.nanoTime();
+		double initialEnergy = ps.calculateEnergy();
+		for (int i = 0; i < steps; i++) {
+			ns.step(ps, dt);
+		}
+
+		double[] values = new double[this.observables.size()];
+		int i = 0;
+		for (ToDoubleFunction<ParticleSystem> observable : this.observables.values()) {
+			values[i++] = observable.applyAsDouble(ps);
+		}
+
+		ParticleStore store = ps.getParticleStore();
+		double[] positions = new double[2 * store.size()];
+		System.arraycopy(store.getPositions(), 0, positions, 0, positions.length);
+
+		return new EnsembleResult(label, steps * dt, initialEnergy, ps.calculateEnergy(), positions,
+				this.observables.keySet().toArray(new String[0]), values, (System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Format a list of results as a CSV table with one row per
+	 * replica. The final positions are left out.
+	 *
+	 * @param results the results to format
+	 * @return the table
+	 */
+	public static String formatTable(List<EnsembleResult> results) {
+		StringBuilder sb = new StringBuilder("replica,time,initial_energy,final_energy,energy_drift,wall_seconds");
+		if (!results.isEmpty()) {
+			for (String name : results.get(0).getObservableNames()) {
+				sb.append(',').append(name);
+			}
+		}
+		sb.append('\n');
+
+		for (EnsembleResult r : results) {
+			sb.append(r.getLabel());
+			sb.append(String.format(Locale.ROOT, ",%.6f,%.9g,%.9g,%.9g,%.6f", r.getTime(), r.getInitialEnergy(),
+					r.getFinalEnergy(), r.getEnergyDrift(), r.getWallTime()));
+			for (String name : r.getObservableNames()) {
+				sb.append(String.format(Locale.ROOT, ",%.9g", r.getObservable(name)));
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
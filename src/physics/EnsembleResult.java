@@ -0,0 +1,125 @@
+package physics;
+
+/**
+ * The outcome of running one replica of an Ensemble.
+ */
+public class EnsembleResult {
+	private String label;
+	private double time;
+	private double initialEnergy;
+	private double finalEnergy;
+	private double[] positions;
+	private String[] observableNames;
+	private double[] observables;
+	private double wallTime;
+
+	EnsembleResult(String label, double time, double initialEnergy, double finalEnergy, double[] positions,
+			String[] observableNames, double[] observables, double wallTime) {
+		this.label = label;
+		this.time = time;
+		this.initialEnergy = initialEnergy;
+		this.finalEnergy = finalEnergy;
+		this.positions = positions;
+		this.observableNames = observableNames;
+		this.observables = observables;
+		this.wallTime = wallTime;
+	}
+
+	/**
+	 * Get the name of the replica.
+	 *
+	 * @return the name of the replica
+	 */
+	public String getLabel() {
+		return this.label;
+	}
+
+	/**
+	 * Get the amount of simulated time the replica was run for.
+	 *
+	 * @return the simulated time
+	 */
+	public double getTime() {
+		return this.time;
+	}
+
+	/**
+	 * Get the total energy of the replica before it was run.
+	 *
+	 * @return the initial energy
+	 */
+	public double getInitialEnergy() {
+		return this.initialEnergy;
+	}
+
+	/**
+	 * Get the total energy of the replica after it was run.
+	 *
+	 * @return the final energy
+	 */
+	public double getFinalEnergy() {
+		return this.finalEnergy;
+	}
+
+	/**
+	 * Get how much the total energy changed over the run.
+	 *
+	 * @return the final energy minus the initial energy
+	 */
+	public double getEnergyDrift() {
+		return this.finalEnergy - this.initialEnergy;
+	}
+
+	/**
+	 * Get the positions of the particles at the end of the run,
+	 * with the x and y components interleaved like in a ParticleStore.
+	 *
+	 * @return the final positions
+	 */
+	public double[] getFinalPositions() {
+		return this.positions;
+	}
+
+	/**
+	 * Get the final position of one particle.
+	 *
+	 * @param i the index of the particle in the system
+	 * @return the final position of the particle
+	 */
+	public Vec2 getFinalPosition(int i) {
+		return new Vec2(this.positions[2 * i], this.positions[2 * i + 1]);
+	}
+
+	/**
+	 * Get the names of the extra observables that were measured.
+	 *
+	 * @return the names of the observables
+	 */
+	public String[] getObservableNames() {
+		return this.observableNames;
+	}
+
+	/**
+	 * Get the value of an observable at the end of the run.
+	 *
+	 * @param name the name of the observable
+	 * @return the value of the observable, or NaN if it wasn't measured
+	 */
+	public double getObservable(String name) {
+		for (int i = 0; i < this.observableNames.length; i++) {
+			if (this.observableNames[i].equals(name)) {
+				return this.observables[i];
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Get how long the replica took to run.
+	 *
+	 * @return the wall-clock time, in seconds
+	 */
+	public double getWallTime() {
+		return this.wallTime;
+	}
+}
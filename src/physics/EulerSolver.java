@@ -1,10 +1,16 @@
 package physics;
 
 public class EulerSolver implements NumericalSolver {
+    // Kept between steps so a step doesn't allocate anything
+    private double[] derivs;
+
     public void step(ParticleSystem ps, double dt) {
-        Vec2[] derivs = ps.calculateDerivatives();
-        ps.scaleVector(derivs, dt);
-        ps.updateSystemState(derivs);
+        int n = ps.getStateLength();
+        if (this.derivs == null || this.derivs.length != n) {
+            this.derivs = new double[n];
+        }
+        ps.calculateDerivatives(this.derivs);
+        ps.updateSystemState(this.derivs, dt);
         ps.updateClock(dt);
     }
-}
\ No newline at end of file
+}
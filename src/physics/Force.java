@@ -13,4 +13,96 @@ public abstract class Force extends Registerable {
 	 * each force in the system.
 	 */
     public abstract void applyForce();
+    
+    /**
+     * Check whether this force can calculate products with its
+     * Jacobian. Implicit solvers treat forces that can't as
+     * constant over a step.
+     * 
+     * @return true if addJacobianProduct() is implemented
+     */
+    public boolean hasJacobian() {
+    	return false;
+    }
+    
+    /**
+     * Add the product of this force's Jacobian (the derivative of
+     * the forces it applies with respect to the positions of the
+     * particles) and a displacement to out. Both arrays hold
+     * interleaved x and y components indexed like the particle store
+     * of the system the force is in. The default implementation
+     * does nothing.
+     * 
+     * @param dx the displacement of each particle
+     * @param out the array to add the change in force on each particle to
+     */
+    public void addJacobianProduct(double[] dx, double[] out) {
+    	// Forces without a Jacobian don't contribute anything
+    }
+    
+    /**
+     * Calculate the potential energy stored in this force. The
+     * default implementation returns 0, for forces that don't
+     * have a potential.
+     * 
+     * @return the potential energy of this force
+     */
+    public double calculateEnergy() {
+    	return 0.0;
+    }
+    
+    /**
+     * Get the particles this force is attached to. The system uses
+     * these to find the forces on a particle, and removes a force
+     * when one of its particles is removed. The default implementation
+     * returns null, for forces like gravity that act on every particle
+     * in the system instead of a fixed few.
+     * 
+     * @return the particles the force is attached to, or null if it acts on the whole system
+     */
+    public Particle[] getParticles() {
+    	return null;
+    }
+    
+    /**
+     * Called when one of the particles of this force is removed from
+     * the system. The default implementation returns true, so the force
+     * is removed along with the particle. Forces made of many parts, like
+     * SpringNetwork, can instead drop the parts the particle was in.
+     * 
+     * @param p the particle being removed
+     * @return true if the force should be removed from the system
+     */
+    public boolean detachParticle(Particle p) {
+    	return true;
+    }
+    
+    /**
+     * Create a copy of this force that acts on the particles of
+     * another system. Particle i of the system the force is in is
+     * replaced with particle i of the other system, so the two systems
+     * need to have their particles in the same order. Every force
+     * has to implement this so that ParticleSystem.copy() works.
+     * 
+     * @param from the system this force is in
+     * @param to the system the copy will be in
+     * @return the copy
+     */
+    public abstract Force copy(ParticleSystem from, ParticleSystem to);
+    
+    /**
+     * Find the particle in another system that takes the place
+     * of a particle when a force is copied.
+     * 
+     * @param p the particle in the original system
+     * @param from the original system
+     * @param to the system the force is being copied to
+     * @return the particle at the same index in the other system
+     */
+    protected static Particle mapParticle(Particle p, ParticleSystem from, ParticleSystem to) {
+    	if (p.getStore() != from.getParticleStore()) {
+    		throw new IllegalArgumentException("Particle " + p.getId() + " isn't in the system being copied");
+    	}
+    	return to.getParticles().get(p.getIndex());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package physics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for applying a run of forces of the same
+ * class, recorded by a ParticleSystem that has metrics. Only forces
+ * computed on the stepping thread are recorded one class at a time.
+ */
+@Name("physics.ForceEvaluation")
+@Label("Force Evaluation")
+@Category("Physics")
+@Description("Applying consecutive forces of one class")
+class ForceEvaluationEvent extends jdk.jfr.Event {
+	@Label("Force Class")
+	String forceClass;
+
+	@Label("Forces")
+	int count;
+}
@@ -1,7 +1,5 @@
 package physics;
 
-import java.util.List;
-
 /**
  * This class represents gravity as it is felt here on
  * the Earth, causing things to fall.
@@ -35,13 +33,46 @@ public class Gravity extends Force {
      */
     public void setConstant(double g) {
     	this.g = g;
+    	this.ps.getParticleStore().markChanged();
+    }
+
+    /**
+     * Calculate the potential energy of every particle in the
+     * system. Gravity pulls in the positive y direction, so the
+     * potential energy of a particle is -m * g * y.
+     * 
+     * @return the potential energy of the particles
+     */
+    @Override
+    public double calculateEnergy() {
+        ParticleStore store = this.ps.getParticleStore();
+        double[] x = store.getPositions();
+        double[] m = store.getMasses();
+        double energy = 0.0;
+        for (int i = 0; i < store.size(); i++) {
+        	energy -= this.g * m[i] * x[2 * i + 1];
+        }
+        return energy;
+    }
+    
+    @Override
+    public Force copy(ParticleSystem from, ParticleSystem to) {
+    	return new Gravity(to, this.g);
     }
 
     @Override
     public void applyForce() {
-        List<Particle> particles = this.ps.getParticles();
-        for (int i = 0; i < particles.size(); i++) {
-        	particles.get(i).addForce((new Vec2(0, this.g)).mult(particles.get(i).getMass()));
+        ParticleStore store = this.ps.getParticleStore();
+        double[] f = store.getForceAccumulators();
+        double[] m = store.getMasses();
+        for (int i = 0; i < store.size(); i++) {
+        	f[2 * i + 1] += this.g * m[i];
         }
     }
+    
+    @Override
+    public boolean hasJacobian() {
+    	// Gravity doesn't depend on position, so its Jacobian is 0
+    	return true;
+    }
 }
\ No newline at end of file
@@ -11,13 +11,90 @@ public class GravityAttraction extends Force {
 		this.G = G;
 	}
 	
+	/**
+	 * Get the particles that attract each other in an
+	 * array with two elements.
+	 * 
+	 * @return an array of Particle objects containing two elements
+	 */
+	@Override
+	public Particle[] getParticles() {
+		return new Particle[] { this.a, this.b };
+	}
+	
+	/**
+	 * Get the gravitational constant.
+	 * 
+	 * @return the gravitational constant
+	 */
+	public double getConstant() {
+		return this.G;
+	}
+	
+	/**
+	 * Calculate the gravitational potential energy of the
+	 * two particles, which is -G * m1 * m2 / r.
+	 * 
+	 * @return the potential energy of the attraction
+	 */
+	@Override
+	public double calculateEnergy() {
+		double r = Vec2.sub(this.b.getPosition(), this.a.getPosition()).mag();
+		return -this.G * this.a.getMass() * this.b.getMass() / r;
+	}
+	
+	@Override
+	public Force copy(ParticleSystem from, ParticleSystem to) {
+		return new GravityAttraction(mapParticle(this.a, from, to), mapParticle(this.b, from, to), this.G);
+	}
+	
 	@Override
 	public void applyForce() {
-		Vec2 r = Vec2.sub(this.b.getPosition(), this.a.getPosition());
-		double fmag = (this.G * this.a.getMass() * this.b.getMass()) / (r.mag() * r.mag());
-		Vec2 f1 = Vec2.mult(r.unit(), fmag);
-		this.a.addForce(f1);
-		f1.mult(-1);
-		this.b.addForce(f1);
+		ParticleStore sa = this.a.getStore();
+		ParticleStore sb = this.b.getStore();
+		int ia = this.a.getIndex();
+		int ib = this.b.getIndex();
+		double[] xa = sa.getPositions();
+		double[] xb = sb.getPositions();
+		double rx = xb[2 * ib] - xa[2 * ia];
+		double ry = xb[2 * ib + 1] - xa[2 * ia + 1];
+		double r2 = rx * rx + ry * ry;
+		double fmag = (this.G * sa.getMasses()[ia] * sb.getMasses()[ib]) / r2;
+		double s = fmag / Math.sqrt(r2);
+		sa.addForce(ia, s * rx, s * ry);
+		sb.addForce(ib, -s * rx, -s * ry);
+	}
+	
+	@Override
+	public boolean hasJacobian() {
+		return true;
+	}
+	
+	@Override
+	public void addJacobianProduct(double[] dx, double[] out) {
+		ParticleStore sa = this.a.getStore();
+		ParticleStore sb = this.b.getStore();
+		int ia = this.a.getIndex();
+		int ib = this.b.getIndex();
+		double[] xa = sa.getPositions();
+		double[] xb = sb.getPositions();
+		double rx = xb[2 * ib] - xa[2 * ia];
+		double ry = xb[2 * ib + 1] - xa[2 * ia + 1];
+		double r2 = rx * rx + ry * ry;
+		double r = Math.sqrt(r2);
+		double c = this.G * sa.getMasses()[ia] * sb.getMasses()[ib] / (r2 * r);
+		
+		// The force on a is c * r, so its Jacobian with respect to r
+		// is c * (I - 3 * rr^T / |r|^2)
+		double dxr = dx[2 * ib] - dx[2 * ia];
+		double dyr = dx[2 * ib + 1] - dx[2 * ia + 1];
+		double along = 3.0 * (rx * dxr + ry * dyr) / r2;
+		double jx = c * (dxr - rx * along);
+		double jy = c * (dyr - ry * along);
+		
+		out[2 * ia] += jx;
+		out[2 * ia + 1] += jy;
+		out[2 * ib] -= jx;
+		out[2 * ib + 1] -= jy;
 	}
 }
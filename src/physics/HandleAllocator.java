@@ -0,0 +1,147 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * Hands out handles for the slots of a table, reusing the slots that
+ * are freed so the table stays dense however many objects come and go.
+ * A handle packs the index of its slot into its low 32 bits and the
+ * generation of the slot into its high 32 bits. The generation changes
+ * every time the slot is freed, so a handle to an object that is gone
+ * stops being valid even after its slot has been reused, and a handle
+ * is never 0.
+ *
+ * Freed slots are kept on a stack threaded through an array, so
+ * allocating and freeing take O(1) time. An allocator isn't thread
+ * safe, just like the ParticleSystem that uses it; objects can be
+ * created on any thread, but they have to be added to a system on
+ * the thread that owns it.
+ */
+public class HandleAllocator {
+	/**
+	 * A value that is never a valid handle.
+	 */
+	public static final long NO_HANDLE = 0;
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long SLOT_MASK = 0xFFFFFFFFL;
+
+	// Odd while the slot is in use, even while it is free
+	private int[] generations;
+	// The next free slot on the stack below each free slot, or -1 at the bottom
+	private int[] next;
+	// The free slot on top of the stack, or -1 if there isn't one
+	private int freeList;
+	// The number of slots that have ever been handed out
+	private int slotCount;
+	private int size;
+
+	/**
+	 * Create an allocator with no handles in use.
+	 */
+	public HandleAllocator() {
+		this.generations = new int[INITIAL_CAPACITY];
+		this.next = new int[INITIAL_CAPACITY];
+		this.freeList = -1;
+		this.slotCount = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Get the slot a handle refers to.
+	 *
+	 * @param handle the handle
+	 * @return the index of the slot
+	 */
+	public static int slot(long handle) {
+		return (int)(handle & SLOT_MASK);
+	}
+
+	/**
+	 * Get the generation of the slot when a handle was allocated.
+	 *
+	 * @param handle the handle
+	 * @return the generation
+	 */
+	public static int generation(long handle) {
+		return (int)(handle >>> 32);
+	}
+
+	/**
+	 * Allocate a handle, reusing a freed slot if there is one.
+	 *
+	 * @return the new handle
+	 */
+	public long allocate() {
+		int slot = this.freeList;
+		if (slot >= 0) {
+			this.freeList = this.next[slot];
+		} else {
+			if (this.slotCount == Integer.MAX_VALUE) {
+				throw new IllegalStateException("Out of handles");
+			}
+			slot = this.slotCount++;
+			if (slot == this.generations.length) {
+				int capacity = (int)Math.min(2L * slot, Integer.MAX_VALUE);
+				this.generations = Arrays.copyOf(this.generations, capacity);
+				this.next = Arrays.copyOf(this.next, capacity);
+			}
+		}
+
+		int generation = ++this.generations[slot];
+		this.size++;
+		return ((long)generation << 32) | slot;
+	}
+
+	/**
+	 * Free a handle so its slot can be reused. Freeing a handle
+	 * that isn't valid does nothing.
+	 *
+	 * @param handle the handle to free
+	 * @return true if the handle was valid and has been freed
+	 */
+	public boolean free(long handle) {
+		if (!this.isValid(handle)) {
+			return false;
+		}
+
+		int slot = slot(handle);
+		this.generations[slot]++;
+		this.next[slot] = this.freeList;
+		this.freeList = slot;
+		this.size--;
+		return true;
+	}
+
+	/**
+	 * Check whether a handle is still in use.
+	 *
+	 * @param handle the handle
+	 * @return true if the handle has been allocated and not freed
+	 */
+	public boolean isValid(long handle) {
+		int slot = slot(handle);
+		int generation = generation(handle);
+		return (generation & 1) == 1 && slot >= 0 && slot < this.slotCount && this.generations[slot] == generation;
+	}
+
+	/**
+	 * Get the number of handles in use.
+	 *
+	 * @return the number of handles allocated and not freed
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Get the number of slots that have been used. Every slot
+	 * is less than this, so it is the length a table indexed by
+	 * slot needs to be.
+	 *
+	 * @return the number of slots
+	 */
+	public int getSlotCount() {
+		return this.slotCount;
+	}
+}
@@ -0,0 +1,262 @@
+package physics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Solver that implements the backward (implicit) Euler method,
+ * linearised around the start of the step. This is the method from
+ * Baraff and Witkin's "Large Steps in Cloth Simulation". The change
+ * in velocity over a step is found by solving
+ *
+ *     (M - h^2 K) dv = h (f + h K v)
+ *
+ * where M is the mass matrix, K is the Jacobian of the forces with
+ * respect to position, and f and v are the forces and velocities at
+ * the start of the step. The system is solved with the conjugate
+ * gradient method preconditioned by the masses. K is never built;
+ * its products with vectors come from Force.addJacobianProduct().
+ *
+ * The method is stable for stiff springs at step sizes that would
+ * make the explicit solvers blow up, at the cost of damping the motion.
+ * Forces that don't supply a Jacobian are treated as constant over
+ * the step.
+ */
+public class ImplicitEulerSolver implements NumericalSolver {
+	private int maxIterations;
+	private double tolerance;
+	private int lastIterations;
+
+	private double[] f0;
+	private double[] b;
+	private double[] dv;
+	private double[] r;
+	private double[] z;
+	private double[] p;
+	private double[] ap;
+
+	/**
+	 * Create a solver that does at most 100 conjugate gradient
+	 * iterations per step, stopping when the residual falls below
+	 * 1e-6 of the right hand side.
+	 */
+	public ImplicitEulerSolver() {
+		this(100, 1e-6);
+	}
+
+	/**
+	 * Create a solver with the given conjugate gradient settings.
+	 *
+	 * @param maxIterations the most conjugate gradient iterations to do per step
+	 * @param tolerance the size of the residual relative to the right hand side at which to stop
+	 */
+	public ImplicitEulerSolver(int maxIterations, double tolerance) {
+		this.maxIterations = maxIterations;
+		this.tolerance = tolerance;
+	}
+
+	@Override
+	public void step(ParticleSystem ps, double dt) {
+		ParticleStore store = ps.getParticleStore();
+		int n = 2 * store.size();
+		this.ensureBuffers(n);
+
+		double[] x = store.getPositions();
+		double[] v = store.getVelocities();
+		double[] m = store.getMasses();
+		double[] invM = store.getInverseMasses();
+
+		// Forces at the start of the step
+		ps.clearForces();
+		ps.computeForces();
+		System.arraycopy(store.getForceAccumulators(), 0, this.f0, 0, n);
+
+		// b = h * (f0 + h * K * v0)
+		this.multiplyJacobian(ps.getForces(), v, this.b, n);
+		for (int i = 0; i < n; i++) {
+			this.b[i] = dt * (this.f0[i] + dt * this.b[i]);
+		}
+
+		// Start the solve from the explicit Euler guess
+		for (int i = 0; i < n; i++) {
+			this.dv[i] = dt * this.f0[i] * invM[i >> 1];
+		}
+
+		this.lastIterations = this.solve(ps.getForces(), m, invM, dt, n);
+
+		for (int i = 0; i < n; i++) {
+			v[i] += this.dv[i];
+			x[i] += dt * v[i];
+		}
+
+		ps.updateClock(dt);
+	}
+
+	/**
+	 * Solve (M - h^2 K) dv = b with the preconditioned conjugate
+	 * gradient method. dv holds the initial guess and is overwritten
+	 * with the solution.
+	 *
+	 * @param forces the forces in the system
+	 * @param m the masses of the particles
+	 * @param invM the inverse masses of the particles
+	 * @param h the step size
+	 * @param n the number of components
+	 * @return the number of iterations done
+	 */
+	private int solve(List<Force> forces, double[] m, double[] invM, double h, int n) {
+		double[] b = this.b;
+		double[] dv = this.dv;
+		double[] r = this.r;
+		double[] z = this.z;
+		double[] p = this.p;
+		double[] ap = this.ap;
+
+		double bb = dot(b, b, n);
+		if (bb == 0.0) {
+			Arrays.fill(dv, 0, n, 0.0);
+			return 0;
+		}
+		double threshold = this.tolerance * this.tolerance * bb;
+
+		this.multiplySystem(forces, m, h, dv, ap, n);
+		for (int i = 0; i < n; i++) {
+			r[i] = b[i] - ap[i];
+			z[i] = r[i] * invM[i >> 1];
+			p[i] = z[i];
+		}
+		double rz = dot(r, z, n);
+
+		int iteration = 0;
+		while (iteration < this.maxIterations && dot(r, r, n) > threshold) {
+			this.multiplySystem(forces, m, h, p, ap, n);
+			double pap = dot(p, ap, n);
+			if (pap <= 0.0) {
+				// The system isn't positive definite in this direction,
+				// so conjugate gradient can't make any more progress
+				break;
+			}
+
+			double alpha = rz / pap;
+			for (int i = 0; i < n; i++) {
+				dv[i] += alpha * p[i];
+				r[i] -= alpha * ap[i];
+				z[i] = r[i] * invM[i >> 1];
+			}
+
+			double rzNew = dot(r, z, n);
+			double beta = rzNew / rz;
+			rz = rzNew;
+			for (int i = 0; i < n; i++) {
+				p[i] = z[i] + beta * p[i];
+			}
+
+			iteration++;
+		}
+
+		return iteration;
+	}
+
+	/**
+	 * Calculate out = (M - h^2 K) y.
+	 *
+	 * @param forces the forces in the system
+	 * @param m the masses of the particles
+	 * @param h the step size
+	 * @param y the vector to multiply
+	 * @param out the array to write the product to
+	 * @param n the number of components
+	 */
+	private void multiplySystem(List<Force> forces, double[] m, double h, double[] y, double[] out, int n) {
+		this.multiplyJacobian(forces, y, out, n);
+		double h2 = h * h;
+		for (int i = 0; i < n; i++) {
+			out[i] = m[i >> 1] * y[i] - h2 * out[i];
+		}
+	}
+
+	/**
+	 * Calculate out = K y by adding up the Jacobian products of
+	 * all the forces.
+	 *
+	 * @param forces the forces in the system
+	 * @param y the vector to multiply
+	 * @param out the array to write the product to
+	 * @param n the number of components
+	 */
+	private void multiplyJacobian(List<Force> forces, double[] y, double[] out, int n) {
+		Arrays.fill(out, 0, n, 0.0);
+		for (int i = 0; i < forces.size(); i++) {
+			Force f = forces.get(i);
+			if (f.hasJacobian()) {
+				f.addJacobianProduct(y, out);
+			}
+		}
+	}
+
+	/**
+	 * Calculate the dot product of the first n components
+	 * of two arrays.
+	 *
+	 * @param a the first array
+	 * @param b the second array
+	 * @param n the number of components
+	 * @return the dot product
+	 */
+	private static double dot(double[] a, double[] b, int n) {
+		double sum = 0.0;
+		for (int i = 0; i < n; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Get the number of conjugate gradient iterations done
+	 * in the last step.
+	 *
+	 * @return the number of iterations in the last step
+	 */
+	public int getLastIterations() {
+		return this.lastIterations;
+	}
+
+	/**
+	 * Set the most conjugate gradient iterations to do per step.
+	 *
+	 * @param maxIterations the iteration limit
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Set the size of the residual, relative to the right hand
+	 * side, at which the conjugate gradient solve stops.
+	 *
+	 * @param tolerance the relative tolerance
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Make sure the buffers match the number of components
+	 * in the system being solved.
+	 *
+	 * @param n the number of components
+	 */
+	private void ensureBuffers(int n) {
+		if (this.f0 != null && this.f0.length == n) {
+			return;
+		}
+
+		this.f0 = new double[n];
+		this.b = new double[n];
+		this.dv = new double[n];
+		this.r = new double[n];
+		this.z = new double[n];
+		this.p = new double[n];
+		this.ap = new double[n];
+	}
+}
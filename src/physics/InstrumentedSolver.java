@@ -0,0 +1,80 @@
+package physics;
+
+/**
+ * Wraps another solver and records how long each step takes in a
+ * SimulationMetrics, and as a Flight Recorder event. The system being
+ * stepped is given the same metrics if it doesn't have any, so that
+ * the time spent on forces and copies is broken out of the step.
+ */
+public class InstrumentedSolver implements NumericalSolver {
+	private NumericalSolver solver;
+	private SimulationMetrics metrics;
+
+	/**
+	 * Wrap a solver.
+	 *
+	 * @param solver the solver that does the stepping
+	 * @param metrics the metrics to record the steps in
+	 */
+	public InstrumentedSolver(NumericalSolver solver, SimulationMetrics metrics) {
+		this.solver = solver;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the solver that does the stepping.
+	 *
+	 * @return the wrapped solver
+	 */
+	public NumericalSolver getSolver() {
+		return this.solver;
+	}
+
+	/**
+	 * Get the metrics the steps are recorded in.
+	 *
+	 * @return the metrics
+	 */
+	public SimulationMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	@Override
+	public void step(ParticleSystem ps, double dt) {
+		if (ps.getMetrics() == null) {
+			ps.setMetrics(this.metrics);
+		}
+
+		StepEvent event = new StepEvent();
+		boolean recording = event.isEnabled();
+		long clear = 0;
+		long compute = 0;
+		long copies = 0;
+		long evaluations = 0;
+		if (recording) {
+			clear = this.metrics.getClearForcesNanos();
+			compute = this.metrics.getComputeForcesNanos();
+			copies = this.metrics.getStateCopyNanos();
+			evaluations = this.metrics.getDerivativeEvaluations();
+			event.begin();
+		}
+
+		long start = System.nanoTime();
+		this.solver.step(ps, dt);
+		this.metrics.recordStep(System.nanoTime() - start);
+
+		if (recording) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.solver = this.solver.getClass().getSimpleName();
+				event.particles = ps.getParticleStore().size();
+				event.forces = ps.getForces().size();
+				event.clearForces = this.metrics.getClearForcesNanos() - clear;
+				event.computeForces = this.metrics.getComputeForcesNanos() - compute;
+				event.stateCopies = this.metrics.getStateCopyNanos() - copies;
+				event.derivativeEvaluations = this.metrics.getDerivativeEvaluations() - evaluations;
+				event.commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,421 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * A k-d tree over a set of points, used to find the points nearest to
+ * a position in O(log N) time. The tree is built all at once from the
+ * positions it is given, in O(N log N) time, and isn't changed when the
+ * points move; it has to be rebuilt to see where they are now. Between
+ * rebuilds the answers are about where the points were when it was built.
+ *
+ * The tree is stored implicitly in one array. Each range of points is
+ * split at its median along whichever axis it is more spread out on,
+ * the median goes in the middle of the range, and the points on either
+ * side of it make up the two halves. Points are referred to by their
+ * index in the positions the tree was built from. The tree isn't safe to
+ * use from more than one thread at a time, even for queries.
+ */
+public class KDTree {
+	// The points in tree order, and the index each one was built from
+	private double[] x;
+	private int[] index;
+	// Whether the range with its median at position m was split along x
+	private boolean[] splitX;
+	private int size;
+
+	// The best points found so far by a query, as a max-heap on distance
+	private int[] heapIndex;
+	private double[] heapDistance;
+	private int heapSize;
+	private int heapCapacity;
+
+	/**
+	 * Create an empty tree.
+	 */
+	public KDTree() {
+		this.x = new double[0];
+		this.index = new int[0];
+		this.splitX = new boolean[0];
+		this.size = 0;
+		this.heapIndex = new int[1];
+		this.heapDistance = new double[1];
+	}
+
+	/**
+	 * Get the number of points in the tree.
+	 *
+	 * @return the number of points
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Rebuild the tree from the current positions of the particles
+	 * in a store.
+	 *
+	 * @param store the store holding the particles
+	 */
+	public void rebuild(ParticleStore store) {
+		this.rebuild(store.getPositions(), store.size());
+	}
+
+	/**
+	 * Rebuild the tree from a set of points. The points are copied,
+	 * so the array can be changed afterwards.
+	 *
+	 * @param points the interleaved positions of the points
+	 * @param n the number of points at the start of the array
+	 */
+	public void rebuild(double[] points, int n) {
+		if (this.index.length < n) {
+			this.x = new double[2 * n];
+			this.index = new int[n];
+			this.splitX = new boolean[n];
+		}
+		// The points are moved around in the copy, so building the
+		// tree reads memory in order instead of jumping around
+		System.arraycopy(points, 0, this.x, 0, 2 * n);
+		for (int i = 0; i < n; i++) {
+			this.index[i] = i;
+		}
+		this.size = n;
+		this.build(0, n);
+	}
+
+	/**
+	 * Find the point nearest to a position.
+	 *
+	 * @param px the x-component of the position
+	 * @param py the y-component of the position
+	 * @return the index of the nearest point, or -1 if the tree is empty
+	 */
+	public int nearest(double px, double py) {
+		return this.nearest(px, py, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Find the point nearest to a position, if there is one within
+	 * a distance of it.
+	 *
+	 * @param px the x-component of the position
+	 * @param py the y-component of the position
+	 * @param maxDistance how far from the position to look
+	 * @return the index of the nearest point, or -1 if no point is within maxDistance
+	 */
+	public int nearest(double px, double py, double maxDistance) {
+		this.search(px, py, 1, maxDistance);
+		return (this.heapSize > 0) ? this.heapIndex[0] : -1;
+	}
+
+	/**
+	 * Find the k points nearest to a position.
+	 *
+	 * @param px the x-component of the position
+	 * @param py the y-component of the position
+	 * @param k the number of points to find
+	 * @param result where to put the indices of the points, nearest first; must have room for k
+	 * @return the number of points found, which is less than k if the tree has fewer than k points
+	 */
+	public int nearest(double px, double py, int k, int[] result) {
+		return this.nearest(px, py, k, Double.POSITIVE_INFINITY, result);
+	}
+
+	/**
+	 * Find the k points nearest to a position that are within a
+	 * distance of it.
+	 *
+	 * @param px the x-component of the position
+	 * @param py the y-component of the position
+	 * @param k the number of points to find
+	 * @param maxDistance how far from the position to look
+	 * @param result where to put the indices of the points, nearest first; must have room for k
+	 * @return the number of points found
+	 */
+	public int nearest(double px, double py, int k, double maxDistance, int[] result) {
+		this.search(px, py, k, maxDistance);
+
+		// Taking the farthest off the heap each time leaves them in order
+		int count = this.heapSize;
+		while (this.heapSize > 0) {
+			result[this.heapSize - 1] = this.heapIndex[0];
+			this.pop();
+		}
+		return count;
+	}
+
+	/**
+	 * Visit every point within a distance of r from a position.
+	 *
+	 * @param px the x-component of the position
+	 * @param py the y-component of the position
+	 * @param r the search radius
+	 * @param visitor the visitor to call for each point found
+	 */
+	public void query(double px, double py, double r, SpatialHash.NeighborVisitor visitor) {
+		this.query(0, this.size, px, py, r * r, visitor);
+	}
+
+	/**
+	 * Sort a range of points into a tree.
+	 *
+	 * @param lo the first position in the range
+	 * @param hi one past the last position in the range
+	 */
+	private void build(int lo, int hi) {
+		while (hi - lo > 1) {
+			double minX = Double.POSITIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for (int k = lo; k < hi; k++) {
+				double px = this.x[2 * k];
+				double py = this.x[2 * k + 1];
+				if (px < minX) {
+					minX = px;
+				}
+				if (px > maxX) {
+					maxX = px;
+				}
+				if (py < minY) {
+					minY = py;
+				}
+				if (py > maxY) {
+					maxY = py;
+				}
+			}
+
+			int m = (lo + hi) >>> 1;
+			int axis = (maxX - minX >= maxY - minY) ? 0 : 1;
+			this.splitX[m] = (axis == 0);
+			this.select(lo, hi, m, axis);
+
+			// Recurse into the smaller half and loop on the bigger one
+			if (m - lo < hi - m - 1) {
+				this.build(lo, m);
+				lo = m + 1;
+			} else {
+				this.build(m + 1, hi);
+				hi = m;
+			}
+		}
+		if (hi - lo == 1) {
+			this.splitX[lo] = true;
+		}
+	}
+
+	/**
+	 * Partially sort a range of points along an axis, so that the
+	 * point at position nth is the one that would be there if the range
+	 * were sorted, with no point before it greater and none after it less.
+	 *
+	 * @param lo the first position in the range
+	 * @param hi one past the last position in the range
+	 * @param nth the position to put the right point in
+	 * @param axis 0 to sort along x, 1 to sort along y
+	 */
+	private void select(int lo, int hi, int nth, int axis) {
+		int[] index = this.index;
+		double[] x = this.x;
+		hi--;
+		while (hi > lo) {
+			// Partition around the median of the first, middle and last points
+			double a = x[2 * lo + axis];
+			double b = x[2 * ((lo + hi) >>> 1) + axis];
+			double c = x[2 * hi + axis];
+			double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (x[2 * i + axis] < pivot) {
+					i++;
+				}
+				while (x[2 * j + axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int t = index[i];
+					index[i] = index[j];
+					index[j] = t;
+					double tx = x[2 * i];
+					double ty = x[2 * i + 1];
+					x[2 * i] = x[2 * j];
+					x[2 * i + 1] = x[2 * j + 1];
+					x[2 * j] = tx;
+					x[2 * j + 1] = ty;
+					i++;
+					j--;
+				}
+			}
+
+			if (nth <= j) {
+				hi = j;
+			} else if (nth >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Fill the heap with the k nearest points within a distance of
+	 * a position.
+	 *
+	 * @param px the x-component of the position
+	 * @param py the y-component of the position
+	 * @param k the number of points to find
+	 * @param maxDistance how far from the position to look
+	 */
+	private void search(double px, double py, int k, double maxDistance) {
+		if (k < 1) {
+			throw new IllegalArgumentException("Can't find " + k + " points");
+		}
+		if (this.heapIndex.length < k) {
+			this.heapIndex = new int[k];
+			this.heapDistance = new double[k];
+		}
+		this.heapSize = 0;
+		this.heapCapacity = k;
+		this.search(0, this.size, px, py, maxDistance * maxDistance);
+	}
+
+	/**
+	 * Search a range of the tree for points nearer than the ones
+	 * in the heap.
+	 *
+	 * @param lo the first position in the range
+	 * @param hi one past the last position in the range
+	 * @param px the x-component of the position
+	 * @param py the y-component of the position
+	 * @param maxDistance2 the square of the distance to look within
+	 */
+	private void search(int lo, int hi, double px, double py, double maxDistance2) {
+		while (lo < hi) {
+			int m = (lo + hi) >>> 1;
+			double dx = this.x[2 * m] - px;
+			double dy = this.x[2 * m + 1] - py;
+			double d2 = dx * dx + dy * dy;
+			if (d2 <= maxDistance2) {
+				this.offer(this.index[m], d2);
+			}
+
+			// Search the side of the split the position is on first, then
+			// the other side if the split is nearer than the worst point kept
+			double diff = this.splitX[m] ? -dx : -dy;
+			int nearLo = (diff < 0) ? lo : m + 1;
+			int nearHi = (diff < 0) ? m : hi;
+			this.search(nearLo, nearHi, px, py, maxDistance2);
+
+			double bound = (this.heapSize == this.heapCapacity) ? this.heapDistance[0] : maxDistance2;
+			if (diff * diff > bound) {
+				return;
+			}
+			lo = (diff < 0) ? m + 1 : lo;
+			hi = (diff < 0) ? hi : m;
+		}
+	}
+
+	/**
+	 * Visit the points in a range of the tree within a distance
+	 * of a position.
+	 *
+	 * @param lo the first position in the range
+	 * @param hi one past the last position in the range
+	 * @param px the x-component of the position
+	 * @param py the y-component of the position
+	 * @param r2 the square of the search radius
+	 * @param visitor the visitor to call for each point found
+	 */
+	private void query(int lo, int hi, double px, double py, double r2, SpatialHash.NeighborVisitor visitor) {
+		while (lo < hi) {
+			int m = (lo + hi) >>> 1;
+			double dx = this.x[2 * m] - px;
+			double dy = this.x[2 * m + 1] - py;
+			if (dx * dx + dy * dy <= r2) {
+				visitor.visit(this.index[m]);
+			}
+
+			double diff = this.splitX[m] ? -dx : -dy;
+			if (diff * diff <= r2 || diff >= 0) {
+				this.query(m + 1, hi, px, py, r2, visitor);
+			}
+			if (diff * diff > r2 && diff >= 0) {
+				return;
+			}
+			hi = m;
+		}
+	}
+
+	/**
+	 * Offer a point to the heap, which keeps it if the heap isn't
+	 * full or the point is nearer than the farthest point in it.
+	 *
+	 * @param i the index of the point
+	 * @param d2 the square of its distance
+	 */
+	private void offer(int i, double d2) {
+		int[] heapIndex = this.heapIndex;
+		double[] heapDistance = this.heapDistance;
+		if (this.heapSize < this.heapCapacity) {
+			// Sift up from the end
+			int c = this.heapSize++;
+			while (c > 0) {
+				int p = (c - 1) >>> 1;
+				if (heapDistance[p] >= d2) {
+					break;
+				}
+				heapIndex[c] = heapIndex[p];
+				heapDistance[c] = heapDistance[p];
+				c = p;
+			}
+			heapIndex[c] = i;
+			heapDistance[c] = d2;
+		} else if (d2 < heapDistance[0]) {
+			this.siftDown(i, d2);
+		}
+	}
+
+	/**
+	 * Remove the farthest point from the heap.
+	 */
+	private void pop() {
+		int last = --this.heapSize;
+		if (last > 0) {
+			this.siftDown(this.heapIndex[last], this.heapDistance[last]);
+		}
+	}
+
+	/**
+	 * Put a point at the top of the heap and move it down to
+	 * where it belongs.
+	 *
+	 * @param i the index of the point
+	 * @param d2 the square of its distance
+	 */
+	private void siftDown(int i, double d2) {
+		int[] heapIndex = this.heapIndex;
+		double[] heapDistance = this.heapDistance;
+		int n = this.heapSize;
+		int p = 0;
+		while (true) {
+			int c = 2 * p + 1;
+			if (c >= n) {
+				break;
+			}
+			if (c + 1 < n && heapDistance[c + 1] > heapDistance[c]) {
+				c++;
+			}
+			if (heapDistance[c] <= d2) {
+				break;
+			}
+			heapIndex[p] = heapIndex[c];
+			heapDistance[p] = heapDistance[c];
+			p = c;
+		}
+		heapIndex[p] = i;
+		heapDistance[p] = d2;
+	}
+}
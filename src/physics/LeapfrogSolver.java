@@ -0,0 +1,13 @@
+package physics;
+
+/**
+ * Solver that implements the kick-drift-kick form of the
+ * leapfrog method. The velocities are kicked forward half a step,
+ * the positions drift a whole step with those velocities, and the
+ * velocities are kicked the rest of the way with the accelerations
+ * at the new positions. Written out, the positions and velocities
+ * this gives are exactly the ones velocity Verlet gives, so this is
+ * a VelocityVerletSolver under the name the method is also known by.
+ */
+public class LeapfrogSolver extends VelocityVerletSolver {
+}
@@ -2,17 +2,28 @@ package physics;
 
 /**
  * Implements the numerical solver using
- * the midpoint method.
+ * the midpoint method. The buffers are kept between
+ * steps and only reallocated when the number of
+ * particles in the system changes.
  */
 public class MidpointSolver implements NumericalSolver {
+    private double[] initialState;
+    private double[] derivs;
+
     public void step(ParticleSystem ps, double dt) {
-        Vec2[] initialState = ps.getSystemState();
-        Vec2[] derivs1 = ps.calculateDerivatives();
-        ps.scaleVector(derivs1, dt * 0.5);
-        ps.updateSystemState(derivs1);
-        Vec2[] derivs2 = ps.calculateDerivatives();
-        ps.scaleVector(derivs2, dt);
+        int n = ps.getStateLength();
+        if (this.initialState == null || this.initialState.length != n) {
+            this.initialState = new double[n];
+            this.derivs = new double[n];
+        }
+        double[] initialState = this.initialState;
+        double[] derivs = this.derivs;
+        ps.getSystemState(initialState);
+        ps.calculateDerivatives(derivs);
+        ps.updateSystemState(derivs, dt * 0.5);
+        ps.calculateDerivatives(derivs);
         ps.setSystemState(initialState);
-        ps.updateSystemState(derivs2);
+        ps.updateSystemState(derivs, dt);
+        ps.updateClock(dt);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package physics;
+
+/**
+ * Finds the particle nearest to a point, such as the mouse, again and
+ * again. While the particles are still, a k-d tree built from their
+ * positions answers each query in O(log N) time. While they are moving
+ * the tree would have to be rebuilt for every query, which costs more
+ * than looking at every particle, so the particles are scanned instead.
+ * A tree is only built once the same state has been asked about twice.
+ *
+ * The caller says when the particles have changed by passing a version
+ * that changes whenever they move or are added, removed or reordered,
+ * like ParticleStore.getVersion() or StateSnapshot.getVersion(). The
+ * particles are given as interleaved positions, and are referred to by
+ * their index in them.
+ */
+public class NearestParticleFinder {
+	private KDTree tree;
+	// The version the tree was built from, and whether it has been built
+	private int builtVersion;
+	private boolean built;
+	// The version of the last query, and whether there has been one
+	private int lastVersion;
+	private boolean queried;
+
+	/**
+	 * Create a finder.
+	 */
+	public NearestParticleFinder() {
+		this.tree = new KDTree();
+	}
+
+	/**
+	 * Find the particle nearest to a point.
+	 *
+	 * @param x the interleaved positions of the particles
+	 * @param n the number of particles
+	 * @param version a number that changes whenever the particles change
+	 * @param px the x-component of the point
+	 * @param py the y-component of the point
+	 * @return the index of the nearest particle, or -1 if there are none
+	 */
+	public int nearest(double[] x, int n, int version, double px, double py) {
+		boolean repeated = this.queried && this.lastVersion == version;
+		this.lastVersion = version;
+		this.queried = true;
+		if (n == 0) {
+			return -1;
+		}
+
+		if (this.built && this.builtVersion == version) {
+			return this.tree.nearest(px, py);
+		}
+		if (repeated) {
+			// The particles have stopped changing, so the tree will be used again
+			this.tree.rebuild(x, n);
+			this.builtVersion = version;
+			this.built = true;
+			return this.tree.nearest(px, py);
+		}
+
+		int best = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			double dx = x[2 * i] - px;
+			double dy = x[2 * i + 1] - py;
+			double dist = dx * dx + dy * dy;
+			if (dist < bestDistance) {
+				best = i;
+				bestDistance = dist;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,215 @@
+package physics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the forces in a ParticleSystem on several threads.
+ * The list of forces is split into one chunk per thread, and the
+ * chunks are applied in parallel on a fork/join pool. Every chunk
+ * adds its forces to a private buffer, so two forces that push
+ * on the same particle never write to the same memory at the same
+ * time; once all the chunks are done the buffers are added up into
+ * the force accumulators of the particles, also in parallel.
+ *
+ * Below a threshold number of forces the work isn't worth handing
+ * out, and the forces are applied on the calling thread instead.
+ * A single force is always applied by a single thread, so a force
+ * that does a lot of work by itself (like Gravity or BarnesHutGravity)
+ * doesn't get any faster.
+ */
+public class ParallelForceEvaluator {
+	private static final int DEFAULT_THRESHOLD = 256;
+
+	// Don't split the reduction into ranges smaller than this
+	private static final int REDUCE_GRAIN = 4096;
+
+	private ForkJoinPool pool;
+	private int parallelism;
+	private int threshold;
+
+	// One force buffer per chunk, reused between evaluations
+	private double[][] buffers;
+
+	/**
+	 * Create an evaluator with one thread per processor.
+	 */
+	public ParallelForceEvaluator() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create an evaluator with the given number of threads.
+	 *
+	 * @param parallelism the number of threads to compute forces on
+	 */
+	public ParallelForceEvaluator(int parallelism) {
+		this.parallelism = Math.max(parallelism, 1);
+		this.pool = new ForkJoinPool(this.parallelism);
+		this.threshold = DEFAULT_THRESHOLD;
+		this.buffers = new double[this.parallelism][0];
+	}
+
+	/**
+	 * Get the number of threads forces are computed on.
+	 *
+	 * @return the number of threads
+	 */
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * Get the smallest number of forces that is computed in parallel.
+	 *
+	 * @return the threshold
+	 */
+	public int getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * Set the smallest number of forces that is computed in
+	 * parallel. Systems with fewer forces are computed serially.
+	 *
+	 * @param threshold the new threshold
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Check whether a list of forces is big enough to be
+	 * computed in parallel.
+	 *
+	 * @param forces the forces
+	 * @return true if computeForces() will use more than one thread
+	 */
+	public boolean isParallel(List<Force> forces) {
+		return this.parallelism > 1 && forces.size() >= this.threshold;
+	}
+
+	/**
+	 * Apply every force, adding the results to the force
+	 * accumulators of the particles in a store.
+	 *
+	 * @param store the store holding the particles the forces act on
+	 * @param forces the forces to apply
+	 */
+	public void computeForces(ParticleStore store, List<Force> forces) {
+		if (!this.isParallel(forces)) {
+			for (int i = 0; i < forces.size(); i++) {
+				forces.get(i).applyForce();
+			}
+			return;
+		}
+
+		int n = 2 * store.size();
+		for (int c = 0; c < this.buffers.length; c++) {
+			if (this.buffers[c].length < n) {
+				this.buffers[c] = new double[n];
+			}
+		}
+
+		store.setRedirected(true);
+		try {
+			this.pool.invoke(new ApplyTask(forces, 0, this.parallelism, n));
+		} finally {
+			store.setRedirected(false);
+		}
+
+		this.pool.invoke(new ReduceTask(store.getForceAccumulators(), 0, n));
+	}
+
+	/**
+	 * Stop the threads used by this evaluator. The evaluator
+	 * shouldn't be used afterwards.
+	 */
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * Applies the forces in a range of chunks. A single chunk is
+	 * applied into its own buffer; larger ranges are split in half.
+	 */
+	private class ApplyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private List<Force> forces;
+		private int fromChunk;
+		private int toChunk;
+		private int n;
+
+		ApplyTask(List<Force> forces, int fromChunk, int toChunk, int n) {
+			this.forces = forces;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+			this.n = n;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.toChunk - this.fromChunk > 1) {
+				int mid = (this.fromChunk + this.toChunk) >>> 1;
+				invokeAll(
+						new ApplyTask(this.forces, this.fromChunk, mid, this.n),
+						new ApplyTask(this.forces, mid, this.toChunk, this.n));
+				return;
+			}
+
+			int chunk = this.fromChunk;
+			int size = this.forces.size();
+			int from = (int)((long)size * chunk / parallelism);
+			int to = (int)((long)size * (chunk + 1) / parallelism);
+
+			double[] buffer = buffers[chunk];
+			Arrays.fill(buffer, 0, this.n, 0.0);
+
+			double[] previous = ParticleStore.getWorkerForces();
+			ParticleStore.setWorkerForces(buffer);
+			try {
+				for (int i = from; i < to; i++) {
+					this.forces.get(i).applyForce();
+				}
+			} finally {
+				ParticleStore.setWorkerForces(previous);
+			}
+		}
+	}
+
+	/**
+	 * Adds a range of every chunk's buffer into the force accumulators.
+	 */
+	private class ReduceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private double[] f;
+		private int from;
+		private int to;
+
+		ReduceTask(double[] f, int from, int to) {
+			this.f = f;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > REDUCE_GRAIN) {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new ReduceTask(this.f, this.from, mid), new ReduceTask(this.f, mid, this.to));
+				return;
+			}
+
+			for (int c = 0; c < buffers.length; c++) {
+				double[] buffer = buffers[c];
+				for (int i = this.from; i < this.to; i++) {
+					this.f[i] += buffer[i];
+				}
+			}
+		}
+	}
+}
@@ -2,23 +2,24 @@ package physics;
 
 /**
  * Class that represents a particle in my
- * physics simulation.
+ * physics simulation. The state of the particle
+ * isn't stored in the particle itself; it lives in
+ * a ParticleStore, and the particle is a handle that
+ * remembers its index in the store. A particle that
+ * hasn't been added to a ParticleSystem has a small
+ * store of its own.
  */
 public class Particle extends Registerable {	
-    // The position of the particle
-    private Vec2 x;
-    // The velocity of the particle
-    private Vec2 v;
-    // The force on the particle at the given moment
-    private Vec2 f;
-    // The mass of the particle
-    private double m;
+    // The store holding the position, velocity, force and mass of the particle
+    private ParticleStore store;
+    // The index of the particle in the store
+    private int index;
+    // The handle of the particle in the system it is in
+    private long handle = HandleAllocator.NO_HANDLE;
 
     public Particle(double x, double y, double vx, double vy, double m) {
-        this.x = new Vec2(x, y);
-        this.v = new Vec2(vx, vy);
-        this.clearForces();
-        this.m = m;
+        this.store = new ParticleStore(1);
+        this.index = this.store.add(x, y, vx, vy, m);
     }
 
     public Particle(Vec2 x, Vec2 v, double m) {
@@ -27,13 +28,101 @@ public class Particle extends Registerable {
     
     public Particle(Particle p) {
     	this(new Vec2(p.getPosition()), new Vec2(p.getVelocity()), p.getMass());
+    	this.setRadius(p.getRadius());
+    }
+
+    /**
+     * Create a handle for a particle that is already in a store.
+     *
+     * @param store the store the particle lives in
+     * @param index the index of the particle in the store
+     */
+    Particle(ParticleStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    /**
+     * Move the state of this particle into another store.
+     *
+     * @param store the store the particle should live in
+     */
+    void attach(ParticleStore store) {
+        double[] x = this.store.getPositions();
+        double[] v = this.store.getVelocities();
+        int i = this.index;
+        double r = this.getRadius();
+        this.index = store.add(x[2 * i], x[2 * i + 1], v[2 * i], v[2 * i + 1], this.getMass());
+        this.store = store;
+        store.setRadius(this.index, r);
+    }
+
+    /**
+     * Move the state of this particle out of the store it
+     * is in and into a store of its own. The caller is
+     * responsible for removing the particle from the old store.
+     */
+    void detach() {
+        this.attach(new ParticleStore(1));
+    }
+
+    /**
+     * Get the store holding this particle's state.
+     *
+     * @return the store this particle lives in
+     */
+    ParticleStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Get the index of this particle in its store.
+     *
+     * @return the index of this particle
+     */
+    int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Set the index of this particle in its store. This is
+     * used when particles are moved around inside the store.
+     *
+     * @param index the new index
+     */
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Get the handle of this particle in the system it is in.
+     * Unlike the index of the particle, which changes when other
+     * particles are removed, the handle stays the same for as long
+     * as the particle is in the system, and can be used to look the
+     * particle up with ParticleSystem.getParticle().
+     *
+     * @return the handle, or HandleAllocator.NO_HANDLE if the particle isn't in a system
+     */
+    public long getHandle() {
+        return this.handle;
+    }
+
+    /**
+     * Set the handle of this particle.
+     *
+     * @param handle the handle the system gave the particle
+     */
+    void setHandle(long handle) {
+        this.handle = handle;
     }
 
     /**
      * Set the forces on this particle to 0.
      */
     public void clearForces() {
-        this.f = new Vec2();
+        double[] f = this.store.getForceAccumulators();
+        f[2 * this.index] = 0.0;
+        f[2 * this.index + 1] = 0.0;
     }
 
     /**
@@ -42,7 +131,8 @@ public class Particle extends Registerable {
      * @return the position of this particle
      */
     public Vec2 getPosition() {
-        return new Vec2(this.x);
+        double[] x = this.store.getPositions();
+        return new Vec2(x[2 * this.index], x[2 * this.index + 1]);
     }
 
     /**
@@ -51,7 +141,10 @@ public class Particle extends Registerable {
      * @param x the new position of this particle
      */
     public void setPosition(Vec2 x) {
-        this.x = new Vec2(x);
+        double[] pos = this.store.getPositions();
+        pos[2 * this.index] = x.getX();
+        pos[2 * this.index + 1] = x.getY();
+        this.store.markChanged();
     }
 
     /**
@@ -60,7 +153,8 @@ public class Particle extends Registerable {
      * @return the velocity of this particle
      */
     public Vec2 getVelocity() {
-        return new Vec2(this.v);
+        double[] v = this.store.getVelocities();
+        return new Vec2(v[2 * this.index], v[2 * this.index + 1]);
     }
 
     /**
@@ -69,7 +163,10 @@ public class Particle extends Registerable {
      * @param the new velocity of this particle
      */
     public void setVelocity(Vec2 v) {
-        this.v = new Vec2(v);
+        double[] vel = this.store.getVelocities();
+        vel[2 * this.index] = v.getX();
+        vel[2 * this.index + 1] = v.getY();
+        this.store.markChanged();
     }
 
     /**
@@ -78,7 +175,8 @@ public class Particle extends Registerable {
      * @return this particle's forces
      */
     public Vec2 getForce() {
-        return new Vec2(this.f);
+        double[] f = this.store.getForceAccumulators();
+        return new Vec2(f[2 * this.index], f[2 * this.index + 1]);
     }
 
     /**
@@ -87,7 +185,7 @@ public class Particle extends Registerable {
      * @param f force to add
      */
     public void addForce(Vec2 f) {
-        this.f.add(f);
+        this.store.addForce(this.index, f.getX(), f.getY());
     }
 
     /**
@@ -96,7 +194,7 @@ public class Particle extends Registerable {
      * @return the mass of the particle
      */
     public double getMass() {
-        return this.m;
+        return this.store.getMasses()[this.index];
     }
     
     /**
@@ -105,7 +203,26 @@ public class Particle extends Registerable {
      * @param m the new mass of the particle
      */
     public void setMass(double m) {
-    	this.m = m;
+    	this.store.setMass(this.index, m);
+    }
+    
+    /**
+     * Get the particle's radius.
+     * 
+     * @return the radius of the particle, or 0 if it doesn't collide
+     */
+    public double getRadius() {
+    	return this.store.getRadii()[this.index];
+    }
+    
+    /**
+     * Set the particle's radius. Particles with a radius collide
+     * with each other if the system they are in has collisions.
+     * 
+     * @param r the new radius of the particle, or 0 if it shouldn't collide
+     */
+    public void setRadius(double r) {
+    	this.store.setRadius(this.index, r);
     }
 
     /**
@@ -117,6 +234,9 @@ public class Particle extends Registerable {
      * @return the kinetic energy of the particle
      */
     public double calculateEnergy() {
-        return 0.5 * this.m * this.v.mag() * this.v.mag();
+        double[] v = this.store.getVelocities();
+        double vx = v[2 * this.index];
+        double vy = v[2 * this.index + 1];
+        return 0.5 * this.getMass() * (vx * vx + vy * vy);
     }
 }
\ No newline at end of file
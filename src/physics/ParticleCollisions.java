@@ -0,0 +1,217 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * Makes the particles in a system bounce off each other. Each particle
+ * with a radius is treated as a circle. After every step the pairs of
+ * circles whose bounding boxes overlap are found with a SweepAndPrune,
+ * the pairs whose circles really overlap are pushed apart, and an
+ * impulse along the line between their centers stops them moving
+ * towards each other.
+ *
+ * The impulses are applied to one pair at a time, so a particle touching
+ * several others can end up being pushed back into one of them. Running
+ * more than one pass over the contacts lets piles of particles settle.
+ */
+public class ParticleCollisions {
+	// How far circles can overlap before they are pushed apart, as a fraction of their radii
+	private static final double SLOP = 0.01;
+
+	private SweepAndPrune broadPhase;
+	private double restitution;
+	private int iterations;
+
+	// The pairs found by the broad phase, two indices per pair
+	private int[] pairs;
+	private int pairCount;
+	private int contactCount;
+
+	/**
+	 * Create collisions that lose no energy.
+	 */
+	public ParticleCollisions() {
+		this(1.0);
+	}
+
+	/**
+	 * Create collisions with a coefficient of restitution.
+	 *
+	 * @param restitution the ratio of the speed the particles separate at to the speed they hit at, from 0 to 1
+	 */
+	public ParticleCollisions(double restitution) {
+		this.broadPhase = new SweepAndPrune();
+		this.restitution = restitution;
+		this.iterations = 1;
+		this.pairs = new int[64];
+	}
+
+	/**
+	 * Get the coefficient of restitution.
+	 *
+	 * @return the coefficient of restitution
+	 */
+	public double getRestitution() {
+		return this.restitution;
+	}
+
+	/**
+	 * Set the coefficient of restitution. At 1 the particles bounce
+	 * off each other without losing energy, and at 0 they stop
+	 * moving towards each other without bouncing.
+	 *
+	 * @param restitution the coefficient of restitution, from 0 to 1
+	 */
+	public void setRestitution(double restitution) {
+		this.restitution = restitution;
+	}
+
+	/**
+	 * Get the number of passes made over the contacts every step.
+	 *
+	 * @return the number of passes
+	 */
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	/**
+	 * Set the number of passes made over the contacts every step.
+	 *
+	 * @param iterations the number of passes, at least 1
+	 */
+	public void setIterations(int iterations) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("At least one pass is needed, not " + iterations);
+		}
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Get the number of pairs of particles whose bounding boxes
+	 * overlapped the last time the collisions were resolved.
+	 *
+	 * @return the number of pairs found by the broad phase
+	 */
+	public int getPairCount() {
+		return this.pairCount;
+	}
+
+	/**
+	 * Get the number of pairs of particles that were touching
+	 * on the first pass the last time the collisions were resolved.
+	 *
+	 * @return the number of contacts
+	 */
+	public int getContactCount() {
+		return this.contactCount;
+	}
+
+	/**
+	 * Find the particles in a store that overlap and separate them.
+	 *
+	 * @param store the store holding the particles
+	 */
+	public void resolve(ParticleStore store) {
+		this.broadPhase.update(store);
+		this.pairCount = 0;
+		this.broadPhase.findPairs(this::addPair);
+
+		this.contactCount = 0;
+		for (int pass = 0; pass < this.iterations; pass++) {
+			int contacts = 0;
+			for (int p = 0; p < this.pairCount; p++) {
+				if (this.collide(store, this.pairs[2 * p], this.pairs[2 * p + 1])) {
+					contacts++;
+				}
+			}
+			if (pass == 0) {
+				this.contactCount = contacts;
+			}
+			if (contacts == 0) {
+				break;
+			}
+		}
+		if (this.contactCount > 0) {
+			// Anything saved about where the particles were is now wrong
+			store.markChanged();
+		}
+	}
+
+	/**
+	 * Save a pair found by the broad phase.
+	 *
+	 * @param i the index of the first particle
+	 * @param j the index of the second particle
+	 */
+	private void addPair(int i, int j) {
+		if (2 * this.pairCount + 2 > this.pairs.length) {
+			this.pairs = Arrays.copyOf(this.pairs, 2 * this.pairs.length);
+		}
+		this.pairs[2 * this.pairCount] = i;
+		this.pairs[2 * this.pairCount + 1] = j;
+		this.pairCount++;
+	}
+
+	/**
+	 * Check whether two circles overlap, and if they do, push them
+	 * apart and apply an impulse if they are moving towards each other.
+	 *
+	 * @param store the store holding the particles
+	 * @param i the index of the first particle
+	 * @param j the index of the second particle
+	 * @return true if the circles overlap
+	 */
+	private boolean collide(ParticleStore store, int i, int j) {
+		double[] x = store.getPositions();
+		double[] r = store.getRadii();
+		double dx = x[2 * j] - x[2 * i];
+		double dy = x[2 * j + 1] - x[2 * i + 1];
+		double radii = r[i] + r[j];
+		double d2 = dx * dx + dy * dy;
+		if (d2 >= radii * radii) {
+			return false;
+		}
+
+		// The normal points from i to j
+		double d = Math.sqrt(d2);
+		double nx;
+		double ny;
+		if (d > 0) {
+			nx = dx / d;
+			ny = dy / d;
+		} else {
+			nx = 1.0;
+			ny = 0.0;
+		}
+
+		double[] invM = store.getInverseMasses();
+		double wi = invM[i];
+		double wj = invM[j];
+		double w = wi + wj;
+		if (w <= 0) {
+			return true;
+		}
+
+		// Move the circles apart in proportion to their inverse masses
+		double depth = radii - d - SLOP * radii;
+		if (depth > 0) {
+			double push = depth / w;
+			x[2 * i] -= push * wi * nx;
+			x[2 * i + 1] -= push * wi * ny;
+			x[2 * j] += push * wj * nx;
+			x[2 * j + 1] += push * wj * ny;
+		}
+
+		double[] v = store.getVelocities();
+		double vn = (v[2 * j] - v[2 * i]) * nx + (v[2 * j + 1] - v[2 * i + 1]) * ny;
+		if (vn < 0) {
+			double impulse = -(1 + this.restitution) * vn / w;
+			v[2 * i] -= impulse * wi * nx;
+			v[2 * i + 1] -= impulse * wi * ny;
+			v[2 * j] += impulse * wj * nx;
+			v[2 * j + 1] += impulse * wj * ny;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,334 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * Flat storage for the state of a group of particles. Instead
+ * of every particle owning its own Vec2 objects, the positions,
+ * velocities, force accumulators and masses of all the particles
+ * live in primitive arrays, and a Particle is just a handle that
+ * knows where its data is stored.
+ *
+ * Positions, velocities and forces are stored with the x and y
+ * components interleaved, so the x-component of particle i is at
+ * index 2 * i and the y-component is at index 2 * i + 1.
+ *
+ * Every particle also has a radius, which is 0 unless it is set.
+ * Particles with a radius of 0 are points that don't collide.
+ */
+public class ParticleStore {
+	private static final int DEFAULT_CAPACITY = 16;
+	
+	// While forces are computed in parallel, each worker thread adds
+	// its forces to a buffer of its own instead of the shared accumulators
+	private static final ThreadLocal<double[]> workerForces = new ThreadLocal<>();
+
+	private double[] x;
+	private double[] v;
+	private double[] f;
+	private double[] m;
+	private double[] invM;
+	private double[] r;
+	private int size;
+	// Changes whenever the particles are changed from outside a solver step
+	private int version;
+	// Whether force writes should go to the worker buffers
+	private boolean redirected;
+
+	/**
+	 * Create an empty store.
+	 */
+	public ParticleStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty store with room for the given
+	 * number of particles.
+	 *
+	 * @param capacity the number of particles the store can hold before it has to grow
+	 */
+	public ParticleStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.x = new double[capacity * 2];
+		this.v = new double[capacity * 2];
+		this.f = new double[capacity * 2];
+		this.m = new double[capacity];
+		this.invM = new double[capacity];
+		this.r = new double[capacity];
+		this.size = 0;
+	}
+
+	/**
+	 * Add a particle to the end of the store.
+	 *
+	 * @param x the x-component of the position
+	 * @param y the y-component of the position
+	 * @param vx the x-component of the velocity
+	 * @param vy the y-component of the velocity
+	 * @param m the mass
+	 * @return the index of the new particle
+	 */
+	public int add(double x, double y, double vx, double vy, double m) {
+		this.ensureCapacity(this.size + 1);
+		int i = this.size;
+		this.x[2 * i] = x;
+		this.x[2 * i + 1] = y;
+		this.v[2 * i] = vx;
+		this.v[2 * i + 1] = vy;
+		this.f[2 * i] = 0.0;
+		this.f[2 * i + 1] = 0.0;
+		this.setMass(i, m);
+		this.r[i] = 0.0;
+		this.size++;
+		this.version++;
+		return i;
+	}
+
+	/**
+	 * Add a block of particles to the end of the store.
+	 *
+	 * @param x the interleaved positions of the particles
+	 * @param v the interleaved velocities of the particles
+	 * @param m the masses of the particles
+	 * @param count the number of particles to add from the start of the arrays
+	 * @return the index of the first new particle
+	 */
+	public int addAll(double[] x, double[] v, double[] m, int count) {
+		this.ensureCapacity(this.size + count);
+		int first = this.size;
+		System.arraycopy(x, 0, this.x, 2 * first, 2 * count);
+		System.arraycopy(v, 0, this.v, 2 * first, 2 * count);
+		Arrays.fill(this.f, 2 * first, 2 * (first + count), 0.0);
+		for (int i = 0; i < count; i++) {
+			this.setMass(first + i, m[i]);
+		}
+		Arrays.fill(this.r, first, first + count, 0.0);
+		this.size += count;
+		this.version++;
+		return first;
+	}
+
+	/**
+	 * Remove the particle at index i. The last particle in the
+	 * store is moved into its place, so the index of the last
+	 * particle changes to i.
+	 *
+	 * @param i the index of the particle to remove
+	 * @return the old index of the particle that was moved to i, which is i if the last particle was removed
+	 */
+	public int remove(int i) {
+		int last = --this.size;
+		if (i != last) {
+			this.x[2 * i] = this.x[2 * last];
+			this.x[2 * i + 1] = this.x[2 * last + 1];
+			this.v[2 * i] = this.v[2 * last];
+			this.v[2 * i + 1] = this.v[2 * last + 1];
+			this.f[2 * i] = this.f[2 * last];
+			this.f[2 * i + 1] = this.f[2 * last + 1];
+			this.m[i] = this.m[last];
+			this.invM[i] = this.invM[last];
+			this.r[i] = this.r[last];
+		}
+		this.version++;
+		return last;
+	}
+
+	/**
+	 * Make sure the store can hold the given number of
+	 * particles without growing.
+	 *
+	 * @param capacity the number of particles
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity <= this.m.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, this.m.length * 2);
+		this.x = Arrays.copyOf(this.x, newCapacity * 2);
+		this.v = Arrays.copyOf(this.v, newCapacity * 2);
+		this.f = Arrays.copyOf(this.f, newCapacity * 2);
+		this.m = Arrays.copyOf(this.m, newCapacity);
+		this.invM = Arrays.copyOf(this.invM, newCapacity);
+		this.r = Arrays.copyOf(this.r, newCapacity);
+	}
+
+	/**
+	 * Get the number of particles in the store.
+	 *
+	 * @return the number of particles
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Get the version of the particles in the store. It changes when
+	 * particles are added or removed, when a mass is set, and when
+	 * markChanged() is called, so a solver that keeps something it
+	 * worked out from the particles between steps can tell when it
+	 * is out of date.
+	 *
+	 * @return the version
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Record that the particles or the forces on them were changed
+	 * by something other than a solver step, such as a particle being
+	 * dragged or a spring constant being edited.
+	 */
+	public void markChanged() {
+		this.version++;
+	}
+
+	/**
+	 * Set the force accumulators of every particle to 0.
+	 */
+	public void clearForces() {
+		Arrays.fill(this.f, 0, 2 * this.size, 0.0);
+	}
+
+	/**
+	 * Add a force to the accumulator of particle i.
+	 *
+	 * @param i the index of the particle
+	 * @param fx the x-component of the force
+	 * @param fy the y-component of the force
+	 */
+	public void addForce(int i, double fx, double fy) {
+		double[] f = this.getForceAccumulators();
+		f[2 * i] += fx;
+		f[2 * i + 1] += fy;
+	}
+
+	/**
+	 * Set the mass of particle i.
+	 *
+	 * @param i the index of the particle
+	 * @param m the new mass
+	 */
+	public void setMass(int i, double m) {
+		this.m[i] = m;
+		this.invM[i] = 1 / m;
+		this.version++;
+	}
+
+	/**
+	 * Set the radius of particle i.
+	 *
+	 * @param i the index of the particle
+	 * @param r the new radius, or 0 if the particle shouldn't collide
+	 */
+	public void setRadius(int i, double r) {
+		this.r[i] = r;
+	}
+
+	/**
+	 * Get the interleaved positions of the particles. This
+	 * is the backing array, not a copy, and only the first
+	 * 2 * size() elements are meaningful. The array is replaced
+	 * when the store grows, so don't hold on to it across
+	 * calls that add particles.
+	 *
+	 * @return the positions of the particles
+	 */
+	public double[] getPositions() {
+		return this.x;
+	}
+
+	/**
+	 * Get the interleaved velocities of the particles. This
+	 * is the backing array, not a copy.
+	 *
+	 * @return the velocities of the particles
+	 */
+	public double[] getVelocities() {
+		return this.v;
+	}
+
+	/**
+	 * Get the interleaved force accumulators of the particles.
+	 * This is the backing array, not a copy. While the forces are
+	 * being computed in parallel, a worker thread gets its own
+	 * buffer instead, which is added to the real accumulators once
+	 * every force has been applied.
+	 *
+	 * @return the force accumulators of the particles
+	 */
+	public double[] getForceAccumulators() {
+		if (this.redirected) {
+			double[] w = workerForces.get();
+			if (w != null) {
+				return w;
+			}
+		}
+		return this.f;
+	}
+	
+	/**
+	 * Set whether force writes from threads that have a worker
+	 * buffer should go to that buffer.
+	 *
+	 * @param redirected if true, writes go to the worker buffers
+	 */
+	void setRedirected(boolean redirected) {
+		this.redirected = redirected;
+	}
+	
+	/**
+	 * Set the buffer the calling thread adds forces to while
+	 * forces are being computed in parallel.
+	 *
+	 * @param forces the buffer, or null to write to the store again
+	 */
+	static void setWorkerForces(double[] forces) {
+		if (forces == null) {
+			workerForces.remove();
+		} else {
+			workerForces.set(forces);
+		}
+	}
+	
+	/**
+	 * Get the buffer the calling thread adds forces to.
+	 *
+	 * @return the buffer, or null if the thread doesn't have one
+	 */
+	static double[] getWorkerForces() {
+		return workerForces.get();
+	}
+
+	/**
+	 * Get the masses of the particles. This is the backing
+	 * array, not a copy.
+	 *
+	 * @return the masses of the particles
+	 */
+	public double[] getMasses() {
+		return this.m;
+	}
+
+	/**
+	 * Get the inverse masses of the particles. This is the
+	 * backing array, not a copy.
+	 *
+	 * @return the inverse masses of the particles
+	 */
+	public double[] getInverseMasses() {
+		return this.invM;
+	}
+
+	/**
+	 * Get the radii of the particles. This is the backing
+	 * array, not a copy.
+	 *
+	 * @return the radii of the particles
+	 */
+	public double[] getRadii() {
+		return this.r;
+	}
+}
@@ -2,21 +2,56 @@ package physics;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
- * Represents a system of particles.
+ * Represents a system of particles. The state of the particles
+ * is kept in a ParticleStore, so the solvers can work on flat
+ * arrays of doubles instead of building arrays of Vec2 objects.
  */
 public class ParticleSystem {
+    private ParticleStore store;
     private List<Particle> particles;
+    // Hands out the handles of the particles, and finds particles by handle
+    private HandleAllocator handles;
+    private Particle[] bySlot;
     private List<Force> forces;
+    // Where each force is in forces, by the id of the force
+    private Map<Long, Integer> forceSlots;
+    // The forces attached to each particle, by the slot of the handle of the particle
+    private List<List<Force>> incidence;
+    // The forces added before some of their particles were, by the particle they are waiting for
+    private Map<Particle, List<Force>> pendingIncidence;
     private double t;
+    // Counts the number of times particles or forces have been added or removed
+    private int modCount;
+    // Counts the number of times particles have been added or removed
+    private int particleModCount;
+    // Optional index over the particle positions, rebuilt before the forces are computed
+    private SpatialHash spatialHash;
+    // Optional collisions between particles with a radius, resolved at the end of every step
+    private ParticleCollisions collisions;
+    // Optional evaluator that computes the forces on several threads
+    private ParallelForceEvaluator forceEvaluator;
+    // Optional counters for where the time spent stepping goes
+    private SimulationMetrics metrics;
 
     /**
      * Create a new particle system.
      */
     public ParticleSystem() {
+        this.store = new ParticleStore();
         this.particles = new ArrayList<Particle>();
+        this.handles = new HandleAllocator();
+        this.bySlot = new Particle[16];
         this.forces = new ArrayList<Force>();
+        this.forceSlots = new HashMap<>();
+        this.incidence = new ArrayList<>();
+        this.pendingIncidence = new IdentityHashMap<>();
         this.t = 0.0;
     }
 
@@ -26,9 +61,14 @@ public class ParticleSystem {
      * @param particles the particles to add
      */
     public void addParticle(Particle... particles) {
+    	this.store.ensureCapacity(this.store.size() + particles.length);
     	for (int i = 0; i < particles.length; i++) {
+    		particles[i].attach(this.store);
     		this.particles.add(particles[i]);
+    		this.register(particles[i]);
     	}
+    	this.modCount++;
+    	this.particleModCount++;
     }
     
     /**
@@ -37,23 +77,144 @@ public class ParticleSystem {
      * @param particles a list of particles
      */
     public void addParticles(List<Particle> particles) {
+    	this.store.ensureCapacity(this.store.size() + particles.size());
     	for (int i = 0; i < particles.size(); i++) {
+    		particles.get(i).attach(this.store);
     		this.particles.add(particles.get(i));
+    		this.register(particles.get(i));
     	}
+    	this.modCount++;
+    	this.particleModCount++;
     }
     
     /**
-     * Remove a particle from the system.
+     * Add a block of particles straight from arrays of their
+     * state, without building a Particle for each one first.
+     * 
+     * @param x the interleaved positions of the particles
+     * @param v the interleaved velocities of the particles
+     * @param m the masses of the particles
+     * @param count the number of particles to add from the start of the arrays
+     * @return the index in getParticles() of the first new particle
+     */
+    public int addParticles(double[] x, double[] v, double[] m, int count) {
+    	int first = this.store.addAll(x, v, m, count);
+    	for (int i = 0; i < count; i++) {
+    		Particle p = new Particle(this.store, first + i);
+    		this.particles.add(p);
+    		this.register(p);
+    	}
+    	this.modCount++;
+    	this.particleModCount++;
+    	return first;
+    }
+    
+    /**
+     * Remove a particle from the system, along with every force
+     * attached to it, except forces like SpringNetwork that only drop
+     * the part of themselves the particle was in. The last particle in the system is moved into
+     * its place, so removing a particle takes time proportional to
+     * the number of forces attached to it however many particles
+     * there are, but the order of the particles changes.
      * 
      * @param p the particle to remove
      */
     public void removeParticle(Particle p) {
-    	for (int i = 0; i < this.particles.size(); i++) {
-    		if (this.particles.get(i).equals(p)) {
-    			this.particles.remove(i);
-    			return;
+    	if (this.unlink(p)) {
+    		this.modCount++;
+    		this.particleModCount++;
+    	}
+    }
+    
+    /**
+     * Remove a list of particles from the system, along with the
+     * forces attached to them. Particles that aren't in the system
+     * are skipped.
+     * 
+     * @param particles the particles to remove
+     */
+    public void removeParticles(List<Particle> particles) {
+    	boolean removed = false;
+    	for (int i = 0; i < particles.size(); i++) {
+    		removed |= this.unlink(particles.get(i));
+    	}
+    	if (removed) {
+    		this.modCount++;
+    		this.particleModCount++;
+    	}
+    }
+    
+    /**
+     * Take a particle out of the store and the list of particles,
+     * moving the last particle into its place, and take the forces
+     * attached to it out of the list of forces.
+     * 
+     * @param p the particle to remove
+     * @return true if the particle was in the system
+     */
+    private boolean unlink(Particle p) {
+    	if (p.getStore() != this.store) {
+    		return false;
+    	}
+    	
+    	int slot = HandleAllocator.slot(p.getHandle());
+    	List<Force> attached = this.incidence.set(slot, null);
+    	if (attached != null) {
+    		for (int j = 0; j < attached.size(); j++) {
+    			Force f = attached.get(j);
+    			if (f.detachParticle(p)) {
+    				this.unlink(f);
+    			}
     		}
     	}
+    	
+    	int i = p.getIndex();
+    	this.bySlot[slot] = null;
+    	this.handles.free(p.getHandle());
+    	p.setHandle(HandleAllocator.NO_HANDLE);
+    	p.detach();
+    	int last = this.store.remove(i);
+    	Particle moved = this.particles.remove(last);
+    	if (i != last) {
+    		this.particles.set(i, moved);
+    		moved.setIndex(i);
+    	}
+    	return true;
+    }
+    
+    /**
+     * Give a particle that was just added to the system a handle,
+     * and attach the forces that were waiting for it.
+     * 
+     * @param p the particle
+     */
+    private void register(Particle p) {
+    	long handle = this.handles.allocate();
+    	int slot = HandleAllocator.slot(handle);
+    	if (slot >= this.bySlot.length) {
+    		this.bySlot = Arrays.copyOf(this.bySlot, Math.max(2 * this.bySlot.length, slot + 1));
+    	}
+    	this.bySlot[slot] = p;
+    	while (this.incidence.size() <= slot) {
+    		this.incidence.add(null);
+    	}
+    	this.incidence.set(slot, this.pendingIncidence.remove(p));
+    	p.setHandle(handle);
+    }
+    
+    /**
+     * Find a particle by its handle. Handles of particles that have
+     * been removed are never given to another particle, so a stale
+     * handle finds nothing instead of the wrong particle.
+     * 
+     * @param handle the handle from Particle.getHandle()
+     * @return the particle, or null if no particle in the system has the handle
+     */
+    public Particle getParticle(long handle) {
+    	if (!this.handles.isValid(handle)) {
+    		return null;
+    	}
+    	return this.bySlot[HandleAllocator.slot(handle)];
     }
     
     /**
@@ -67,45 +228,241 @@ public class ParticleSystem {
     public List<Particle> getParticles() {
     	return this.particles;
     }
+    
+    /**
+     * Access the store that holds the state of the particles
+     * in the system. Particle i in getParticles() is at index i
+     * in the store.
+     * 
+     * @return the store holding the particle state
+     */
+    public ParticleStore getParticleStore() {
+    	return this.store;
+    }
 
     /**
-     * Add forces to the system.
+     * Add forces to the system. A force that is already in
+     * the system isn't added again.
      *
      * @param forces the forces to add
      */
     public void addForce(Force... forces) {
         for (int i = 0; i < forces.length; i++) {
-        	this.forces.add(forces[i]);
+        	this.link(forces[i]);
         }
+        this.modCount++;
     }
     
     /**
-     * Add a list of forces.
+     * Add a list of forces. A force that is already in the
+     * system isn't added again.
      * 
      * @param forces a list of forces
      */
     public void addForces(List<Force> forces) {
     	for (int i = 0; i < forces.size(); i++) {
-    		this.forces.add(forces.get(i));
+    		this.link(forces.get(i));
     	}
+    	this.modCount++;
     }
     
     /**
-     * Remove a force from the system.
+     * Remove a force from the system. The last force in the system
+     * is moved into its place, so the order of the forces changes.
      * 
      * @param f the force to remove
      */
     public void removeForce(Force f) {
-    	for (int i = 0; i < this.forces.size(); i++) {
-    		if (this.forces.get(i).equals(f)) {
-    			this.forces.remove(i);
-    			return;
+    	if (this.unlink(f)) {
+    		this.modCount++;
+    	}
+    }
+    
+    /**
+     * Remove a list of forces from the system. Forces that
+     * aren't in the system are skipped.
+     * 
+     * @param forces the forces to remove
+     */
+    public void removeForces(List<Force> forces) {
+    	boolean removed = false;
+    	for (int i = 0; i < forces.size(); i++) {
+    		removed |= this.unlink(forces.get(i));
+    	}
+    	if (removed) {
+    		this.modCount++;
+    	}
+    }
+    
+    /**
+     * Add a force to the end of the list of forces, and to the
+     * forces attached to each of its particles.
+     * 
+     * @param f the force to add
+     */
+    private void link(Force f) {
+    	if (this.forceSlots.putIfAbsent(f.getId(), this.forces.size()) != null) {
+    		return;
+    	}
+    	this.forces.add(f);
+    	
+    	Particle[] attached = f.getParticles();
+    	if (attached == null) {
+    		return;
+    	}
+    	for (int i = 0; i < attached.length; i++) {
+    		this.attach(f, attached[i]);
+    	}
+    }
+    
+    /**
+     * Add a force to the forces attached to a particle. If the
+     * particle isn't in the system yet, the force waits until it is
+     * added. Forces like SpringNetwork call this when they gain a
+     * particle after they were added to the system.
+     * 
+     * @param f the force, which should already be in the system
+     * @param p the particle
+     */
+    void attach(Force f, Particle p) {
+    	if (!this.forceSlots.containsKey(f.getId())) {
+    		return;
+    	}
+    	
+    	List<Force> incident;
+    	if (p.getStore() == this.store) {
+    		int slot = HandleAllocator.slot(p.getHandle());
+    		incident = this.incidence.get(slot);
+    		if (incident == null) {
+    			incident = new ArrayList<>(4);
+    			this.incidence.set(slot, incident);
     		}
+    	} else {
+    		incident = this.pendingIncidence.computeIfAbsent(p, q -> new ArrayList<>(4));
+    	}
+    	// A force can name the same particle more than once
+    	if (!incident.contains(f)) {
+    		incident.add(f);
+    	}
+    }
+    
+    /**
+     * Take a force out of the list of forces, moving the last
+     * force into its place.
+     * 
+     * @param f the force to remove
+     * @return true if the force was in the system
+     */
+    private boolean unlink(Force f) {
+    	Integer slot = this.forceSlots.remove(f.getId());
+    	if (slot == null) {
+    		return false;
+    	}
+    	
+    	int i = slot;
+    	Force moved = this.forces.remove(this.forces.size() - 1);
+    	if (i != this.forces.size()) {
+    		this.forces.set(i, moved);
+    		this.forceSlots.put(moved.getId(), i);
+    	}
+    	
+    	Particle[] attached = f.getParticles();
+    	if (attached != null) {
+    		for (int j = 0; j < attached.length; j++) {
+    			this.detach(f, attached[j]);
+    		}
+    	}
+    	return true;
+    }
+    
+    /**
+     * Take a force out of the forces attached to a particle. Forces
+     * like SpringNetwork call this when they lose a particle while they
+     * are in the system.
+     * 
+     * @param f the force
+     * @param p the particle
+     */
+    void detach(Force f, Particle p) {
+    	if (p.getStore() == this.store) {
+    		List<Force> incident = this.incidence.get(HandleAllocator.slot(p.getHandle()));
+    		if (incident != null) {
+    			incident.remove(f);
+    		}
+    	} else {
+    		List<Force> waiting = this.pendingIncidence.get(p);
+    		if (waiting != null && waiting.remove(f) && waiting.isEmpty()) {
+    			this.pendingIncidence.remove(p);
+    		}
+    	}
+    }
+    
+    /**
+     * Create a copy of the system. The copy has its own particles,
+     * in the same order and with the same state as the particles in
+     * this system, and a copy of every force acting on them instead
+     * of the originals, so stepping one system doesn't affect the
+     * other. A spatial hash is copied with the same cell size and
+     * collisions with the same settings, but the force evaluator
+     * isn't copied.
+     * 
+     * @return the copy
+     */
+    public ParticleSystem copy() {
+    	ParticleSystem copy = new ParticleSystem();
+    	int n = this.store.size();
+    	double[] x = this.store.getPositions();
+    	double[] v = this.store.getVelocities();
+    	double[] m = this.store.getMasses();
+    	Particle[] particles = new Particle[n];
+    	for (int i = 0; i < n; i++) {
+    		particles[i] = new Particle(x[2 * i], x[2 * i + 1], v[2 * i], v[2 * i + 1], m[i]);
+    	}
+    	copy.addParticle(particles);
+    	System.arraycopy(this.store.getRadii(), 0, copy.store.getRadii(), 0, n);
+    	
+    	for (int i = 0; i < this.forces.size(); i++) {
+    		copy.link(this.forces.get(i).copy(this, copy));
     	}
+    	copy.modCount++;
+    	copy.t = this.t;
+    	
+    	if (this.spatialHash != null) {
+    		copy.setSpatialHash(new SpatialHash(this.spatialHash.getCellSize()));
+    	}
+    	if (this.collisions != null) {
+    		ParticleCollisions collisions = new ParticleCollisions(this.collisions.getRestitution());
+    		collisions.setIterations(this.collisions.getIterations());
+    		copy.setCollisions(collisions);
+    	}
+    	return copy;
     }
     
     /**
-     * Access the forces in the system.
+     * Calculate the total energy of the system, which is the
+     * kinetic energy of the particles plus the potential energy
+     * of the forces.
+     * 
+     * @return the total energy of the system
+     */
+    public double calculateEnergy() {
+    	double[] v = this.store.getVelocities();
+    	double[] m = this.store.getMasses();
+    	double energy = 0.0;
+    	for (int i = 0; i < this.store.size(); i++) {
+    		energy += 0.5 * m[i] * (v[2 * i] * v[2 * i] + v[2 * i + 1] * v[2 * i + 1]);
+    	}
+    	for (int i = 0; i < this.forces.size(); i++) {
+    		energy += this.forces.get(i).calculateEnergy();
+    	}
+    	return energy;
+    }
+    
+    /**
+     * Access the forces in the system. The list shouldn't be
+     * changed directly; the system keeps track of where each
+     * force is in it, so forces have to be added and removed
+     * with addForce() and removeForce().
      * 
      * @return a list containing the forces acting in the system
      */
@@ -113,26 +470,232 @@ public class ParticleSystem {
     	return this.forces;
     }
     
+    /**
+     * Get the forces attached to a particle, such as the springs
+     * connected to it, without looking through every force in the
+     * system. Forces that act on the whole system, like gravity, aren't
+     * included.
+     * 
+     * @param p the particle
+     * @return a read-only list of the forces attached to the particle
+     */
+    public List<Force> getForces(Particle p) {
+    	if (p.getStore() != this.store) {
+    		return Collections.emptyList();
+    	}
+    	List<Force> incident = this.incidence.get(HandleAllocator.slot(p.getHandle()));
+    	if (incident == null) {
+    		return Collections.emptyList();
+    	}
+    	return Collections.unmodifiableList(incident);
+    }
+    
+    /**
+     * Get the number of times particles or forces have been
+     * added to or removed from the system. Solvers that cache
+     * values between steps can compare this to the value they
+     * saw last time to find out whether the cache is stale.
+     * 
+     * @return the modification count of the system
+     */
+    public int getModificationCount() {
+    	return this.modCount;
+    }
+    
+    /**
+     * Get the number of times particles have been added to or
+     * removed from the system. Unlike getModificationCount(), this
+     * doesn't change when forces come and go, so it tells whether
+     * the layout of the particle store is the same.
+     * 
+     * @return the number of times the particles have changed
+     */
+    public int getParticleModificationCount() {
+    	return this.particleModCount;
+    }
+    
+    /**
+     * Give the system a spatial hash to keep up to date, so forces
+     * can use it to find nearby particles. Every time the forces are
+     * computed the hash is told to rebuild itself the first time it is
+     * searched, so it costs nothing if no force searches it. Forces can
+     * search it from several threads at once under a force evaluator.
+     * Pass null to stop keeping one.
+     * 
+     * @param spatialHash the spatial hash, or null
+     */
+    public void setSpatialHash(SpatialHash spatialHash) {
+    	this.spatialHash = spatialHash;
+    	this.updateSpatialHash();
+    }
+    
+    /**
+     * Get the spatial hash kept by the system. The indices it
+     * reports are indices into getParticles().
+     * 
+     * @return the spatial hash, or null if the system doesn't keep one
+     */
+    public SpatialHash getSpatialHash() {
+    	return this.spatialHash;
+    }
+    
+    /**
+     * Rebuild the spatial hash from the current positions of the
+     * particles. This only needs to be called if the positions were
+     * changed since the forces were last computed.
+     */
+    public void updateSpatialHash() {
+    	if (this.spatialHash != null) {
+    		this.spatialHash.rebuild(this.store);
+    	}
+    }
+    
+    /**
+     * Make the particles that have a radius collide with each other.
+     * The collisions are resolved every time a solver finishes a step.
+     * Pass null to let the particles pass through each other again.
+     * 
+     * @param collisions the collisions, or null
+     */
+    public void setCollisions(ParticleCollisions collisions) {
+    	this.collisions = collisions;
+    }
+    
+    /**
+     * Get the collisions resolved by the system.
+     * 
+     * @return the collisions, or null if particles pass through each other
+     */
+    public ParticleCollisions getCollisions() {
+    	return this.collisions;
+    }
+    
+    /**
+     * Separate the particles that overlap. This is called by
+     * updateClock(), so it only needs to be called if the positions
+     * were changed outside of a step.
+     */
+    public void resolveCollisions() {
+    	if (this.collisions != null) {
+    		this.collisions.resolve(this.store);
+    	}
+    }
+    
+    /**
+     * Set the evaluator used to compute the forces in parallel.
+     * Pass null to always compute the forces on the calling thread.
+     * 
+     * @param forceEvaluator the evaluator, or null
+     */
+    public void setForceEvaluator(ParallelForceEvaluator forceEvaluator) {
+    	this.forceEvaluator = forceEvaluator;
+    }
+    
+    /**
+     * Get the evaluator used to compute the forces in parallel.
+     * 
+     * @return the evaluator, or null if the forces are computed serially
+     */
+    public ParallelForceEvaluator getForceEvaluator() {
+    	return this.forceEvaluator;
+    }
+    
+    /**
+     * Set the metrics that clearing and computing forces, evaluating
+     * derivatives and copying the state of the system are recorded in.
+     * Pass null to stop recording them.
+     * 
+     * @param metrics the metrics, or null
+     */
+    public void setMetrics(SimulationMetrics metrics) {
+    	this.metrics = metrics;
+    }
+    
+    /**
+     * Get the metrics the system records its work in.
+     * 
+     * @return the metrics, or null if the system doesn't record any
+     */
+    public SimulationMetrics getMetrics() {
+    	return this.metrics;
+    }
+    
     /**
      * Clear the force accumulators for all the
      * particles in the system.
      */
     public void clearForces() {
-        for (int i = 0; i < this.particles.size(); i++) {
-            this.particles.get(i).clearForces();
+        if (this.metrics != null) {
+        	long start = System.nanoTime();
+        	this.store.clearForces();
+        	this.metrics.recordClearForces(System.nanoTime() - start);
+        	return;
         }
+        
+        this.store.clearForces();
     }
 
     /**
      * Go through the list of forces and apply
-     * them to the particles that they affect.
+     * them to the particles that they affect. If the
+     * system has a force evaluator, the forces may be
+     * applied on several threads.
      */
     public void computeForces() {
+        if (this.spatialHash != null) {
+        	this.spatialHash.rebuildLater(this.store);
+        }
+        if (this.metrics != null) {
+            this.computeForcesTimed(this.metrics);
+            return;
+        }
+        
+        if (this.forceEvaluator != null) {
+            this.forceEvaluator.computeForces(this.store, this.forces);
+            return;
+        }
+        
         for (int i = 0; i < this.forces.size(); i++) {
             this.forces.get(i).applyForce();
         }
     }
 
+    /**
+     * Apply the forces like computeForces() does, timing them as
+     * they go. Consecutive forces of the same class are timed together,
+     * so a long list of springs isn't timed one spring at a time.
+     * 
+     * @param metrics the metrics to record the times in
+     */
+    private void computeForcesTimed(SimulationMetrics metrics) {
+        long start = System.nanoTime();
+        if (this.forceEvaluator != null && this.forceEvaluator.isParallel(this.forces)) {
+        	this.forceEvaluator.computeForces(this.store, this.forces);
+        } else {
+        	int i = 0;
+        	while (i < this.forces.size()) {
+        		Class<?> type = this.forces.get(i).getClass();
+        		ForceEvaluationEvent event = new ForceEvaluationEvent();
+        		event.begin();
+        		long runStart = System.nanoTime();
+        		int j = i;
+        		while (j < this.forces.size() && this.forces.get(j).getClass() == type) {
+        			this.forces.get(j).applyForce();
+        			j++;
+        		}
+        		metrics.recordForce(type, System.nanoTime() - runStart);
+        		event.end();
+        		if (event.shouldCommit()) {
+        			event.forceClass = type.getName();
+        			event.count = j - i;
+        			event.commit();
+        		}
+        		i = j;
+        	}
+        }
+        metrics.recordComputeForces(System.nanoTime() - start);
+    }
+
     /**
      * Calculate the derivatives for each particle in the system.
      * By Newton's Second Law (f = ma), the derivative of the
@@ -146,6 +709,9 @@ public class ParticleSystem {
     public Vec2[] calculateDerivatives() {
         Vec2[] derivatives = new Vec2[this.particles.size() * 2];
         int j = 0;
+        if (this.metrics != null) {
+        	this.metrics.recordDerivativeEvaluation();
+        }
         this.clearForces();
         this.computeForces();
         for (int i = 0; i < this.particles.size(); i++) {
@@ -158,6 +724,115 @@ public class ParticleSystem {
         return derivatives;
     }
 
+    /**
+     * Get the length of the arrays used by the array versions of
+     * getSystemState() and calculateDerivatives(). Each particle
+     * takes up four doubles.
+     *
+     * @return the length of a state array for this system
+     */
+    public int getStateLength() {
+        return this.store.size() * 4;
+    }
+
+    /**
+     * Calculate the derivatives for each particle in the system
+     * and write them into an array. The first half of the array
+     * holds the interleaved velocities of the particles (the
+     * derivative of the positions), and the second half holds the
+     * interleaved accelerations (the derivative of the velocities).
+     *
+     * @param derivatives an array of length getStateLength() to write the derivatives to
+     */
+    public void calculateDerivatives(double[] derivatives) {
+        if (this.metrics != null) {
+        	this.metrics.recordDerivativeEvaluation();
+        }
+        this.clearForces();
+        this.computeForces();
+        int n = 2 * this.store.size();
+        double[] v = this.store.getVelocities();
+        double[] f = this.store.getForceAccumulators();
+        double[] invM = this.store.getInverseMasses();
+        System.arraycopy(v, 0, derivatives, 0, n);
+        for (int i = 0; i < n; i++) {
+            derivatives[n + i] = f[i] * invM[i >> 1];
+        }
+    }
+
+    /**
+     * Calculate the acceleration of each particle in the system
+     * and write them into an array with the x and y components
+     * interleaved.
+     *
+     * @param accelerations an array of length getStateLength() / 2 to write the accelerations to
+     */
+    public void calculateAccelerations(double[] accelerations) {
+        if (this.metrics != null) {
+        	this.metrics.recordDerivativeEvaluation();
+        }
+        this.clearForces();
+        this.computeForces();
+        int n = 2 * this.store.size();
+        double[] f = this.store.getForceAccumulators();
+        double[] invM = this.store.getInverseMasses();
+        for (int i = 0; i < n; i++) {
+            accelerations[i] = f[i] * invM[i >> 1];
+        }
+    }
+
+    /**
+     * Copy the state of the system into an array. The first
+     * half of the array holds the interleaved positions of the
+     * particles, and the second half holds the interleaved velocities.
+     *
+     * @param state an array of length getStateLength() to write the state to
+     */
+    public void getSystemState(double[] state) {
+        long start = (this.metrics != null) ? System.nanoTime() : 0;
+        int n = 2 * this.store.size();
+        System.arraycopy(this.store.getPositions(), 0, state, 0, n);
+        System.arraycopy(this.store.getVelocities(), 0, state, n, n);
+        if (this.metrics != null) {
+        	this.metrics.recordStateCopy(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Set the state of the system from an array laid out
+     * like the one filled in by getSystemState(double[]).
+     *
+     * @param state the array storing the updated state of the system
+     */
+    public void setSystemState(double[] state) {
+        long start = (this.metrics != null) ? System.nanoTime() : 0;
+        int n = 2 * this.store.size();
+        System.arraycopy(state, 0, this.store.getPositions(), 0, n);
+        System.arraycopy(state, n, this.store.getVelocities(), 0, n);
+        this.store.markChanged();
+        if (this.metrics != null) {
+        	this.metrics.recordStateCopy(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Add scaled derivatives to the state of the system. The
+     * derivatives should be laid out like the ones filled in by
+     * calculateDerivatives(double[]).
+     *
+     * @param derivatives the derivatives of the particles in the system
+     * @param dt the amount to scale the derivatives by
+     */
+    public void updateSystemState(double[] derivatives, double dt) {
+        int n = 2 * this.store.size();
+        double[] x = this.store.getPositions();
+        double[] v = this.store.getVelocities();
+        for (int i = 0; i < n; i++) {
+            x[i] += dt * derivatives[i];
+            v[i] += dt * derivatives[n + i];
+        }
+    }
+
     /**
      * Copy the state of the system into an array
      * and return it. The state is just an array
@@ -243,11 +918,32 @@ public class ParticleSystem {
     }
 
     /**
-     * Update the system clock
+     * Update the system clock. Solvers call this at the end of
+     * every step, so collisions are resolved here too.
      *
      * @param dt time since last update
      */
     public void updateClock(double dt) {
         this.t += dt;
+        this.resolveCollisions();
+    }
+
+    /**
+     * Set the time on the system clock, for example when a
+     * system is restored from a checkpoint.
+     *
+     * @param t the amount of simulated time that has passed
+     */
+    public void setTime(double t) {
+        this.t = t;
+    }
+
+    /**
+     * Get the time on the system clock.
+     *
+     * @return the amount of simulated time that has passed
+     */
+    public double getTime() {
+        return this.t;
     }
 }
\ No newline at end of file
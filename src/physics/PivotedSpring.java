@@ -35,6 +35,19 @@ public class PivotedSpring extends Force {
 		return this.pivot;
 	}
 	
+	/**
+	 * Move the pivot point of the spring. The pivot is moved in
+	 * place, so springs that share it move with it.
+	 * 
+	 * @param x the new x-component of the pivot point
+	 * @param y the new y-component of the pivot point
+	 */
+	public void setPivot(double x, double y) {
+		this.pivot.setX(x);
+		this.pivot.setY(y);
+		this.changed();
+	}
+	
 	/**
 	 * Get the particle attached to the spring.
 	 * 
@@ -44,6 +57,11 @@ public class PivotedSpring extends Force {
 		return this.p;
 	}
 	
+	@Override
+	public Particle[] getParticles() {
+		return new Particle[] { this.p };
+	}
+	
 	/**
 	 * Get the spring constant of this spring.
 	 * 
@@ -60,6 +78,7 @@ public class PivotedSpring extends Force {
      */
     public void setSpringConstant(double k) {
     	this.k = k;
+    	this.changed();
     }
 	
 	/**
@@ -78,17 +97,83 @@ public class PivotedSpring extends Force {
      */
     public void setLength(double l) {
     	this.l = l;
+    	this.changed();
     }
 	
+	/**
+	 * Calculate the potential energy stored in
+	 * the spring.
+	 * 
+	 * @return the potential energy stored in the spring
+	 */
+	@Override
+	public double calculateEnergy() {
+		if (this.p == null) {
+			return 0.0;
+		}
+		
+		double d = this.l - Vec2.sub(this.pivot, this.p.getPosition()).mag();
+		return 0.5 * this.k * d * d;
+	}
+	
+	@Override
+	public Force copy(ParticleSystem from, ParticleSystem to) {
+		Particle particle = (this.p == null) ? null : mapParticle(this.p, from, to);
+		return new PivotedSpring(particle, new Vec2(this.pivot), this.k, this.l);
+	}
+	
 	@Override
 	public void applyForce() {
 		if (this.p == null) {
 			return;
 		}
 		
-		Vec2 r = Vec2.sub(this.pivot, this.p.getPosition());
-        double fmag = -this.k * (this.l - r.mag());
-        Vec2 f= Vec2.mult(r.unit(), fmag);
-        this.p.addForce(f);
+		ParticleStore store = this.p.getStore();
+		int i = this.p.getIndex();
+		double[] x = store.getPositions();
+		double rx = this.pivot.getX() - x[2 * i];
+		double ry = this.pivot.getY() - x[2 * i + 1];
+		double r = Math.sqrt(rx * rx + ry * ry);
+        double fmag = -this.k * (this.l - r);
+        double s = fmag / r;
+        store.addForce(i, s * rx, s * ry);
+	}
+	
+	@Override
+	public boolean hasJacobian() {
+		return true;
+	}
+	
+	@Override
+	public void addJacobianProduct(double[] dx, double[] out) {
+		if (this.p == null) {
+			return;
+		}
+		
+		int i = this.p.getIndex();
+		double[] x = this.p.getStore().getPositions();
+		double rx = this.pivot.getX() - x[2 * i];
+		double ry = this.pivot.getY() - x[2 * i + 1];
+		double r = Math.sqrt(rx * rx + ry * ry);
+		double ux = rx / r;
+		double uy = ry / r;
+		
+		// Same Jacobian as Spring, with the pivot as the end that
+		// doesn't move. Moving the particle moves the spring vector
+		// the opposite way, hence the subtraction.
+		double along = ux * dx[2 * i] + uy * dx[2 * i + 1];
+		double c = Math.max(0.0, 1.0 - this.l / r);
+		out[2 * i] -= this.k * (ux * along + c * (dx[2 * i] - ux * along));
+		out[2 * i + 1] -= this.k * (uy * along + c * (dx[2 * i + 1] - uy * along));
+	}
+	
+	/**
+	 * Record that the spring was changed, so solvers that saved the
+	 * forces on its particle know to work them out again.
+	 */
+	private void changed() {
+		if (this.p != null) {
+			this.p.getStore().markChanged();
+		}
 	}
 }
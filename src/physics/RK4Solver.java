@@ -2,44 +2,53 @@ package physics;
 
 /**
  * Solver the implements the fourth-order Runge-Kutta
- * algorithm
+ * algorithm. The stage buffers are kept between steps and
+ * are only reallocated when the number of particles in the
+ * system changes, so a step doesn't allocate anything.
  */
 public class RK4Solver implements NumericalSolver {
+	private double[] initialState;
+	private double[] k1;
+	private double[] k2;
+	private double[] k3;
+	private double[] k4;
+	
 	@Override
 	public void step(ParticleSystem ps, double dt) {
 		// This implementation is from the BDH diff. eq book
 		
 		// Save the initial state of the particle system so we can rewind
 		// back later.
-		Vec2[] initialState = ps.getSystemState();
+		int n = ps.getStateLength();
+		this.ensureBuffers(n);
+		double[] initialState = this.initialState;
+		double[] k1 = this.k1;
+		double[] k2 = this.k2;
+		double[] k3 = this.k3;
+		double[] k4 = this.k4;
+		ps.getSystemState(initialState);
 		
 		// Calculate the slope at the initial point and use it 
 		// to calculate a point halfway along the time interval
-		Vec2[] k1 = ps.calculateDerivatives();
-		Vec2[] scaledK1 = this.copy(k1); // Make a copy cause we will need the unadulterated k1 in the final step
-		ps.scaleVector(scaledK1, dt * 0.5);
-		ps.updateSystemState(scaledK1);
+		ps.calculateDerivatives(k1);
+		ps.updateSystemState(k1, dt * 0.5);
 		
 		// Calculate the slope at the point we just found. Then,
 		// rewind the system back to its initial state and calculate
 		// another point halfway along the interval with this new slope
-		Vec2[] k2 = ps.calculateDerivatives();
-		Vec2[] scaledK2 = this.copy(k2);
-		ps.scaleVector(scaledK2, dt * 0.5);
+		ps.calculateDerivatives(k2);
 		ps.setSystemState(initialState);
-		ps.updateSystemState(scaledK2);
+		ps.updateSystemState(k2, dt * 0.5);
 		
 		// Calculate the slope at the new point. Rewind 
 		// back to the initial state and use this slope to
 		// find a point at the end of the interval.
-		Vec2[] k3 = ps.calculateDerivatives();
-		Vec2[] scaledK3 = this.copy(k3);
-		ps.scaleVector(scaledK3, dt);
+		ps.calculateDerivatives(k3);
 		ps.setSystemState(initialState);
-		ps.updateSystemState(scaledK3);
+		ps.updateSystemState(k3, dt);
 		
 		// Calculate the slope at the end of the interval
-		Vec2[] k4 = ps.calculateDerivatives();
+		ps.calculateDerivatives(k4);
 		
 		// Rewind the system back to its initial state to make our
 		// final estimation. The slope we will use is a weighted
@@ -47,28 +56,28 @@ public class RK4Solver implements NumericalSolver {
 		// weight because they are from points in the middle of 
 		// the interval.
 		ps.setSystemState(initialState);
-		ps.scaleVector(k1, 0.1666667);
-		ps.scaleVector(k2, 0.3333333);
-		ps.scaleVector(k3, 0.3333333);
-		ps.scaleVector(k4, 0.1666667);
-		Vec2[] weightedAvg = ps.addVectors(k1, k2);
-		weightedAvg = ps.addVectors(weightedAvg, k3);
-		weightedAvg = ps.addVectors(weightedAvg, k4);
-		ps.scaleVector(weightedAvg, dt);
-		ps.updateSystemState(weightedAvg);
+		for (int i = 0; i < n; i++) {
+			k1[i] = (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]) / 6.0;
+		}
+		ps.updateSystemState(k1, dt);
+		ps.updateClock(dt);
 	}
 	
 	/**
-	 * Copy a state vector
+	 * Make sure the stage buffers match the length of
+	 * the state of the system being solved.
 	 * 
-	 * @param vec vector to copy
-	 * @return copy of vec
+	 * @param n the length of the state
 	 */
-	private Vec2[] copy(Vec2[] vec) {
-		Vec2[] copy = new Vec2[vec.length];
-		for (int i = 0; i < vec.length; i++) {
-			copy[i] = new Vec2(vec[i]);
+	private void ensureBuffers(int n) {
+		if (this.initialState != null && this.initialState.length == n) {
+			return;
 		}
-		return copy;
+		
+		this.initialState = new double[n];
+		this.k1 = new double[n];
+		this.k2 = new double[n];
+		this.k3 = new double[n];
+		this.k4 = new double[n];
 	}
 }
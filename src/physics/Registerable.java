@@ -1,13 +1,16 @@
 package physics;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Registerable {
-	private static long generator = 0;
+	// Particles and forces can be created on any thread, so ids
+	// are handed out atomically to keep them unique
+	private static final AtomicLong generator = new AtomicLong();
 	
 	private long id;
 	
 	public Registerable() {
-		this.id = generator;
-		generator++;
+		this.id = generator.getAndIncrement();
 	}
 	
 	/**
@@ -0,0 +1,57 @@
+package physics;
+
+/**
+ * Receives the contents of a scene file as a SceneReader reads it.
+ * Particles and pivots are numbered from 0 in the order they appear in
+ * the file, and springs refer to them by those numbers. Particles come
+ * in blocks so they can be added to a system in bulk; every particle
+ * and pivot is passed on before anything that refers to it.
+ */
+public interface SceneListener {
+	/**
+	 * Receive a block of particles. The arrays are reused for the
+	 * next block, so they have to be copied if they are kept.
+	 *
+	 * @param x the interleaved positions of the particles
+	 * @param v the interleaved velocities of the particles
+	 * @param m the masses of the particles
+	 * @param count the number of particles at the start of the arrays
+	 */
+	public void particles(double[] x, double[] v, double[] m, int count);
+
+	/**
+	 * Receive a pivot, a fixed point that pivoted springs are attached to.
+	 *
+	 * @param x the x-component of the position of the pivot
+	 * @param y the y-component of the position of the pivot
+	 */
+	public void pivot(double x, double y);
+
+	/**
+	 * Receive a spring between two particles.
+	 *
+	 * @param a the number of the particle at one end
+	 * @param b the number of the particle at the other end
+	 * @param k the spring constant
+	 * @param l the resting length
+	 * @param damping the damping constant
+	 */
+	public void spring(int a, int b, double k, double l, double damping);
+
+	/**
+	 * Receive a spring between a particle and a pivot.
+	 *
+	 * @param particle the number of the particle
+	 * @param pivot the number of the pivot
+	 * @param k the spring constant
+	 * @param l the resting length
+	 */
+	public void pivotedSpring(int particle, int pivot, double k, double l);
+
+	/**
+	 * Receive the gravity acting on every particle.
+	 *
+	 * @param g the acceleration due to gravity
+	 */
+	public void gravity(double g);
+}
@@ -0,0 +1,122 @@
+package physics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a scene into a ParticleSystem. Particles are added to the
+ * system a block at a time, and all the springs between particles go
+ * into one SpringNetwork instead of a Spring object each, so even very
+ * large scenes load quickly and step quickly once they are loaded.
+ */
+public class SceneLoader implements SceneListener {
+	private ParticleSystem ps;
+
+	// The index in the system of the first particle in the scene
+	private int firstParticle;
+	private List<Vec2> pivots;
+	private SpringNetwork springs;
+	private Gravity gravity;
+
+	/**
+	 * Create a loader that adds to a system. Particles in the
+	 * scene are added after the ones already in the system.
+	 *
+	 * @param ps the system to load into
+	 */
+	public SceneLoader(ParticleSystem ps) {
+		this.ps = ps;
+		this.firstParticle = ps.getParticles().size();
+		this.pivots = new ArrayList<>();
+	}
+
+	/**
+	 * Load a scene file into a system.
+	 *
+	 * @param path the file to load
+	 * @param ps the system to load into
+	 * @return the loader, which knows where things in the scene ended up
+	 * @throws IOException if the file can't be read or isn't a valid scene
+	 */
+	public static SceneLoader load(Path path, ParticleSystem ps) throws IOException {
+		SceneLoader loader = new SceneLoader(ps);
+		SceneReader.read(path, loader);
+		return loader;
+	}
+
+	/**
+	 * Get the index in the system of the first particle in the scene.
+	 * The particles in the scene are in order after it.
+	 *
+	 * @return the index of the first particle
+	 */
+	public int getFirstParticle() {
+		return this.firstParticle;
+	}
+
+	/**
+	 * Get the pivots in the scene.
+	 *
+	 * @return the pivots, in the order they were in the scene
+	 */
+	public List<Vec2> getPivots() {
+		return this.pivots;
+	}
+
+	/**
+	 * Get the force that holds the springs between particles.
+	 *
+	 * @return the spring network, or null if the scene had no springs
+	 */
+	public SpringNetwork getSpringNetwork() {
+		return this.springs;
+	}
+
+	/**
+	 * Get the gravity force added for the scene.
+	 *
+	 * @return the gravity, or null if the scene had none
+	 */
+	public Gravity getGravity() {
+		return this.gravity;
+	}
+
+	@Override
+	public void particles(double[] x, double[] v, double[] m, int count) {
+		this.ps.addParticles(x, v, m, count);
+	}
+
+	@Override
+	public void pivot(double x, double y) {
+		this.pivots.add(new Vec2(x, y));
+	}
+
+	@Override
+	public void spring(int a, int b, double k, double l, double damping) {
+		if (this.springs == null) {
+			this.springs = new SpringNetwork(this.ps);
+			this.ps.addForce(this.springs);
+		}
+		List<Particle> particles = this.ps.getParticles();
+		this.springs.addSpring(particles.get(this.firstParticle + a), particles.get(this.firstParticle + b), k, l,
+				damping);
+	}
+
+	@Override
+	public void pivotedSpring(int particle, int pivot, double k, double l) {
+		Particle p = this.ps.getParticles().get(this.firstParticle + particle);
+		this.ps.addForce(new PivotedSpring(p, this.pivots.get(pivot), k, l));
+	}
+
+	@Override
+	public void gravity(double g) {
+		if (this.gravity == null) {
+			this.gravity = new Gravity(this.ps, g);
+			this.ps.addForce(this.gravity);
+		} else {
+			this.gravity.setConstant(g);
+		}
+	}
+}
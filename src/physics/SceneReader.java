@@ -0,0 +1,363 @@
+package physics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads scene files and passes what is in them to a SceneListener as
+ * it goes, so a scene of any size can be loaded without holding more
+ * than one block of particles in memory at a time. Both the text and
+ * the binary forms written by a SceneWriter are read; which one a file
+ * is in is worked out from its first bytes.
+ *
+ * The text form has one object per line, with blank lines and anything
+ * after a # ignored:
+ * <pre>
+ * particle x y vx vy m
+ * pivot x y
+ * spring a b k l [damping]
+ * pivoted particle pivot k l
+ * gravity g
+ * </pre>
+ *
+ * The binary form is little-endian. It starts with a magic number and
+ * a version, then each object is a tag byte followed by the same fields
+ * as in the text form, with particle and pivot numbers as ints, every
+ * other field as a double, and the damping of a spring always present.
+ * A tag of 0 marks the end of the file.
+ */
+public class SceneReader {
+	static final int MAGIC = 0x43534432; // "2DSC"
+	static final int VERSION = 1;
+
+	// Tags for the objects in the binary form
+	static final byte END = 0;
+	static final byte PARTICLE = 1;
+	static final byte PIVOT = 2;
+	static final byte SPRING = 3;
+	static final byte PIVOTED_SPRING = 4;
+	static final byte GRAVITY = 5;
+
+	// The number of particles passed to the listener at once
+	private static final int BLOCK_SIZE = 4096;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private SceneListener listener;
+
+	// The particles read since the last block was passed on
+	private double[] x;
+	private double[] v;
+	private double[] m;
+	private int pending;
+
+	private int particleCount;
+	private int pivotCount;
+
+	private SceneReader(SceneListener listener) {
+		this.listener = listener;
+		this.x = new double[2 * BLOCK_SIZE];
+		this.v = new double[2 * BLOCK_SIZE];
+		this.m = new double[BLOCK_SIZE];
+	}
+
+	/**
+	 * Read a scene file.
+	 *
+	 * @param path the file to read
+	 * @param listener where to send the objects in the scene
+	 * @throws IOException if the file can't be read or isn't a valid scene
+	 */
+	public static void read(Path path, SceneListener listener) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			read(in, listener);
+		}
+	}
+
+	/**
+	 * Read a scene from a stream. The stream isn't closed.
+	 *
+	 * @param in the stream to read
+	 * @param listener where to send the objects in the scene
+	 * @throws IOException if the stream can't be read or isn't a valid scene
+	 */
+	public static void read(InputStream in, SceneListener listener) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		buffered.mark(4);
+		byte[] start = buffered.readNBytes(4);
+		buffered.reset();
+
+		SceneReader reader = new SceneReader(listener);
+		if (start.length == 4 && ByteBuffer.wrap(start).order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC) {
+			reader.readBinary(Channels.newChannel(buffered));
+		} else {
+			reader.readText(new BufferedReader(new InputStreamReader(buffered, StandardCharsets.UTF_8)));
+		}
+	}
+
+	/**
+	 * Read the binary form.
+	 *
+	 * @param channel the scene
+	 * @throws IOException if the scene can't be read or isn't valid
+	 */
+	private void readBinary(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.flip();
+		fill(channel, buffer, 8);
+		buffer.getInt();
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported scene version " + version);
+		}
+
+		while (true) {
+			fill(channel, buffer, 1);
+			byte tag = buffer.get();
+			switch (tag) {
+			case END:
+				this.flush();
+				return;
+			case PARTICLE:
+				fill(channel, buffer, 40);
+				this.particle(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+						buffer.getDouble());
+				break;
+			case PIVOT:
+				fill(channel, buffer, 16);
+				this.pivot(buffer.getDouble(), buffer.getDouble());
+				break;
+			case SPRING:
+				fill(channel, buffer, 32);
+				this.spring(buffer.getInt(), buffer.getInt(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+				break;
+			case PIVOTED_SPRING:
+				fill(channel, buffer, 24);
+				this.pivotedSpring(buffer.getInt(), buffer.getInt(), buffer.getDouble(), buffer.getDouble());
+				break;
+			case GRAVITY:
+				fill(channel, buffer, 8);
+				this.gravity(buffer.getDouble());
+				break;
+			default:
+				throw new IOException("Unknown object type " + tag + " in scene");
+			}
+		}
+	}
+
+	/**
+	 * Make sure there are enough bytes left in a buffer, reading
+	 * more from the channel if there aren't.
+	 *
+	 * @param channel the channel to read from
+	 * @param buffer the buffer, ready to be read from
+	 * @param n the number of bytes needed
+	 * @throws IOException if the channel ends first
+	 */
+	private static void fill(ReadableByteChannel channel, ByteBuffer buffer, int n) throws IOException {
+		if (buffer.remaining() >= n) {
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < n) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Scene ends in the middle of an object");
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Read the text form.
+	 *
+	 * @param in the scene
+	 * @throws IOException if the scene can't be read or isn't valid
+	 */
+	private void readText(BufferedReader in) throws IOException {
+		String[] tokens = new String[8];
+		String line;
+		int lineNumber = 0;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			int n = tokenize(line, tokens);
+			if (n == 0) {
+				continue;
+			}
+
+			try {
+				switch (tokens[0]) {
+				case "particle":
+					expect(tokens, n, 6, 6);
+					this.particle(Double.parseDouble(tokens[1]), Double.parseDouble(tokens[2]),
+							Double.parseDouble(tokens[3]), Double.parseDouble(tokens[4]), Double.parseDouble(tokens[5]));
+					break;
+				case "pivot":
+					expect(tokens, n, 3, 3);
+					this.pivot(Double.parseDouble(tokens[1]), Double.parseDouble(tokens[2]));
+					break;
+				case "spring":
+					expect(tokens, n, 5, 6);
+					this.spring(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]), Double.parseDouble(tokens[3]),
+							Double.parseDouble(tokens[4]), (n == 6) ? Double.parseDouble(tokens[5]) : 0.0);
+					break;
+				case "pivoted":
+					expect(tokens, n, 5, 5);
+					this.pivotedSpring(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]),
+							Double.parseDouble(tokens[3]), Double.parseDouble(tokens[4]));
+					break;
+				case "gravity":
+					expect(tokens, n, 2, 2);
+					this.gravity(Double.parseDouble(tokens[1]));
+					break;
+				default:
+					throw new IOException("unknown object " + tokens[0]);
+				}
+			} catch (IOException | NumberFormatException e) {
+				throw new IOException("Line " + lineNumber + " of scene: " + e.getMessage(), e);
+			}
+		}
+		this.flush();
+	}
+
+	/**
+	 * Split a line of the text form into words, leaving out
+	 * any comment.
+	 *
+	 * @param line the line
+	 * @param tokens where to put the words
+	 * @return the number of words, which can be more than will fit in tokens
+	 */
+	private static int tokenize(String line, String[] tokens) {
+		int n = 0;
+		int i = 0;
+		int length = line.length();
+		while (i < length) {
+			char c = line.charAt(i);
+			if (c == '#') {
+				break;
+			}
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+
+			int start = i;
+			while (i < length && !Character.isWhitespace(line.charAt(i)) && line.charAt(i) != '#') {
+				i++;
+			}
+			if (n < tokens.length) {
+				tokens[n] = line.substring(start, i);
+			}
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Check that an object has the right number of fields.
+	 *
+	 * @param tokens the words on the line
+	 * @param n the number of words
+	 * @param min the fewest words the object can have, counting its name
+	 * @param max the most words the object can have, counting its name
+	 * @throws IOException if the number of words is wrong
+	 */
+	private static void expect(String[] tokens, int n, int min, int max) throws IOException {
+		if (n < min || n > max) {
+			throw new IOException(tokens[0] + " takes " + (min - 1) + ((max > min) ? " or " + (max - 1) : "")
+					+ " values, not " + (n - 1));
+		}
+	}
+
+	/**
+	 * Add a particle to the block being read, passing the block
+	 * on once it is full.
+	 */
+	private void particle(double x, double y, double vx, double vy, double m) {
+		int i = this.pending++;
+		this.x[2 * i] = x;
+		this.x[2 * i + 1] = y;
+		this.v[2 * i] = vx;
+		this.v[2 * i + 1] = vy;
+		this.m[i] = m;
+		this.particleCount++;
+		if (this.pending == BLOCK_SIZE) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * Pass on a pivot.
+	 */
+	private void pivot(double x, double y) {
+		this.flush();
+		this.listener.pivot(x, y);
+		this.pivotCount++;
+	}
+
+	/**
+	 * Check and pass on a spring.
+	 *
+	 * @throws IOException if an end of the spring hasn't been read yet
+	 */
+	private void spring(int a, int b, double k, double l, double damping) throws IOException {
+		this.flush();
+		this.checkParticle(a);
+		this.checkParticle(b);
+		this.listener.spring(a, b, k, l, damping);
+	}
+
+	/**
+	 * Check and pass on a pivoted spring.
+	 *
+	 * @throws IOException if the particle or the pivot hasn't been read yet
+	 */
+	private void pivotedSpring(int particle, int pivot, double k, double l) throws IOException {
+		this.flush();
+		this.checkParticle(particle);
+		if (pivot < 0 || pivot >= this.pivotCount) {
+			throw new IOException("pivot " + pivot + " hasn't been defined");
+		}
+		this.listener.pivotedSpring(particle, pivot, k, l);
+	}
+
+	/**
+	 * Pass on the gravity.
+	 */
+	private void gravity(double g) {
+		this.flush();
+		this.listener.gravity(g);
+	}
+
+	/**
+	 * Check that a particle a spring refers to has been read.
+	 *
+	 * @param i the number of the particle
+	 * @throws IOException if it hasn't
+	 */
+	private void checkParticle(int i) throws IOException {
+		if (i < 0 || i >= this.particleCount) {
+			throw new IOException("particle " + i + " hasn't been defined");
+		}
+	}
+
+	/**
+	 * Pass the particles read so far on to the listener.
+	 */
+	private void flush() {
+		if (this.pending > 0) {
+			this.listener.particles(this.x, this.v, this.m, this.pending);
+			this.pending = 0;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package physics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a scene file one object at a time, in either the text or the
+ * binary form described in SceneReader. Particles and pivots are
+ * numbered in the order they are written, and springs refer to them by
+ * those numbers, so a particle or pivot has to be written before any
+ * spring attached to it.
+ */
+public class SceneWriter implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private boolean binary;
+	private Writer text;
+	private WritableByteChannel channel;
+	private ByteBuffer buffer;
+
+	private int particleCount;
+	private int pivotCount;
+
+	/**
+	 * Create a writer for a stream, which is closed when the
+	 * writer is closed.
+	 *
+	 * @param out the stream to write to
+	 * @param binary if true, write the binary form, otherwise write the text form
+	 * @throws IOException if the start of the scene can't be written
+	 */
+	public SceneWriter(OutputStream out, boolean binary) throws IOException {
+		this.binary = binary;
+		if (binary) {
+			this.channel = Channels.newChannel(out);
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			this.buffer.putInt(SceneReader.MAGIC);
+			this.buffer.putInt(SceneReader.VERSION);
+		} else {
+			this.text = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+			this.text.write("# 2dphysics scene\n");
+		}
+	}
+
+	/**
+	 * Write every particle in a system and the forces between them
+	 * to a file. Gravity, springs, spring networks and pivoted springs
+	 * can be written; scenes have no way to hold other forces.
+	 *
+	 * @param ps the system to write
+	 * @param path the file to write
+	 * @param binary if true, write the binary form, otherwise write the text form
+	 * @throws IOException if the file can't be written
+	 * @throws IllegalArgumentException if the system has a force a scene can't hold
+	 */
+	public static void write(ParticleSystem ps, Path path, boolean binary) throws IOException {
+		try (SceneWriter writer = new SceneWriter(Files.newOutputStream(path), binary)) {
+			writer.writeSystem(ps);
+		}
+	}
+
+	/**
+	 * Write every particle in a system and the forces between them.
+	 *
+	 * @param ps the system to write
+	 * @throws IOException if the scene can't be written
+	 * @throws IllegalArgumentException if the system has a force a scene can't hold
+	 */
+	public void writeSystem(ParticleSystem ps) throws IOException {
+		ParticleStore store = ps.getParticleStore();
+		int first = this.particleCount;
+		double[] x = store.getPositions();
+		double[] v = store.getVelocities();
+		double[] m = store.getMasses();
+		for (int i = 0; i < store.size(); i++) {
+			this.particle(x[2 * i], x[2 * i + 1], v[2 * i], v[2 * i + 1], m[i]);
+		}
+
+		// Pivots can be shared between springs, so each one is only written once
+		Map<Vec2, Integer> pivots = new IdentityHashMap<>();
+		List<Force> forces = ps.getForces();
+		for (int i = 0; i < forces.size(); i++) {
+			Force f = forces.get(i);
+			if (f instanceof Gravity) {
+				this.gravity(((Gravity)f).getConstant());
+			} else if (f instanceof Spring) {
+				Spring s = (Spring)f;
+				Particle[] ends = s.getParticles();
+				this.spring(first + indexOf(ps, ends[0]), first + indexOf(ps, ends[1]), s.getSpringConstant(),
+						s.getLength(), 0.0);
+			} else if (f instanceof SpringNetwork) {
+				SpringNetwork network = (SpringNetwork)f;
+				for (int j = 0; j < network.size(); j++) {
+					Particle[] ends = network.getParticles(j);
+					this.spring(first + indexOf(ps, ends[0]), first + indexOf(ps, ends[1]),
+							network.getSpringConstant(j), network.getLength(j), network.getDamping(j));
+				}
+			} else if (f instanceof PivotedSpring) {
+				PivotedSpring s = (PivotedSpring)f;
+				Integer pivot = pivots.get(s.getPivot());
+				if (pivot == null) {
+					pivot = this.pivot(s.getPivot().getX(), s.getPivot().getY());
+					pivots.put(s.getPivot(), pivot);
+				}
+				this.pivotedSpring(first + indexOf(ps, s.getParticle()), pivot, s.getSpringConstant(), s.getLength());
+			} else {
+				throw new IllegalArgumentException("Scenes can't hold a " + f.getClass().getSimpleName());
+			}
+		}
+	}
+
+	/**
+	 * Find where a particle is in a system.
+	 *
+	 * @param ps the system
+	 * @param p the particle
+	 * @return the index of the particle
+	 * @throws IllegalArgumentException if the particle isn't in the system
+	 */
+	private static int indexOf(ParticleSystem ps, Particle p) {
+		if (p.getStore() != ps.getParticleStore()) {
+			throw new IllegalArgumentException("A force is attached to a particle that isn't in the system");
+		}
+		return p.getIndex();
+	}
+
+	/**
+	 * Write a particle.
+	 *
+	 * @param x the x-component of the position
+	 * @param y the y-component of the position
+	 * @param vx the x-component of the velocity
+	 * @param vy the y-component of the velocity
+	 * @param m the mass
+	 * @return the number of the particle in the scene
+	 * @throws IOException if the particle can't be written
+	 */
+	public int particle(double x, double y, double vx, double vy, double m) throws IOException {
+		if (this.binary) {
+			this.reserve(41);
+			this.buffer.put(SceneReader.PARTICLE);
+			this.buffer.putDouble(x).putDouble(y).putDouble(vx).putDouble(vy).putDouble(m);
+		} else {
+			this.text.write("particle " + x + " " + y + " " + vx + " " + vy + " " + m + "\n");
+		}
+		return this.particleCount++;
+	}
+
+	/**
+	 * Write a pivot.
+	 *
+	 * @param x the x-component of the position
+	 * @param y the y-component of the position
+	 * @return the number of the pivot in the scene
+	 * @throws IOException if the pivot can't be written
+	 */
+	public int pivot(double x, double y) throws IOException {
+		if (this.binary) {
+			this.reserve(17);
+			this.buffer.put(SceneReader.PIVOT);
+			this.buffer.putDouble(x).putDouble(y);
+		} else {
+			this.text.write("pivot " + x + " " + y + "\n");
+		}
+		return this.pivotCount++;
+	}
+
+	/**
+	 * Write a spring between two particles.
+	 *
+	 * @param a the number of the particle at one end
+	 * @param b the number of the particle at the other end
+	 * @param k the spring constant
+	 * @param l the resting length
+	 * @param damping the damping constant
+	 * @throws IOException if the spring can't be written
+	 */
+	public void spring(int a, int b, double k, double l, double damping) throws IOException {
+		if (this.binary) {
+			this.reserve(33);
+			this.buffer.put(SceneReader.SPRING);
+			this.buffer.putInt(a).putInt(b).putDouble(k).putDouble(l).putDouble(damping);
+		} else if (damping == 0.0) {
+			this.text.write("spring " + a + " " + b + " " + k + " " + l + "\n");
+		} else {
+			this.text.write("spring " + a + " " + b + " " + k + " " + l + " " + damping + "\n");
+		}
+	}
+
+	/**
+	 * Write a spring between a particle and a pivot.
+	 *
+	 * @param particle the number of the particle
+	 * @param pivot the number of the pivot
+	 * @param k the spring constant
+	 * @param l the resting length
+	 * @throws IOException if the spring can't be written
+	 */
+	public void pivotedSpring(int particle, int pivot, double k, double l) throws IOException {
+		if (this.binary) {
+			this.reserve(25);
+			this.buffer.put(SceneReader.PIVOTED_SPRING);
+			this.buffer.putInt(particle).putInt(pivot).putDouble(k).putDouble(l);
+		} else {
+			this.text.write("pivoted " + particle + " " + pivot + " " + k + " " + l + "\n");
+		}
+	}
+
+	/**
+	 * Write the gravity acting on every particle.
+	 *
+	 * @param g the acceleration due to gravity
+	 * @throws IOException if the gravity can't be written
+	 */
+	public void gravity(double g) throws IOException {
+		if (this.binary) {
+			this.reserve(9);
+			this.buffer.put(SceneReader.GRAVITY);
+			this.buffer.putDouble(g);
+		} else {
+			this.text.write("gravity " + g + "\n");
+		}
+	}
+
+	/**
+	 * Make room in the buffer, writing out what is in it if
+	 * there isn't enough.
+	 *
+	 * @param n the number of bytes needed
+	 * @throws IOException if the buffer can't be written out
+	 */
+	private void reserve(int n) throws IOException {
+		if (this.buffer.remaining() < n) {
+			this.drain();
+		}
+	}
+
+	/**
+	 * Write out everything in the buffer.
+	 *
+	 * @throws IOException if the buffer can't be written out
+	 */
+	private void drain() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+	}
+
+	/**
+	 * Finish the scene and close the stream.
+	 *
+	 * @throws IOException if the end of the scene can't be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.binary) {
+			if (this.channel.isOpen()) {
+				this.reserve(1);
+				this.buffer.put(SceneReader.END);
+				this.drain();
+				this.channel.close();
+			}
+		} else {
+			this.text.close();
+		}
+	}
+}
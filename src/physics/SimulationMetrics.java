@@ -0,0 +1,221 @@
+package physics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts where the time spent stepping a simulation goes. A
+ * ParticleSystem with metrics (see ParticleSystem.setMetrics()) times
+ * clearing and computing forces and copying its state, and an
+ * InstrumentedSolver times whole steps. A system without metrics
+ * only pays for a null check, so the hooks can be left in.
+ *
+ * The counters can be read from any thread, and the metrics can be
+ * registered with the platform MBean server to watch them over JMX.
+ */
+public class SimulationMetrics implements SimulationMetricsMXBean {
+	private LongAdder steps;
+	private LongAdder stepNanos;
+	private AtomicLong maxStepNanos;
+	private LongAdder clearForcesNanos;
+	private LongAdder computeForcesNanos;
+	private LongAdder stateCopyNanos;
+	private LongAdder derivativeEvaluations;
+	private Map<Class<?>, LongAdder> forceNanos;
+
+	// The name the metrics are registered under, or null
+	private ObjectName name;
+
+	/**
+	 * Create metrics with every counter at 0.
+	 */
+	public SimulationMetrics() {
+		this.steps = new LongAdder();
+		this.stepNanos = new LongAdder();
+		this.maxStepNanos = new AtomicLong();
+		this.clearForcesNanos = new LongAdder();
+		this.computeForcesNanos = new LongAdder();
+		this.stateCopyNanos = new LongAdder();
+		this.derivativeEvaluations = new LongAdder();
+		this.forceNanos = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server under
+	 * the name physics:type=SimulationMetrics,name=<name>.
+	 *
+	 * @param name the name to tell these metrics apart from others
+	 */
+	public synchronized void register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("physics:type=SimulationMetrics,name=" + ObjectName.quote(name));
+			server.registerMBean(this, objectName);
+			this.name = objectName;
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Can't register metrics as " + name, e);
+		}
+	}
+
+	/**
+	 * Remove the metrics from the platform MBean server.
+	 */
+	public synchronized void unregister() {
+		if (this.name == null) {
+			return;
+		}
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+		} catch (JMException e) {
+			// Already gone
+		}
+		this.name = null;
+	}
+
+	/**
+	 * Record a step.
+	 *
+	 * @param nanos the time the step took
+	 */
+	public void recordStep(long nanos) {
+		this.steps.increment();
+		this.stepNanos.add(nanos);
+		this.maxStepNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	/**
+	 * Record clearing the force accumulators.
+	 *
+	 * @param nanos the time it took
+	 */
+	void recordClearForces(long nanos) {
+		this.clearForcesNanos.add(nanos);
+	}
+
+	/**
+	 * Record applying every force.
+	 *
+	 * @param nanos the time it took
+	 */
+	void recordComputeForces(long nanos) {
+		this.computeForcesNanos.add(nanos);
+	}
+
+	/**
+	 * Record applying one or more forces of the same class.
+	 *
+	 * @param type the class of the forces
+	 * @param nanos the time it took
+	 */
+	void recordForce(Class<?> type, long nanos) {
+		this.forceNanos.computeIfAbsent(type, k -> new LongAdder()).add(nanos);
+	}
+
+	/**
+	 * Record copying the state of the system.
+	 *
+	 * @param nanos the time it took
+	 */
+	void recordStateCopy(long nanos) {
+		this.stateCopyNanos.add(nanos);
+	}
+
+	/**
+	 * Record an evaluation of the derivatives of the system.
+	 */
+	void recordDerivativeEvaluation() {
+		this.derivativeEvaluations.increment();
+	}
+
+	@Override
+	public long getSteps() {
+		return this.steps.sum();
+	}
+
+	@Override
+	public long getStepNanos() {
+		return this.stepNanos.sum();
+	}
+
+	@Override
+	public double getMeanStepNanos() {
+		long steps = this.steps.sum();
+		return (steps == 0) ? 0.0 : (double)this.stepNanos.sum() / steps;
+	}
+
+	@Override
+	public long getMaxStepNanos() {
+		return this.maxStepNanos.get();
+	}
+
+	@Override
+	public long getClearForcesNanos() {
+		return this.clearForcesNanos.sum();
+	}
+
+	@Override
+	public long getComputeForcesNanos() {
+		return this.computeForcesNanos.sum();
+	}
+
+	@Override
+	public long getStateCopyNanos() {
+		return this.stateCopyNanos.sum();
+	}
+
+	@Override
+	public long getIntegrationNanos() {
+		long rest = this.getStepNanos() - this.getClearForcesNanos() - this.getComputeForcesNanos() - this.getStateCopyNanos();
+		return Math.max(rest, 0);
+	}
+
+	@Override
+	public long getDerivativeEvaluations() {
+		return this.derivativeEvaluations.sum();
+	}
+
+	@Override
+	public Map<String, Long> getForceNanos() {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<Class<?>, LongAdder> e : this.forceNanos.entrySet()) {
+			result.merge(e.getKey().getSimpleName(), e.getValue().sum(), Long::sum);
+		}
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		this.steps.reset();
+		this.stepNanos.reset();
+		this.maxStepNanos.set(0);
+		this.clearForcesNanos.reset();
+		this.computeForcesNanos.reset();
+		this.stateCopyNanos.reset();
+		this.derivativeEvaluations.reset();
+		this.forceNanos.clear();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "steps=%d mean=%.1fus max=%.1fus clear=%.1fms forces=%.1fms copy=%.1fms integrate=%.1fms evaluations=%d",
+				this.getSteps(), this.getMeanStepNanos() / 1e3, this.getMaxStepNanos() / 1e3,
+				this.getClearForcesNanos() / 1e6, this.getComputeForcesNanos() / 1e6,
+				this.getStateCopyNanos() / 1e6, this.getIntegrationNanos() / 1e6,
+				this.getDerivativeEvaluations()));
+		for (Map.Entry<String, Long> e : this.getForceNanos().entrySet()) {
+			sb.append(String.format(Locale.ROOT, " %s=%.1fms", e.getKey(), e.getValue() / 1e6));
+		}
+		return sb.toString();
+	}
+}
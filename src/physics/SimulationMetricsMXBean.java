@@ -0,0 +1,89 @@
+package physics;
+
+import java.util.Map;
+
+/**
+ * The management interface of SimulationMetrics, which lets tools
+ * like JConsole and VisualVM watch where a simulation spends its time.
+ * Times are totals in nanoseconds since the metrics were last reset.
+ */
+public interface SimulationMetricsMXBean {
+	/**
+	 * Get the number of steps taken.
+	 *
+	 * @return the number of steps
+	 */
+	public long getSteps();
+
+	/**
+	 * Get the total time spent stepping.
+	 *
+	 * @return the time spent in NumericalSolver.step()
+	 */
+	public long getStepNanos();
+
+	/**
+	 * Get the average time of a step.
+	 *
+	 * @return the mean step time, or 0 if no steps have been taken
+	 */
+	public double getMeanStepNanos();
+
+	/**
+	 * Get the time of the longest step.
+	 *
+	 * @return the longest step time
+	 */
+	public long getMaxStepNanos();
+
+	/**
+	 * Get the time spent clearing the force accumulators.
+	 *
+	 * @return the time spent in ParticleSystem.clearForces()
+	 */
+	public long getClearForcesNanos();
+
+	/**
+	 * Get the time spent applying forces.
+	 *
+	 * @return the time spent in ParticleSystem.computeForces()
+	 */
+	public long getComputeForcesNanos();
+
+	/**
+	 * Get the time spent copying the state of the system to
+	 * and from the arrays the solvers work on.
+	 *
+	 * @return the time spent in getSystemState() and setSystemState()
+	 */
+	public long getStateCopyNanos();
+
+	/**
+	 * Get the time spent stepping that wasn't spent on forces or
+	 * copies, which is the time the solvers spend integrating.
+	 *
+	 * @return the rest of the step time
+	 */
+	public long getIntegrationNanos();
+
+	/**
+	 * Get the number of times the derivatives of the system
+	 * were evaluated.
+	 *
+	 * @return the number of derivative evaluations
+	 */
+	public long getDerivativeEvaluations();
+
+	/**
+	 * Get the time spent applying each kind of force. Forces
+	 * are only timed one by one when they are computed serially.
+	 *
+	 * @return the time spent applying forces, by the simple name of the Force class
+	 */
+	public Map<String, Long> getForceNanos();
+
+	/**
+	 * Set every counter back to 0.
+	 */
+	public void reset();
+}
@@ -0,0 +1,288 @@
+package physics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a NumericalSolver on a ParticleSystem on its own thread at a
+ * fixed rate, so that a slow step doesn't hold up drawing and input
+ * doesn't hold up the physics.
+ *
+ * Once the thread is started, only the thread itself should touch the
+ * system. Other threads hand it changes with invokeLater() (or
+ * invokeAndWait()), which are run between steps, and read the state of
+ * the system from the snapshots it publishes after every step.
+ *
+ * Snapshots are passed between the threads with a lock-free triple
+ * buffer: the physics thread fills a snapshot of its own and swaps it
+ * with the one in the middle slot, and the reader swaps its snapshot
+ * with the middle one when the middle one is newer. Neither thread ever
+ * waits for the other, and a snapshot is never written while it's
+ * being read. Only one thread should call getSnapshot().
+ */
+public class SimulationThread implements Runnable {
+	// Fall behind by more than this many steps and the thread gives up catching up
+	private static final int MAX_LAG_STEPS = 5;
+
+	private ParticleSystem ps;
+	private NumericalSolver ns;
+	private double stepSize;
+
+	private volatile boolean running;
+	private volatile boolean paused;
+	private Thread thread;
+	// What stopped the thread, if an edit or a step threw
+	private volatile Throwable failure;
+
+	private ConcurrentLinkedQueue<Runnable> edits;
+
+	// The triple buffer
+	private StateSnapshot back;
+	private AtomicReference<StateSnapshot> middle;
+	private StateSnapshot front;
+	private long steps;
+
+	// Captures every step, if it isn't null
+	private volatile StateTimeline timeline;
+
+	/**
+	 * Create a simulation thread. The thread isn't started until
+	 * start() is called.
+	 *
+	 * @param ps the system to simulate
+	 * @param ns the solver to step the system with
+	 * @param stepSize the amount of simulated time in each step, which is also the real time between steps
+	 */
+	public SimulationThread(ParticleSystem ps, NumericalSolver ns, double stepSize) {
+		this.ps = ps;
+		this.ns = ns;
+		this.stepSize = stepSize;
+		this.edits = new ConcurrentLinkedQueue<>();
+
+		this.back = new StateSnapshot();
+		this.front = new StateSnapshot();
+		StateSnapshot first = new StateSnapshot();
+		first.copyFrom(ps, 0);
+		first.fresh = true;
+		this.middle = new AtomicReference<>(first);
+	}
+
+	/**
+	 * Capture the state of the system in a timeline after every step.
+	 * Once the thread has started the timeline should only be used
+	 * from edits passed to invokeLater() or invokeAndWait().
+	 *
+	 * @param timeline the timeline to capture to, or null to stop capturing
+	 */
+	public void setTimeline(StateTimeline timeline) {
+		this.timeline = timeline;
+	}
+
+	/**
+	 * Start stepping the system on a new thread.
+	 */
+	public synchronized void start() {
+		if (this.thread != null) {
+			return;
+		}
+
+		this.running = true;
+		this.thread = new Thread(this, "physics");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stop the thread and wait for it to finish. Edits that
+	 * haven't been run yet are run on the calling thread.
+	 */
+	public synchronized void stop() {
+		if (this.thread == null) {
+			return;
+		}
+
+		this.running = false;
+		LockSupport.unpark(this.thread);
+		try {
+			this.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.thread = null;
+		this.runEdits();
+	}
+
+	/**
+	 * Check whether the physics thread is running.
+	 *
+	 * @return true if the thread has been started and not stopped
+	 */
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * Get what stopped the thread, if it stopped because an edit
+	 * or a step threw. The thread is no longer running once this
+	 * is set, so edits are run on the calling thread.
+	 *
+	 * @return the exception or error, or null if nothing was thrown
+	 */
+	public Throwable getFailure() {
+		return this.failure;
+	}
+
+	/**
+	 * Set whether the system is stepped. Edits are still run
+	 * and snapshots still published while paused.
+	 *
+	 * @param paused if true, stop stepping the system
+	 */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	/**
+	 * Check whether the system is being stepped.
+	 *
+	 * @return true if the system is paused
+	 */
+	public boolean isPaused() {
+		return this.paused;
+	}
+
+	/**
+	 * Run a change to the system on the physics thread before
+	 * the next step. If the thread isn't running, the change is
+	 * run right away on the calling thread.
+	 *
+	 * @param edit the change to make
+	 */
+	public void invokeLater(Runnable edit) {
+		if (!this.running) {
+			edit.run();
+			return;
+		}
+		this.edits.add(edit);
+		// If the thread stopped before it could see the edit, run it here
+		if (!this.running && this.edits.remove(edit)) {
+			edit.run();
+		}
+	}
+
+	/**
+	 * Run a change to the system on the physics thread before the
+	 * next step and wait for it to finish. If the thread isn't running,
+	 * or this is the physics thread, the change is run right away.
+	 *
+	 * @param edit the change to make
+	 * @return the result of the change
+	 */
+	public <T> T invokeAndWait(Callable<T> edit) {
+		FutureTask<T> task = new FutureTask<>(edit);
+		if (!this.running || Thread.currentThread() == this.thread) {
+			task.run();
+		} else {
+			this.edits.add(task);
+			if (!this.running && this.edits.remove(task)) {
+				task.run();
+			}
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Get the latest state published by the physics thread. The
+	 * snapshot belongs to the caller until the next call, and it
+	 * won't change while the caller is reading it.
+	 *
+	 * @return the latest snapshot of the system
+	 */
+	public StateSnapshot getSnapshot() {
+		if (this.middle.get().fresh) {
+			this.front.fresh = false;
+			this.front = this.middle.getAndSet(this.front);
+		}
+		return this.front;
+	}
+
+	@Override
+	public void run() {
+		try {
+			this.loop();
+		} catch (Throwable e) {
+			this.failure = e;
+			throw e;
+		} finally {
+			// Nothing else is going to run the edits that are waiting, and
+			// whoever is waiting on them would wait forever
+			this.running = false;
+			this.runEdits();
+		}
+	}
+
+	/**
+	 * Step the system and publish snapshots until the thread is stopped.
+	 */
+	private void loop() {
+		long period = (long)(this.stepSize * 1e9);
+		long next = System.nanoTime();
+
+		while (this.running) {
+			this.runEdits();
+
+			if (!this.paused) {
+				this.ns.step(this.ps, this.stepSize);
+				this.steps++;
+				StateTimeline timeline = this.timeline;
+				if (timeline != null) {
+					timeline.capture(this.ps);
+				}
+			}
+			this.publish();
+
+			next += period;
+			long now = System.nanoTime();
+			if (now - next > MAX_LAG_STEPS * period) {
+				// The steps are taking longer than they simulate, so
+				// stop trying to make up the lost time
+				next = now;
+			}
+			while (this.running && (now = System.nanoTime()) < next) {
+				LockSupport.parkNanos(next - now);
+			}
+		}
+	}
+
+	/**
+	 * Run the edits that were handed to the thread.
+	 */
+	private void runEdits() {
+		Runnable edit;
+		while ((edit = this.edits.poll()) != null) {
+			edit.run();
+		}
+	}
+
+	/**
+	 * Copy the state of the system into the back snapshot and
+	 * swap it into the middle slot.
+	 */
+	private void publish() {
+		this.back.copyFrom(this.ps, this.steps);
+		this.back.fresh = true;
+		this.back = this.middle.getAndSet(this.back);
+	}
+}
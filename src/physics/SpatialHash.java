@@ -0,0 +1,295 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the positions of the particles in a store,
+ * used to find the particles near a point without looking at every
+ * particle. Space is cut into square cells, and each cell is hashed
+ * into a table, so the grid doesn't need to know how big the world
+ * is. The grid is rebuilt from scratch with a counting sort, which
+ * takes O(N) time and doesn't allocate once the arrays are big enough.
+ *
+ * Queries are fastest when the search radius is close to the cell
+ * size. Particles are referred to by their index in the store.
+ *
+ * Any number of threads can search the grid at once, such as forces
+ * running under a ParallelForceEvaluator, as long as nothing rebuilds
+ * it at the same time. A grid can also be told to rebuild itself from
+ * a store the next time it is searched, so a grid nothing searches
+ * costs nothing to keep.
+ */
+public class SpatialHash {
+	/**
+	 * Something that wants to be told about the particles
+	 * found by a radius search.
+	 */
+	public interface NeighborVisitor {
+		/**
+		 * Called once for every particle found.
+		 *
+		 * @param j the index of the particle
+		 */
+		public void visit(int j);
+	}
+
+	/**
+	 * Something that wants to be told about pairs of
+	 * particles that are close to each other.
+	 */
+	public interface PairVisitor {
+		/**
+		 * Called once for every pair found, with i < j.
+		 *
+		 * @param i the index of the first particle
+		 * @param j the index of the second particle
+		 */
+		public void visit(int i, int j);
+	}
+
+	private double cellSize;
+	private double invCellSize;
+
+	// The positions the grid was built from
+	private double[] x;
+	private int size;
+
+	// Particles sorted by bucket. The particles in bucket b are
+	// entries[start[b]] to entries[start[b + 1] - 1].
+	private int mask;
+	private int[] start;
+	private int[] entries;
+	private int[] bucketOf;
+
+	// The marks each thread uses to not search a bucket twice in one query
+	private final ThreadLocal<Query> queries;
+
+	// The store to rebuild from before the next search, or null if the grid is up to date
+	private volatile ParticleStore pending;
+
+	/**
+	 * Create a spatial hash.
+	 *
+	 * @param cellSize the width of a cell; usually the radius of the searches
+	 */
+	public SpatialHash(double cellSize) {
+		this.setCellSize(cellSize);
+		this.start = new int[2];
+		this.entries = new int[0];
+		this.bucketOf = new int[0];
+		this.queries = ThreadLocal.withInitial(Query::new);
+		this.mask = 0;
+	}
+
+	/**
+	 * Get the width of a cell.
+	 *
+	 * @return the width of a cell
+	 */
+	public double getCellSize() {
+		return this.cellSize;
+	}
+
+	/**
+	 * Set the width of a cell. This takes effect the next
+	 * time the grid is rebuilt.
+	 *
+	 * @param cellSize the new width of a cell
+	 */
+	public void setCellSize(double cellSize) {
+		this.cellSize = cellSize;
+		this.invCellSize = 1.0 / cellSize;
+	}
+
+	/**
+	 * Rebuild the grid from the current positions of the
+	 * particles in a store.
+	 *
+	 * @param store the store holding the particles
+	 */
+	public void rebuild(ParticleStore store) {
+		int n = store.size();
+		this.x = store.getPositions();
+		this.size = n;
+
+		// Keep the table at least twice as big as the number of particles
+		int tableSize = Integer.highestOneBit(Math.max(2 * n, 16) - 1) << 1;
+		if (this.start.length != tableSize + 1) {
+			this.start = new int[tableSize + 1];
+			this.mask = tableSize - 1;
+		} else {
+			Arrays.fill(this.start, 0);
+		}
+		if (this.entries.length < n) {
+			this.entries = new int[n];
+			this.bucketOf = new int[n];
+		}
+
+		for (int i = 0; i < n; i++) {
+			int b = this.bucket(this.cell(this.x[2 * i]), this.cell(this.x[2 * i + 1]));
+			this.bucketOf[i] = b;
+			this.start[b + 1]++;
+		}
+		for (int b = 0; b < tableSize; b++) {
+			this.start[b + 1] += this.start[b];
+		}
+		// start[b + 1] is now the end of bucket b. Filling each bucket
+		// from its end leaves start[b + 1] at the first entry of bucket b,
+		// so the starts are shifted down by one bucket afterwards.
+		for (int i = n - 1; i >= 0; i--) {
+			int b = this.bucketOf[i];
+			this.entries[--this.start[b + 1]] = i;
+		}
+		System.arraycopy(this.start, 1, this.start, 0, tableSize);
+		this.start[tableSize] = n;
+		// Threads waiting to search only see the grid once it is finished
+		this.pending = null;
+	}
+
+	/**
+	 * Rebuild the grid from a store the next time it is searched,
+	 * instead of right away. The positions are read when the grid is
+	 * rebuilt, so they shouldn't change between a call to this and
+	 * a search unless they are meant to be seen.
+	 *
+	 * @param store the store holding the particles
+	 */
+	public void rebuildLater(ParticleStore store) {
+		this.pending = store;
+	}
+
+	/**
+	 * Rebuild the grid if rebuildLater() was called since it was
+	 * last built. Only the first of several threads searching at
+	 * once rebuilds it; the others wait for it.
+	 */
+	private void ensureBuilt() {
+		if (this.pending == null) {
+			return;
+		}
+		synchronized (this) {
+			ParticleStore store = this.pending;
+			if (store != null) {
+				this.rebuild(store);
+			}
+		}
+	}
+
+	/**
+	 * Visit every particle within a distance of r from a point.
+	 *
+	 * @param px the x-component of the point
+	 * @param py the y-component of the point
+	 * @param r the search radius
+	 * @param visitor the visitor to call for each particle found
+	 */
+	public void query(double px, double py, double r, NeighborVisitor visitor) {
+		this.ensureBuilt();
+		this.query(px, py, r, -1, visitor, null, this.queries.get());
+	}
+
+	/**
+	 * Visit every pair of particles within a distance of r of
+	 * each other. Each pair is visited once.
+	 *
+	 * @param r the search radius
+	 * @param visitor the visitor to call for each pair found
+	 */
+	public void forEachPair(double r, PairVisitor visitor) {
+		this.ensureBuilt();
+		Query q = this.queries.get();
+		for (int i = 0; i < this.size; i++) {
+			this.query(this.x[2 * i], this.x[2 * i + 1], r, i, null, visitor, q);
+		}
+	}
+
+	/**
+	 * Search the cells around a point. If i isn't -1 only particles
+	 * with an index greater than i are reported, to the pair visitor;
+	 * otherwise every particle found is reported to the neighbor visitor.
+	 *
+	 * @param px the x-component of the point
+	 * @param py the y-component of the point
+	 * @param r the search radius
+	 * @param i the index of the particle at the point, or -1
+	 * @param neighbors the visitor for a radius search
+	 * @param pairs the visitor for a pair search
+	 * @param q the marks of the thread doing the search
+	 */
+	private void query(double px, double py, double r, int i, NeighborVisitor neighbors, PairVisitor pairs, Query q) {
+		double r2 = r * r;
+		int minCx = this.cell(px - r);
+		int maxCx = this.cell(px + r);
+		int minCy = this.cell(py - r);
+		int maxCy = this.cell(py + r);
+
+		if (q.visited.length != this.mask + 1) {
+			q.visited = new int[this.mask + 1];
+			q.stamp = 0;
+		}
+		if (++q.stamp == 0) {
+			// The counter wrapped, so old marks could be mistaken for this query's
+			Arrays.fill(q.visited, 0);
+			q.stamp = 1;
+		}
+		int[] visited = q.visited;
+		int stamp = q.stamp;
+
+		for (int cx = minCx; cx <= maxCx; cx++) {
+			for (int cy = minCy; cy <= maxCy; cy++) {
+				int b = this.bucket(cx, cy);
+				if (visited[b] == stamp) {
+					continue;
+				}
+				visited[b] = stamp;
+
+				for (int e = this.start[b]; e < this.start[b + 1]; e++) {
+					int j = this.entries[e];
+					if (j <= i) {
+						continue;
+					}
+					double dx = this.x[2 * j] - px;
+					double dy = this.x[2 * j + 1] - py;
+					if (dx * dx + dy * dy <= r2) {
+						if (pairs != null) {
+							pairs.visit(i, j);
+						} else {
+							neighbors.visit(j);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the cell coordinate of a position.
+	 *
+	 * @param p one component of a position
+	 * @return the cell coordinate along that axis
+	 */
+	private int cell(double p) {
+		return (int)Math.floor(p * this.invCellSize);
+	}
+
+	/**
+	 * Hash a cell into the table.
+	 *
+	 * @param cx the x-coordinate of the cell
+	 * @param cy the y-coordinate of the cell
+	 * @return the bucket the cell is in
+	 */
+	private int bucket(int cx, int cy) {
+		return ((cx * 73856093) ^ (cy * 19349663)) & this.mask;
+	}
+
+	/**
+	 * The buckets one thread has searched. Each query gets a new stamp,
+	 * and a bucket is marked with the stamp of the query that searched it,
+	 * so two cells which hash to the same bucket aren't searched twice.
+	 */
+	private static class Query {
+		private int[] visited = new int[0];
+		private int stamp;
+	}
+}
@@ -26,6 +26,7 @@ public class Spring extends Force {
      *
      * @return the potential energy stored in the spring
      */
+    @Override
     public double calculateEnergy() {
         // Formula for spring potential energy: PE = 0.5*k*x^2
         Vec2 r = Vec2.sub(this.b.getPosition(), this.a.getPosition());
@@ -39,6 +40,7 @@ public class Spring extends Force {
      * 
      * @return an array of Particle objects containing two elements
      */
+    @Override
     public Particle[] getParticles() {
     	Particle[] particles = new Particle[2];
     	particles[0] = this.a;
@@ -62,6 +64,7 @@ public class Spring extends Force {
      */
     public void setLength(double l) {
     	this.l = l;
+    	this.a.getStore().markChanged();
     }
     
     /**
@@ -80,15 +83,65 @@ public class Spring extends Force {
      */
     public void setSpringConstant(double k) {
     	this.k = k;
+    	this.a.getStore().markChanged();
+    }
+
+    @Override
+    public Force copy(ParticleSystem from, ParticleSystem to) {
+    	return new Spring(mapParticle(this.a, from, to), mapParticle(this.b, from, to), this.k, this.l);
     }
 
     @Override
     public void applyForce() {
-        Vec2 r = Vec2.sub(this.b.getPosition(), this.a.getPosition());
-        double f1mag = -this.k * (this.l - r.mag());
-        Vec2 f1 = Vec2.mult(r.unit(), f1mag);
-        Vec2 f2 = Vec2.mult(f1, -1);
-        this.a.addForce(f1);
-        this.b.addForce(f2);
+        // Work straight on the particle stores so that no Vec2s are created
+        ParticleStore sa = this.a.getStore();
+        ParticleStore sb = this.b.getStore();
+        int ia = this.a.getIndex();
+        int ib = this.b.getIndex();
+        double[] xa = sa.getPositions();
+        double[] xb = sb.getPositions();
+        double rx = xb[2 * ib] - xa[2 * ia];
+        double ry = xb[2 * ib + 1] - xa[2 * ia + 1];
+        double r = Math.sqrt(rx * rx + ry * ry);
+        // f1mag / r scales r to a vector with magnitude f1mag
+        double f1mag = -this.k * (this.l - r);
+        double s = f1mag / r;
+        sa.addForce(ia, s * rx, s * ry);
+        sb.addForce(ib, -s * rx, -s * ry);
+    }
+    
+    @Override
+    public boolean hasJacobian() {
+    	return true;
+    }
+    
+    @Override
+    public void addJacobianProduct(double[] dx, double[] out) {
+        int ia = this.a.getIndex();
+        int ib = this.b.getIndex();
+        double[] xa = this.a.getStore().getPositions();
+        double[] xb = this.b.getStore().getPositions();
+        double rx = xb[2 * ib] - xa[2 * ia];
+        double ry = xb[2 * ib + 1] - xa[2 * ia + 1];
+        double r = Math.sqrt(rx * rx + ry * ry);
+        double ux = rx / r;
+        double uy = ry / r;
+        
+        // The displacement of b relative to a
+        double dxr = dx[2 * ib] - dx[2 * ia];
+        double dyr = dx[2 * ib + 1] - dx[2 * ia + 1];
+        
+        // The Jacobian is k * (uu^T + (1 - l/r)(I - uu^T)). The transverse
+        // term is clamped at 0 for compressed springs so the Jacobian
+        // stays definite, which the implicit solvers rely on.
+        double along = ux * dxr + uy * dyr;
+        double c = Math.max(0.0, 1.0 - this.l / r);
+        double jx = this.k * (ux * along + c * (dxr - ux * along));
+        double jy = this.k * (uy * along + c * (dyr - uy * along));
+        
+        out[2 * ia] += jx;
+        out[2 * ia + 1] += jy;
+        out[2 * ib] -= jx;
+        out[2 * ib + 1] -= jy;
     }
 }
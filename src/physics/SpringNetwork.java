@@ -0,0 +1,530 @@
+package physics;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This force models a large number of springs at once. Instead of
+ * one Spring object per spring, the endpoints, spring constants,
+ * resting lengths and damping constants are kept in primitive arrays
+ * and every spring is evaluated in one loop over the particle store,
+ * which is a lot faster for cloth and soft bodies with hundreds of
+ * thousands of springs.
+ *
+ * The endpoints are kept as indices into the particle store of the
+ * system. When particles are added to or removed from the system the
+ * indices are looked up again the next time the force is applied.
+ * A spring with an endpoint that isn't in the system does nothing,
+ * and removing a particle from the system removes the springs
+ * connected to it but leaves the rest of the network.
+ */
+public class SpringNetwork extends Force {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private ParticleSystem ps;
+
+	// The particles at the ends of each spring, used to find the
+	// indices again when the system changes
+	private Particle[] endA;
+	private Particle[] endB;
+	// The indices of the springs each particle is at the end of
+	private Map<Particle, SpringList> adjacent;
+
+	// The store indices of the ends of each spring, or -1 if an end isn't in the system
+	private int[] a;
+	private int[] b;
+
+	private double[] k;
+	private double[] l;
+	private double[] c;
+	private int count;
+
+	// The modification count of the system when the indices were last looked up
+	private int resolvedModCount;
+	private boolean resolved;
+
+	/**
+	 * Create an empty spring network.
+	 *
+	 * @param ps the system the particles connected by the springs are in
+	 */
+	public SpringNetwork(ParticleSystem ps) {
+		this.ps = ps;
+		this.endA = new Particle[DEFAULT_CAPACITY];
+		this.endB = new Particle[DEFAULT_CAPACITY];
+		this.adjacent = new IdentityHashMap<>();
+		this.a = new int[DEFAULT_CAPACITY];
+		this.b = new int[DEFAULT_CAPACITY];
+		this.k = new double[DEFAULT_CAPACITY];
+		this.l = new double[DEFAULT_CAPACITY];
+		this.c = new double[DEFAULT_CAPACITY];
+		this.count = 0;
+		this.resolved = false;
+	}
+
+	/**
+	 * Create a spring network with the same springs as a list of
+	 * Spring objects.
+	 *
+	 * @param ps the system the particles connected by the springs are in
+	 * @param springs the springs to copy
+	 * @return the new spring network
+	 */
+	public static SpringNetwork fromSprings(ParticleSystem ps, List<Spring> springs) {
+		SpringNetwork network = new SpringNetwork(ps);
+		network.addSprings(springs);
+		return network;
+	}
+
+	/**
+	 * Add a spring without damping.
+	 *
+	 * @param pa the particle at one end of the spring
+	 * @param pb the particle at the other end of the spring
+	 * @param k the spring constant
+	 * @param l the resting length
+	 * @return the index of the new spring
+	 */
+	public int addSpring(Particle pa, Particle pb, double k, double l) {
+		return this.addSpring(pa, pb, k, l, 0.0);
+	}
+
+	/**
+	 * Add a spring.
+	 *
+	 * @param pa the particle at one end of the spring
+	 * @param pb the particle at the other end of the spring
+	 * @param k the spring constant
+	 * @param l the resting length
+	 * @param damping the damping constant, which resists the ends moving apart or together
+	 * @return the index of the new spring
+	 */
+	public int addSpring(Particle pa, Particle pb, double k, double l, double damping) {
+		this.ensureCapacity(this.count + 1);
+		int i = this.count++;
+		this.endA[i] = pa;
+		this.endB[i] = pb;
+		this.k[i] = k;
+		this.l[i] = l;
+		this.c[i] = damping;
+		this.resolved = false;
+		this.addEnd(pa, i);
+		this.addEnd(pb, i);
+		return i;
+	}
+
+	/**
+	 * Add a spring with the same particles, spring constant and
+	 * resting length as a Spring object.
+	 *
+	 * @param s the spring to copy
+	 * @return the index of the new spring
+	 */
+	public int addSpring(Spring s) {
+		Particle[] particles = s.getParticles();
+		return this.addSpring(particles[0], particles[1], s.getSpringConstant(), s.getLength());
+	}
+
+	/**
+	 * Add copies of a list of Spring objects.
+	 *
+	 * @param springs the springs to copy
+	 */
+	public void addSprings(List<Spring> springs) {
+		this.ensureCapacity(this.count + springs.size());
+		for (int i = 0; i < springs.size(); i++) {
+			this.addSpring(springs.get(i));
+		}
+	}
+
+	/**
+	 * Remove a spring. The last spring is moved into its place,
+	 * so the index of the last spring changes to i.
+	 *
+	 * @param i the index of the spring to remove
+	 */
+	public void removeSpring(int i) {
+		this.removeEnd(this.endA[i], i);
+		this.removeEnd(this.endB[i], i);
+		int last = --this.count;
+		if (i != last) {
+			// The last spring is about to become spring i
+			this.adjacent.get(this.endA[last]).replace(last, i);
+			this.adjacent.get(this.endB[last]).replace(last, i);
+		}
+		this.endA[i] = this.endA[last];
+		this.endB[i] = this.endB[last];
+		this.a[i] = this.a[last];
+		this.b[i] = this.b[last];
+		this.k[i] = this.k[last];
+		this.l[i] = this.l[last];
+		this.c[i] = this.c[last];
+		this.endA[last] = null;
+		this.endB[last] = null;
+	}
+
+	/**
+	 * Get the particles at the ends of the springs. Each
+	 * particle appears once, in no particular order.
+	 *
+	 * @return the particles connected by the network
+	 */
+	@Override
+	public Particle[] getParticles() {
+		return this.adjacent.keySet().toArray(new Particle[0]);
+	}
+
+	/**
+	 * Remove the springs connected to a particle that is being
+	 * removed from the system. The rest of the network stays.
+	 *
+	 * @param p the particle being removed
+	 * @return false, so the network isn't removed with the particle
+	 */
+	@Override
+	public boolean detachParticle(Particle p) {
+		// The list is dropped when its last spring is removed
+		SpringList springs;
+		while ((springs = this.adjacent.get(p)) != null) {
+			this.removeSpring(springs.last());
+		}
+		return false;
+	}
+
+	/**
+	 * Get the number of springs in the network.
+	 *
+	 * @return the number of springs
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	/**
+	 * Get the particles at the ends of a spring.
+	 *
+	 * @param i the index of the spring
+	 * @return an array of Particle objects containing two elements
+	 */
+	public Particle[] getParticles(int i) {
+		return new Particle[] { this.endA[i], this.endB[i] };
+	}
+
+	/**
+	 * Get the spring constant of a spring.
+	 *
+	 * @param i the index of the spring
+	 * @return the spring constant
+	 */
+	public double getSpringConstant(int i) {
+		return this.k[i];
+	}
+
+	/**
+	 * Set the spring constant of a spring.
+	 *
+	 * @param i the index of the spring
+	 * @param k the new spring constant
+	 */
+	public void setSpringConstant(int i, double k) {
+		this.k[i] = k;
+		this.ps.getParticleStore().markChanged();
+	}
+
+	/**
+	 * Get the resting length of a spring.
+	 *
+	 * @param i the index of the spring
+	 * @return the resting length
+	 */
+	public double getLength(int i) {
+		return this.l[i];
+	}
+
+	/**
+	 * Set the resting length of a spring.
+	 *
+	 * @param i the index of the spring
+	 * @param l the new resting length
+	 */
+	public void setLength(int i, double l) {
+		this.l[i] = l;
+		this.ps.getParticleStore().markChanged();
+	}
+
+	/**
+	 * Get the damping constant of a spring.
+	 *
+	 * @param i the index of the spring
+	 * @return the damping constant
+	 */
+	public double getDamping(int i) {
+		return this.c[i];
+	}
+
+	/**
+	 * Set the damping constant of a spring.
+	 *
+	 * @param i the index of the spring
+	 * @param damping the new damping constant
+	 */
+	public void setDamping(int i, double damping) {
+		this.c[i] = damping;
+		this.ps.getParticleStore().markChanged();
+	}
+
+	/**
+	 * Calculate the potential energy stored in all the springs.
+	 *
+	 * @return the potential energy stored in the springs
+	 */
+	@Override
+	public double calculateEnergy() {
+		this.resolveIndices();
+		double[] x = this.ps.getParticleStore().getPositions();
+		double energy = 0.0;
+		for (int i = 0; i < this.count; i++) {
+			int ia = this.a[i];
+			int ib = this.b[i];
+			if (ia < 0 || ib < 0) {
+				continue;
+			}
+			double rx = x[2 * ib] - x[2 * ia];
+			double ry = x[2 * ib + 1] - x[2 * ia + 1];
+			double d = this.l[i] - Math.sqrt(rx * rx + ry * ry);
+			energy += 0.5 * this.k[i] * d * d;
+		}
+		return energy;
+	}
+
+	@Override
+	public Force copy(ParticleSystem from, ParticleSystem to) {
+		SpringNetwork network = new SpringNetwork(to);
+		network.ensureCapacity(this.count);
+		for (int i = 0; i < this.count; i++) {
+			network.addSpring(mapParticle(this.endA[i], from, to), mapParticle(this.endB[i], from, to),
+					this.k[i], this.l[i], this.c[i]);
+		}
+		return network;
+	}
+
+	@Override
+	public void applyForce() {
+		this.resolveIndices();
+
+		ParticleStore store = this.ps.getParticleStore();
+		double[] x = store.getPositions();
+		double[] v = store.getVelocities();
+		double[] f = store.getForceAccumulators();
+		int[] a = this.a;
+		int[] b = this.b;
+		double[] k = this.k;
+		double[] l = this.l;
+		double[] c = this.c;
+
+		for (int i = 0; i < this.count; i++) {
+			int ia = a[i];
+			int ib = b[i];
+			if (ia < 0 || ib < 0) {
+				continue;
+			}
+
+			double rx = x[2 * ib] - x[2 * ia];
+			double ry = x[2 * ib + 1] - x[2 * ia + 1];
+			double r = Math.sqrt(rx * rx + ry * ry);
+			double ux = rx / r;
+			double uy = ry / r;
+
+			// Spring force plus damping along the spring
+			double fmag = k[i] * (r - l[i]);
+			if (c[i] != 0.0) {
+				double dvx = v[2 * ib] - v[2 * ia];
+				double dvy = v[2 * ib + 1] - v[2 * ia + 1];
+				fmag += c[i] * (dvx * ux + dvy * uy);
+			}
+
+			double fx = fmag * ux;
+			double fy = fmag * uy;
+			f[2 * ia] += fx;
+			f[2 * ia + 1] += fy;
+			f[2 * ib] -= fx;
+			f[2 * ib + 1] -= fy;
+		}
+	}
+
+	@Override
+	public boolean hasJacobian() {
+		return true;
+	}
+
+	@Override
+	public void addJacobianProduct(double[] dx, double[] out) {
+		this.resolveIndices();
+
+		// The same Jacobian as Spring; damping is left out
+		double[] x = this.ps.getParticleStore().getPositions();
+		for (int i = 0; i < this.count; i++) {
+			int ia = this.a[i];
+			int ib = this.b[i];
+			if (ia < 0 || ib < 0) {
+				continue;
+			}
+
+			double rx = x[2 * ib] - x[2 * ia];
+			double ry = x[2 * ib + 1] - x[2 * ia + 1];
+			double r = Math.sqrt(rx * rx + ry * ry);
+			double ux = rx / r;
+			double uy = ry / r;
+
+			double dxr = dx[2 * ib] - dx[2 * ia];
+			double dyr = dx[2 * ib + 1] - dx[2 * ia + 1];
+			double along = ux * dxr + uy * dyr;
+			double t = Math.max(0.0, 1.0 - this.l[i] / r);
+			double jx = this.k[i] * (ux * along + t * (dxr - ux * along));
+			double jy = this.k[i] * (uy * along + t * (dyr - uy * along));
+
+			out[2 * ia] += jx;
+			out[2 * ia + 1] += jy;
+			out[2 * ib] -= jx;
+			out[2 * ib + 1] -= jy;
+		}
+	}
+
+	/**
+	 * Look up the store indices of the ends of every spring if
+	 * springs were added or the system changed since they were last
+	 * looked up.
+	 */
+	private void resolveIndices() {
+		int modCount = this.ps.getModificationCount();
+		if (this.resolved && this.resolvedModCount == modCount) {
+			return;
+		}
+
+		ParticleStore store = this.ps.getParticleStore();
+		for (int i = 0; i < this.count; i++) {
+			Particle pa = this.endA[i];
+			Particle pb = this.endB[i];
+			this.a[i] = (pa.getStore() == store) ? pa.getIndex() : -1;
+			this.b[i] = (pb.getStore() == store) ? pb.getIndex() : -1;
+		}
+
+		this.resolvedModCount = modCount;
+		this.resolved = true;
+	}
+
+	/**
+	 * Add a new spring to the springs at a particle, and tell the
+	 * system the network is attached to the particle if it wasn't already.
+	 *
+	 * @param p the particle at one end of the new spring
+	 * @param i the index of the new spring
+	 */
+	private void addEnd(Particle p, int i) {
+		SpringList springs = this.adjacent.get(p);
+		if (springs == null) {
+			springs = new SpringList();
+			this.adjacent.put(p, springs);
+			this.ps.attach(this, p);
+		}
+		springs.add(i);
+	}
+
+	/**
+	 * Take a removed spring out of the springs at a particle, and tell
+	 * the system the network is no longer attached to the particle if
+	 * no other spring is.
+	 *
+	 * @param p the particle at one end of the removed spring
+	 * @param i the index of the removed spring
+	 */
+	private void removeEnd(Particle p, int i) {
+		SpringList springs = this.adjacent.get(p);
+		springs.remove(i);
+		if (springs.size == 0) {
+			this.adjacent.remove(p);
+			this.ps.detach(this, p);
+		}
+	}
+
+	/**
+	 * Make sure the arrays can hold the given number of springs.
+	 *
+	 * @param capacity the number of springs
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= this.k.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, this.k.length * 2);
+		this.endA = Arrays.copyOf(this.endA, newCapacity);
+		this.endB = Arrays.copyOf(this.endB, newCapacity);
+		this.a = Arrays.copyOf(this.a, newCapacity);
+		this.b = Arrays.copyOf(this.b, newCapacity);
+		this.k = Arrays.copyOf(this.k, newCapacity);
+		this.l = Arrays.copyOf(this.l, newCapacity);
+		this.c = Arrays.copyOf(this.c, newCapacity);
+	}
+
+	/**
+	 * The indices of the springs at one particle. Particles usually
+	 * only have a few springs, so the list is searched to remove one.
+	 */
+	private static class SpringList {
+		private int[] springs = new int[4];
+		private int size;
+
+		/**
+		 * Add a spring to the end of the list.
+		 *
+		 * @param i the index of the spring
+		 */
+		void add(int i) {
+			if (this.size == this.springs.length) {
+				this.springs = Arrays.copyOf(this.springs, 2 * this.size);
+			}
+			this.springs[this.size++] = i;
+		}
+
+		/**
+		 * Remove one entry for a spring, moving the last entry into its place.
+		 *
+		 * @param i the index of the spring
+		 */
+		void remove(int i) {
+			for (int j = 0; j < this.size; j++) {
+				if (this.springs[j] == i) {
+					this.springs[j] = this.springs[--this.size];
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Change one entry for a spring to another index.
+		 *
+		 * @param from the old index of the spring
+		 * @param to the new index of the spring
+		 */
+		void replace(int from, int to) {
+			for (int j = 0; j < this.size; j++) {
+				if (this.springs[j] == from) {
+					this.springs[j] = to;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Get the spring at the end of the list.
+		 *
+		 * @return the index of the spring
+		 */
+		int last() {
+			return this.springs[this.size - 1];
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package physics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A copy of the positions and velocities of the particles in a
+ * ParticleSystem at one moment. Snapshots are published by a
+ * SimulationThread so that another thread can draw the system
+ * without reading state that is being changed under it. A snapshot
+ * of the previous step can also be blended with the current state
+ * of the system, to draw positions between two fixed steps.
+ */
+public class StateSnapshot {
+	private double[] x;
+	private double[] v;
+	private double[] m;
+	private Particle[] particles;
+	private int size;
+	// An open-addressed table from each particle to its index in the
+	// snapshot, so lookups don't read anything the physics thread changes
+	private Particle[] table;
+	private int[] tableIndex;
+	private double t;
+	private long step;
+	// The version of the store
+	private int version;
+
+	// Set by the writer when the snapshot holds state the reader hasn't seen
+	volatile boolean fresh;
+
+	/**
+	 * Create an empty snapshot.
+	 */
+	public StateSnapshot() {
+		this.x = new double[0];
+		this.v = new double[0];
+		this.m = new double[0];
+		this.particles = new Particle[0];
+		this.size = 0;
+		this.table = new Particle[1];
+		this.tableIndex = new int[1];
+	}
+
+	/**
+	 * Copy the current state of a system into this snapshot,
+	 * counting it as one step after the state it replaces.
+	 *
+	 * @param ps the system to copy
+	 */
+	public void capture(ParticleSystem ps) {
+		this.copyFrom(ps, this.step + 1);
+	}
+
+	/**
+	 * Copy the current state of a system into this snapshot.
+	 *
+	 * @param ps the system to copy
+	 * @param step the number of steps the system has taken
+	 */
+	void copyFrom(ParticleSystem ps, long step) {
+		ParticleStore store = ps.getParticleStore();
+		int n = store.size();
+		if (this.particles.length < n) {
+			this.x = new double[2 * n];
+			this.v = new double[2 * n];
+			this.m = new double[n];
+			this.particles = new Particle[n];
+		}
+
+		System.arraycopy(store.getPositions(), 0, this.x, 0, 2 * n);
+		System.arraycopy(store.getVelocities(), 0, this.v, 0, 2 * n);
+		System.arraycopy(store.getMasses(), 0, this.m, 0, n);
+		List<Particle> list = ps.getParticles();
+		for (int i = 0; i < n; i++) {
+			this.particles[i] = list.get(i);
+		}
+		// Let go of particles that aren't in the system any more
+		for (int i = n; i < this.size; i++) {
+			this.particles[i] = null;
+		}
+
+		this.size = n;
+		this.buildTable();
+		this.t = ps.getTime();
+		this.step = step;
+		this.version = store.getVersion();
+	}
+
+	/**
+	 * Fill the table that finds particles in the snapshot. The
+	 * table is kept at least twice as big as the number of particles.
+	 */
+	private void buildTable() {
+		int n = this.size;
+		int capacity = Integer.highestOneBit(Math.max(2 * n, 2) - 1) << 1;
+		if (this.table.length != capacity) {
+			this.table = new Particle[capacity];
+			this.tableIndex = new int[capacity];
+		} else {
+			Arrays.fill(this.table, null);
+		}
+
+		int mask = capacity - 1;
+		for (int i = 0; i < n; i++) {
+			int slot = hash(this.particles[i]) & mask;
+			while (this.table[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			this.table[slot] = this.particles[i];
+			this.tableIndex[slot] = i;
+		}
+	}
+
+	/**
+	 * Check whether a particle was in the system when the
+	 * snapshot was taken, and find where it is in the snapshot.
+	 *
+	 * @param p the particle
+	 * @return the index of the particle in the snapshot, or -1
+	 */
+	private int indexOf(Particle p) {
+		int mask = this.table.length - 1;
+		int slot = hash(p) & mask;
+		Particle q;
+		while ((q = this.table[slot]) != null) {
+			if (q == p) {
+				return this.tableIndex[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Hash a particle by its identity, spreading the bits so
+	 * that the low bits used by the table are well mixed.
+	 *
+	 * @param p the particle
+	 * @return the hash of the particle
+	 */
+	private static int hash(Particle p) {
+		int h = System.identityHashCode(p);
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Get the position of a particle when the snapshot was taken.
+	 *
+	 * @param p the particle
+	 * @return the position of the particle, or null if it wasn't in the system then
+	 */
+	public Vec2 getPosition(Particle p) {
+		int i = this.indexOf(p);
+		if (i < 0) {
+			return null;
+		}
+		return new Vec2(this.x[2 * i], this.x[2 * i + 1]);
+	}
+
+	/**
+	 * Get the position of a particle blended between the snapshot
+	 * and its current position. This reads the particle, so it should
+	 * only be used on the thread that steps the system.
+	 *
+	 * @param p the particle
+	 * @param alpha how far to blend, from 0 (the snapshot) to 1 (the current position)
+	 * @return the blended position of the particle, or null if it wasn't in the system when the snapshot was taken
+	 */
+	public Vec2 getInterpolatedPosition(Particle p, double alpha) {
+		int i = this.indexOf(p);
+		if (i < 0) {
+			return null;
+		}
+		Vec2 current = p.getPosition();
+		double x0 = this.x[2 * i];
+		double y0 = this.x[2 * i + 1];
+		return new Vec2(x0 + alpha * (current.getX() - x0), y0 + alpha * (current.getY() - y0));
+	}
+
+	/**
+	 * Get the velocity of a particle when the snapshot was taken.
+	 *
+	 * @param p the particle
+	 * @return the velocity of the particle, or null if it wasn't in the system then
+	 */
+	public Vec2 getVelocity(Particle p) {
+		int i = this.indexOf(p);
+		if (i < 0) {
+			return null;
+		}
+		return new Vec2(this.v[2 * i], this.v[2 * i + 1]);
+	}
+
+	/**
+	 * Get the mass of a particle when the snapshot was taken.
+	 *
+	 * @param p the particle
+	 * @return the mass of the particle, or NaN if it wasn't in the system then
+	 */
+	public double getMass(Particle p) {
+		int i = this.indexOf(p);
+		if (i < 0) {
+			return Double.NaN;
+		}
+		return this.m[i];
+	}
+
+	/**
+	 * Access the interleaved positions of the particles in the
+	 * snapshot. Particle i is the one getParticle(i) returns.
+	 *
+	 * @return the positions of the particles
+	 */
+	public double[] getPositions() {
+		return this.x;
+	}
+
+	/**
+	 * Get a particle that was in the system when the snapshot was taken.
+	 *
+	 * @param i the index of the particle in the snapshot
+	 * @return the particle
+	 */
+	public Particle getParticle(int i) {
+		return this.particles[i];
+	}
+
+	/**
+	 * Get the version of the particle store when the snapshot was
+	 * taken. See ParticleStore.getVersion().
+	 *
+	 * @return the version of the store
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Get the number of particles in the snapshot.
+	 *
+	 * @return the number of particles
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Get the system clock when the snapshot was taken.
+	 *
+	 * @return the simulated time of the snapshot
+	 */
+	public double getTime() {
+		return this.t;
+	}
+
+	/**
+	 * Get the number of steps the system had taken when the
+	 * snapshot was taken.
+	 *
+	 * @return the step number of the snapshot
+	 */
+	public long getStep() {
+		return this.step;
+	}
+}
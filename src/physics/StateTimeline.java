@@ -0,0 +1,300 @@
+package physics;
+
+/**
+ * A bounded history of the recent states of a ParticleSystem, so that
+ * a simulation can be scrubbed back and forth and resumed from an
+ * earlier point.
+ *
+ * Every keyframeInterval-th captured frame is a keyframe, an exact copy
+ * of the positions and velocities. The frames in between only store how
+ * far each value is from the keyframe before them, as floats, which
+ * halves their size. Restoring one of those frames is exact to the
+ * precision of a float relative to how far the system moved since the
+ * keyframe, and the error doesn't build up from frame to frame.
+ *
+ * All the memory is allocated from the budget the first time a frame is
+ * captured and reused from then on, so capturing a frame is a copy with
+ * no allocation. Once the timeline is full the oldest keyframe and the
+ * frames after it are dropped to make room. Adding or removing particles
+ * makes the old frames useless, so the timeline starts over when it sees
+ * that the particles have changed. Forces aren't part of a frame, so
+ * adding or removing them, like attaching a spring to the mouse for a
+ * moment, keeps the frames.
+ *
+ * A timeline isn't thread safe; it should only be used by the thread
+ * that steps the system.
+ */
+public class StateTimeline {
+	private long budget;
+	private int keyframeInterval;
+
+	// The particles the frames are of, as of the last capture
+	private int particleCount;
+	private int particleModCount;
+
+	// Each group is one keyframe followed by keyframeInterval - 1 deltas
+	private int groups;
+	private double[] keyframes;
+	private float[] deltas;
+	private double[] times;
+
+	// Frames are numbered from 0 when the timeline was last cleared. first
+	// is the oldest frame kept, end is one past the newest, and cursor is
+	// the frame the system was last captured at or restored to.
+	private long first;
+	private long end;
+	private long cursor;
+
+	/**
+	 * Create an empty timeline.
+	 *
+	 * @param budget roughly how many bytes the frames can take up
+	 * @param keyframeInterval the number of frames from one keyframe to the next
+	 */
+	public StateTimeline(long budget, int keyframeInterval) {
+		this.budget = budget;
+		this.keyframeInterval = Math.max(keyframeInterval, 1);
+		this.particleCount = -1;
+	}
+
+	/**
+	 * Add the current state of a system to the end of the timeline.
+	 * If the timeline was rewound, the frames after the one it was
+	 * rewound to are thrown away first, so the system carries on
+	 * from there.
+	 *
+	 * @param ps the system to capture
+	 */
+	public void capture(ParticleSystem ps) {
+		ParticleStore store = ps.getParticleStore();
+		int n = store.size();
+		if (n != this.particleCount || ps.getParticleModificationCount() != this.particleModCount) {
+			this.reset(n, ps.getParticleModificationCount());
+		}
+		if (this.groups == 0) {
+			return;
+		}
+
+		if (this.end > this.first) {
+			this.end = this.cursor + 1;
+		}
+		if (this.end - this.first == (long)this.groups * this.keyframeInterval) {
+			this.first += this.keyframeInterval;
+		}
+
+		long f = this.end;
+		int group = this.group(f);
+		int k = (int)(f % this.keyframeInterval);
+		int stride = 4 * n;
+		double[] x = store.getPositions();
+		double[] v = store.getVelocities();
+		int key = group * stride;
+		if (k == 0) {
+			System.arraycopy(x, 0, this.keyframes, key, 2 * n);
+			System.arraycopy(v, 0, this.keyframes, key + 2 * n, 2 * n);
+		} else {
+			double[] keyframes = this.keyframes;
+			float[] deltas = this.deltas;
+			int delta = (group * (this.keyframeInterval - 1) + k - 1) * stride;
+			for (int i = 0; i < 2 * n; i++) {
+				deltas[delta + i] = (float)(x[i] - keyframes[key + i]);
+			}
+			delta += 2 * n;
+			key += 2 * n;
+			for (int i = 0; i < 2 * n; i++) {
+				deltas[delta + i] = (float)(v[i] - keyframes[key + i]);
+			}
+		}
+		this.times[this.timeIndex(f)] = ps.getTime();
+
+		this.end = f + 1;
+		this.cursor = f;
+	}
+
+	/**
+	 * Set the state of a system to a frame in the timeline. The system
+	 * has to have the same particles it had when the frame was captured.
+	 *
+	 * @param ps the system to restore
+	 * @param frame the frame to restore, from 0 for the oldest to size() - 1 for the newest
+	 * @return true if the frame was restored, false if the system has changed since it was captured
+	 */
+	public boolean seek(ParticleSystem ps, int frame) {
+		if (frame < 0 || frame >= this.size()) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + this.size());
+		}
+		ParticleStore store = ps.getParticleStore();
+		int n = store.size();
+		if (n != this.particleCount || ps.getParticleModificationCount() != this.particleModCount) {
+			this.clear();
+			return false;
+		}
+
+		long f = this.first + frame;
+		int group = this.group(f);
+		int k = (int)(f % this.keyframeInterval);
+		int stride = 4 * n;
+		double[] x = store.getPositions();
+		double[] v = store.getVelocities();
+		int key = group * stride;
+		if (k == 0) {
+			System.arraycopy(this.keyframes, key, x, 0, 2 * n);
+			System.arraycopy(this.keyframes, key + 2 * n, v, 0, 2 * n);
+		} else {
+			double[] keyframes = this.keyframes;
+			float[] deltas = this.deltas;
+			int delta = (group * (this.keyframeInterval - 1) + k - 1) * stride;
+			for (int i = 0; i < 2 * n; i++) {
+				x[i] = keyframes[key + i] + deltas[delta + i];
+			}
+			delta += 2 * n;
+			key += 2 * n;
+			for (int i = 0; i < 2 * n; i++) {
+				v[i] = keyframes[key + i] + deltas[delta + i];
+			}
+		}
+		store.markChanged();
+		ps.setTime(this.times[this.timeIndex(f)]);
+
+		this.cursor = f;
+		return true;
+	}
+
+	/**
+	 * Restore the frame before the current one, if there is one.
+	 *
+	 * @param ps the system to restore
+	 * @return true if the system was moved back a frame
+	 */
+	public boolean stepBack(ParticleSystem ps) {
+		int frame = this.getCursor();
+		return frame > 0 && this.seek(ps, frame - 1);
+	}
+
+	/**
+	 * Restore the frame after the current one, if there is one.
+	 *
+	 * @param ps the system to restore
+	 * @return true if the system was moved forward a frame
+	 */
+	public boolean stepForward(ParticleSystem ps) {
+		int frame = this.getCursor();
+		return frame >= 0 && frame + 1 < this.size() && this.seek(ps, frame + 1);
+	}
+
+	/**
+	 * Get the number of frames in the timeline.
+	 *
+	 * @return the number of frames
+	 */
+	public int size() {
+		return (int)(this.end - this.first);
+	}
+
+	/**
+	 * Get the frame the system was last captured at or restored to.
+	 *
+	 * @return the current frame, or -1 if the timeline is empty
+	 */
+	public int getCursor() {
+		return (this.end > this.first) ? (int)(this.cursor - this.first) : -1;
+	}
+
+	/**
+	 * Get the most frames the timeline can hold for the number of
+	 * particles it was last given.
+	 *
+	 * @return the number of frames
+	 */
+	public int getCapacity() {
+		return this.groups * this.keyframeInterval;
+	}
+
+	/**
+	 * Get the time of a frame.
+	 *
+	 * @param frame the frame, from 0 for the oldest
+	 * @return the simulated time the frame was captured at
+	 */
+	public double getTime(int frame) {
+		if (frame < 0 || frame >= this.size()) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + this.size());
+		}
+		return this.times[this.timeIndex(this.first + frame)];
+	}
+
+	/**
+	 * Throw away every frame.
+	 */
+	public void clear() {
+		this.first = 0;
+		this.end = 0;
+		this.cursor = 0;
+	}
+
+	/**
+	 * Get the slot of the group a frame is in.
+	 *
+	 * @param f the number of the frame
+	 * @return the index of the group
+	 */
+	private int group(long f) {
+		return (int)((f / this.keyframeInterval) % this.groups);
+	}
+
+	/**
+	 * Get the slot of the time of a frame.
+	 *
+	 * @param f the number of the frame
+	 * @return the index of its time in times
+	 */
+	private int timeIndex(long f) {
+		return (int)(f % ((long)this.groups * this.keyframeInterval));
+	}
+
+	/**
+	 * Throw away every frame and size the timeline for a system.
+	 *
+	 * @param n the number of particles in the system
+	 * @param particleModCount the particle modification count of the system
+	 */
+	private void reset(int n, int particleModCount) {
+		this.clear();
+		this.particleModCount = particleModCount;
+		if (n == this.particleCount) {
+			return;
+		}
+		this.particleCount = n;
+
+		// A keyframe is 4n doubles, a delta 4n floats, and each frame has a time
+		long groupBytes = 32L * n + 16L * n * (this.keyframeInterval - 1) + 8L * this.keyframeInterval;
+		long groups = this.budget / groupBytes;
+		long maxDeltaLength = (long)(this.keyframeInterval - 1) * 4 * n;
+		groups = Math.min(groups, Integer.MAX_VALUE / Math.max(maxDeltaLength, 4L * n + 1));
+		this.groups = (int)groups;
+		if (n == 0 || this.groups < 1) {
+			this.groups = 0;
+			return;
+		}
+
+		// The number of particles changes every time one is added, so the
+		// arrays are kept if they are big enough. However many particles
+		// there are, the keyframes and deltas never need more than their
+		// share of the budget, so they are allocated at that size.
+		long perParticle = 32L + 16L * (this.keyframeInterval - 1);
+		int keyframeLength = this.groups * 4 * n;
+		int deltaLength = this.groups * (this.keyframeInterval - 1) * 4 * n;
+		int timeLength = this.groups * this.keyframeInterval;
+		if (this.keyframes == null || this.keyframes.length < keyframeLength) {
+			long share = this.budget * 4 / perParticle;
+			this.keyframes = new double[(int)Math.min(Math.max(share, keyframeLength), Integer.MAX_VALUE - 8)];
+		}
+		if (this.deltas == null || this.deltas.length < deltaLength) {
+			long share = this.budget * 4 * (this.keyframeInterval - 1) / perParticle;
+			this.deltas = new float[(int)Math.min(Math.max(share, deltaLength), Integer.MAX_VALUE - 8)];
+		}
+		if (this.times == null || this.times.length < timeLength) {
+			this.times = new double[timeLength];
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package physics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for one step of an InstrumentedSolver.
+ * The duration of the event is the length of the step, and the
+ * fields break it down the same way SimulationMetrics does.
+ */
+@Name("physics.Step")
+@Label("Simulation Step")
+@Category("Physics")
+@Description("One call to NumericalSolver.step()")
+class StepEvent extends jdk.jfr.Event {
+	@Label("Solver")
+	String solver;
+
+	@Label("Particles")
+	int particles;
+
+	@Label("Forces")
+	int forces;
+
+	@Label("Clear Forces")
+	@Timespan(Timespan.NANOSECONDS)
+	long clearForces;
+
+	@Label("Compute Forces")
+	@Timespan(Timespan.NANOSECONDS)
+	long computeForces;
+
+	@Label("State Copies")
+	@Timespan(Timespan.NANOSECONDS)
+	long stateCopies;
+
+	@Label("Derivative Evaluations")
+	long derivativeEvaluations;
+}
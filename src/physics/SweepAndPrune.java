@@ -0,0 +1,429 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * A broad phase that finds the pairs of particles whose bounding boxes
+ * overlap. The box of each particle is the AABB around its circle. Space
+ * is cut into horizontal strips a few boxes high, and the boxes are kept
+ * in one list sorted by the strip their top edge is in and then by their
+ * left edge. To find the pairs, each strip is swept from left to right,
+ * and each box is only compared with the boxes in its own strip and the
+ * strip below it that start before it ends. Sweeping a single list along
+ * x would compare each box with every box in the same column of the
+ * world, which for a lot of particles is most of the work.
+ *
+ * The list is kept from one update to the next. Particles don't move
+ * far in a step, so the list is nearly sorted already and an insertion
+ * sort puts it back in order in close to O(N) time. If the particles
+ * have been moved around so much that the insertion sort would take too
+ * long, the list is sorted from scratch instead.
+ *
+ * Particles are referred to by their index in the store. Particles with
+ * a radius of 0 never overlap anything.
+ */
+public class SweepAndPrune {
+	// How many moves per box the insertion sort can make before giving up
+	private static final int MAX_MOVES_PER_BOX = 16;
+	// The height of a strip, in boxes
+	private static final double STRIP_BOXES = 4;
+	// The strip empty boxes are put in, which sorts after every other strip
+	private static final int EMPTY = Integer.MAX_VALUE;
+
+	// The boxes, sorted by strip and then by minX. The particle box k belongs to is id[k].
+	private int[] id;
+	private int[] strip;
+	private double[] minX;
+	private double[] minY;
+	private double[] maxX;
+	private double[] maxY;
+	private int size;
+
+	// The order the boxes go in after a full sort, and the arrays they are
+	// gathered into, which are swapped with the ones above afterwards
+	private int[] order;
+	private int[] spareId;
+	private int[] spareStrip;
+	private double[] spareMinX;
+	private double[] spareMinY;
+	private double[] spareMaxX;
+	private double[] spareMaxY;
+
+	// The height of a strip, and the widest box as of the last update
+	private double stripHeight;
+	private double maxWidth;
+
+	/**
+	 * Create an empty broad phase.
+	 */
+	public SweepAndPrune() {
+		this.id = new int[0];
+		this.strip = new int[0];
+		this.minX = new double[0];
+		this.minY = new double[0];
+		this.maxX = new double[0];
+		this.maxY = new double[0];
+		this.order = new int[0];
+		this.size = 0;
+		this.stripHeight = 0;
+	}
+
+	/**
+	 * Get the number of boxes in the list.
+	 *
+	 * @return the number of particles the last update was for
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Update the boxes from the current positions and radii of the
+	 * particles in a store and sort them again. Particles added since the
+	 * last update are added to the end of the list, and boxes of particles
+	 * that are gone are dropped; a particle that was moved to another index
+	 * is handled like any other particle that moved.
+	 *
+	 * @param store the store holding the particles
+	 */
+	public void update(ParticleStore store) {
+		int n = store.size();
+		this.resize(n);
+
+		double[] x = store.getPositions();
+		double[] r = store.getRadii();
+		double maxR = 0;
+		for (int i = 0; i < n; i++) {
+			maxR = Math.max(maxR, r[i]);
+		}
+		this.maxWidth = 2 * maxR;
+		if (maxR == 0) {
+			// Every box is empty, so there is nothing to sort and the strips can stay as they are
+			Arrays.fill(this.strip, 0, n, EMPTY);
+			return;
+		}
+
+		// Strips have to be at least as high as the tallest box, so a box can
+		// only overlap boxes in its own strip and the strips next to it. Changing
+		// the height moves every box, so it is only changed when it has to be.
+		boolean restrip = this.maxWidth > this.stripHeight || this.maxWidth * STRIP_BOXES * 4 < this.stripHeight;
+		if (restrip) {
+			this.stripHeight = this.maxWidth * STRIP_BOXES;
+		}
+		double invStripHeight = 1 / this.stripHeight;
+
+		for (int k = 0; k < n; k++) {
+			int i = this.id[k];
+			double ri = r[i];
+			if (ri > 0) {
+				this.minX[k] = x[2 * i] - ri;
+				this.maxX[k] = x[2 * i] + ri;
+				this.minY[k] = x[2 * i + 1] - ri;
+				this.maxY[k] = x[2 * i + 1] + ri;
+				this.strip[k] = Math.min((int)Math.floor(this.minY[k] * invStripHeight), EMPTY - 1);
+			} else {
+				// An empty box, which ends before it starts
+				this.minX[k] = x[2 * i];
+				this.maxX[k] = Double.NEGATIVE_INFINITY;
+				this.minY[k] = x[2 * i + 1];
+				this.maxY[k] = Double.NEGATIVE_INFINITY;
+				this.strip[k] = EMPTY;
+			}
+		}
+
+		if (restrip || !this.insertionSort((long)MAX_MOVES_PER_BOX * n)) {
+			this.fullSort();
+		}
+	}
+
+	/**
+	 * Find every pair of particles whose boxes overlap, as of the
+	 * last update.
+	 *
+	 * @param visitor what to tell about each pair
+	 */
+	public void findPairs(SpatialHash.PairVisitor visitor) {
+		int[] strip = this.strip;
+		double[] minX = this.minX;
+		int n = this.size;
+
+		// The start and end of the strip below the one being swept, and
+		// the first box in it that can still overlap the box being swept
+		int below = 0;
+		int belowEnd = 0;
+		int q = 0;
+		for (int k = 0; k < n; k++) {
+			int s = strip[k];
+			if (s == EMPTY) {
+				break;
+			}
+			if (k == 0 || s != strip[k - 1]) {
+				// A new strip, so find the strip below it
+				below = k;
+				while (below < n && strip[below] == s) {
+					below++;
+				}
+				belowEnd = below;
+				if (below < n && strip[below] == s + 1) {
+					while (belowEnd < n && strip[belowEnd] == s + 1) {
+						belowEnd++;
+					}
+				}
+				q = below;
+			}
+
+			double right = this.maxX[k];
+			for (int j = k + 1; j < n && strip[j] == s && minX[j] <= right; j++) {
+				this.test(k, j, visitor);
+			}
+
+			// Boxes in the strip below that start before this one can still overlap it
+			double left = minX[k] - this.maxWidth;
+			while (q < belowEnd && minX[q] < left) {
+				q++;
+			}
+			for (int j = q; j < belowEnd && minX[j] <= right; j++) {
+				this.test(k, j, visitor);
+			}
+		}
+	}
+
+	/**
+	 * Tell a visitor about two boxes if they overlap.
+	 *
+	 * @param k the position of the first box in the list
+	 * @param j the position of the second box in the list
+	 * @param visitor what to tell about the pair
+	 */
+	private void test(int k, int j, SpatialHash.PairVisitor visitor) {
+		if (AABB.overlaps(this.minX[k], this.minY[k], this.maxX[k], this.maxY[k], this.minX[j], this.minY[j],
+				this.maxX[j], this.maxY[j])) {
+			int a = this.id[k];
+			int b = this.id[j];
+			if (a < b) {
+				visitor.visit(a, b);
+			} else {
+				visitor.visit(b, a);
+			}
+		}
+	}
+
+	/**
+	 * Make the list hold the particles 0 to n - 1.
+	 *
+	 * @param n the number of particles
+	 */
+	private void resize(int n) {
+		if (n < this.size) {
+			// Drop the particles that are gone, keeping the rest in order
+			int kept = 0;
+			for (int k = 0; k < this.size; k++) {
+				if (this.id[k] < n) {
+					this.id[kept++] = this.id[k];
+				}
+			}
+		} else if (n > this.size) {
+			if (n > this.id.length) {
+				int capacity = Math.max(n, 2 * this.id.length);
+				this.id = Arrays.copyOf(this.id, capacity);
+				this.strip = Arrays.copyOf(this.strip, capacity);
+				this.minX = Arrays.copyOf(this.minX, capacity);
+				this.minY = Arrays.copyOf(this.minY, capacity);
+				this.maxX = Arrays.copyOf(this.maxX, capacity);
+				this.maxY = Arrays.copyOf(this.maxY, capacity);
+			}
+			for (int i = this.size; i < n; i++) {
+				this.id[i] = i;
+			}
+		}
+		this.size = n;
+	}
+
+	/**
+	 * Sort the boxes by strip and minX with an insertion sort,
+	 * giving up if it takes too many moves.
+	 *
+	 * @param maxMoves the most moves to make
+	 * @return true if the boxes are sorted, false if the sort gave up
+	 */
+	private boolean insertionSort(long maxMoves) {
+		int[] id = this.id;
+		int[] strip = this.strip;
+		double[] minX = this.minX;
+		double[] minY = this.minY;
+		double[] maxX = this.maxX;
+		double[] maxY = this.maxY;
+		long moves = 0;
+		for (int k = 1; k < this.size; k++) {
+			int boxStrip = strip[k];
+			double key = minX[k];
+			if (strip[k - 1] < boxStrip || (strip[k - 1] == boxStrip && minX[k - 1] <= key)) {
+				continue;
+			}
+
+			int boxId = id[k];
+			double boxMinY = minY[k];
+			double boxMaxX = maxX[k];
+			double boxMaxY = maxY[k];
+			int j = k - 1;
+			while (j >= 0 && (strip[j] > boxStrip || (strip[j] == boxStrip && minX[j] > key))) {
+				id[j + 1] = id[j];
+				strip[j + 1] = strip[j];
+				minX[j + 1] = minX[j];
+				minY[j + 1] = minY[j];
+				maxX[j + 1] = maxX[j];
+				maxY[j + 1] = maxY[j];
+				j--;
+			}
+			id[j + 1] = boxId;
+			strip[j + 1] = boxStrip;
+			minX[j + 1] = key;
+			minY[j + 1] = boxMinY;
+			maxX[j + 1] = boxMaxX;
+			maxY[j + 1] = boxMaxY;
+
+			moves += k - 1 - j;
+			if (moves > maxMoves) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sort the boxes by strip and minX from scratch.
+	 */
+	private void fullSort() {
+		int n = this.size;
+		int capacity = this.id.length;
+		if (this.order.length != capacity) {
+			this.order = new int[capacity];
+			this.spareId = new int[capacity];
+			this.spareStrip = new int[capacity];
+			this.spareMinX = new double[capacity];
+			this.spareMinY = new double[capacity];
+			this.spareMaxX = new double[capacity];
+			this.spareMaxY = new double[capacity];
+		}
+
+		// Sort the positions in the list, then gather the boxes in that order
+		int[] order = this.order;
+		for (int k = 0; k < n; k++) {
+			order[k] = k;
+		}
+		this.sortOrder(order, 0, n - 1);
+
+		int[] sortedId = this.spareId;
+		int[] sortedStrip = this.spareStrip;
+		double[] sortedMinX = this.spareMinX;
+		double[] sortedMinY = this.spareMinY;
+		double[] sortedMaxX = this.spareMaxX;
+		double[] sortedMaxY = this.spareMaxY;
+		for (int k = 0; k < n; k++) {
+			int from = order[k];
+			sortedId[k] = this.id[from];
+			sortedStrip[k] = this.strip[from];
+			sortedMinX[k] = this.minX[from];
+			sortedMinY[k] = this.minY[from];
+			sortedMaxX[k] = this.maxX[from];
+			sortedMaxY[k] = this.maxY[from];
+		}
+
+		this.spareId = this.id;
+		this.spareStrip = this.strip;
+		this.spareMinX = this.minX;
+		this.spareMinY = this.minY;
+		this.spareMaxX = this.maxX;
+		this.spareMaxY = this.maxY;
+		this.id = sortedId;
+		this.strip = sortedStrip;
+		this.minX = sortedMinX;
+		this.minY = sortedMinY;
+		this.maxX = sortedMaxX;
+		this.maxY = sortedMaxY;
+	}
+
+	/**
+	 * Sort positions in the list by the strip and minX of their
+	 * boxes with a quicksort, finishing small ranges with an
+	 * insertion sort.
+	 *
+	 * @param order the positions to sort
+	 * @param lo the first position in the range to sort
+	 * @param hi the last position in the range to sort
+	 */
+	private void sortOrder(int[] order, int lo, int hi) {
+		while (hi - lo > 16) {
+			// Partition around the median of the first, middle and last boxes
+			int mid = (lo + hi) >>> 1;
+			if (this.before(order[mid], order[lo])) {
+				swap(order, mid, lo);
+			}
+			if (this.before(order[hi], order[lo])) {
+				swap(order, hi, lo);
+			}
+			if (this.before(order[hi], order[mid])) {
+				swap(order, hi, mid);
+			}
+			int pivot = order[mid];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (this.before(order[i], pivot)) {
+					i++;
+				}
+				while (this.before(pivot, order[j])) {
+					j--;
+				}
+				if (i <= j) {
+					swap(order, i++, j--);
+				}
+			}
+
+			// Recurse into the smaller half, so the stack stays O(log N) deep
+			if (j - lo < hi - i) {
+				this.sortOrder(order, lo, j);
+				lo = i;
+			} else {
+				this.sortOrder(order, i, hi);
+				hi = j;
+			}
+		}
+
+		for (int k = lo + 1; k <= hi; k++) {
+			int box = order[k];
+			int j = k - 1;
+			while (j >= lo && this.before(box, order[j])) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = box;
+		}
+	}
+
+	/**
+	 * Check whether one box goes before another in the list.
+	 *
+	 * @param a the position of the first box
+	 * @param b the position of the second box
+	 * @return true if a has a lower strip, or the same strip and a lower minX
+	 */
+	private boolean before(int a, int b) {
+		int sa = this.strip[a];
+		int sb = this.strip[b];
+		return sa < sb || (sa == sb && this.minX[a] < this.minX[b]);
+	}
+
+	/**
+	 * Swap two entries of an array.
+	 *
+	 * @param order the array
+	 * @param i the first entry
+	 * @param j the second entry
+	 */
+	private static void swap(int[] order, int i, int j) {
+		int tmp = order[i];
+		order[i] = order[j];
+		order[j] = tmp;
+	}
+}
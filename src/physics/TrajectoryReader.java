@@ -0,0 +1,195 @@
+package physics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the segment files written by a TrajectoryRecorder. The
+ * segments are memory-mapped and scanned once when the reader is
+ * opened to find where every frame starts, after which any frame can
+ * be read directly without reading the ones before it.
+ */
+public class TrajectoryReader {
+	private List<ByteBuffer> segments;
+
+	// Where each frame is: the segment it's in and its offset in the segment
+	private int[] frameSegment;
+	private int[] frameOffset;
+	private int frameCount;
+
+	/**
+	 * Open a recording.
+	 *
+	 * @param base the path the recorder was given
+	 * @throws IOException if the segments can't be read or aren't valid
+	 */
+	public TrajectoryReader(Path base) throws IOException {
+		this.segments = new ArrayList<>();
+		this.frameSegment = new int[64];
+		this.frameOffset = new int[64];
+
+		String name = base.toString();
+		for (int s = 0; ; s++) {
+			Path path = TrajectoryRecorder.segmentPath(name, s);
+			if (!Files.exists(path)) {
+				break;
+			}
+
+			ByteBuffer segment;
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			if (segment.capacity() < TrajectoryRecorder.SEGMENT_HEADER
+					|| segment.getInt(0) != TrajectoryRecorder.MAGIC
+					|| segment.getInt(4) != TrajectoryRecorder.VERSION
+					|| segment.getInt(8) != s) {
+				throw new IOException(path + " isn't a trajectory segment");
+			}
+			this.segments.add(segment);
+			this.index(s, segment);
+		}
+	}
+
+	/**
+	 * Find the frames in a segment.
+	 *
+	 * @param s the number of the segment
+	 * @param segment the contents of the segment
+	 */
+	private void index(int s, ByteBuffer segment) {
+		int offset = TrajectoryRecorder.SEGMENT_HEADER;
+		while (offset + TrajectoryRecorder.FRAME_HEADER <= segment.capacity()) {
+			int length = segment.getInt(offset);
+			if (length <= 0 || offset + length > segment.capacity()) {
+				break;
+			}
+
+			if (this.frameCount == this.frameOffset.length) {
+				this.frameSegment = Arrays.copyOf(this.frameSegment, 2 * this.frameCount);
+				this.frameOffset = Arrays.copyOf(this.frameOffset, 2 * this.frameCount);
+			}
+			this.frameSegment[this.frameCount] = s;
+			this.frameOffset[this.frameCount] = offset;
+			this.frameCount++;
+			offset += length;
+		}
+	}
+
+	/**
+	 * Get the number of frames in the recording.
+	 *
+	 * @return the number of frames
+	 */
+	public int getFrameCount() {
+		return this.frameCount;
+	}
+
+	/**
+	 * Get the number of particles in a frame.
+	 *
+	 * @param frame the index of the frame
+	 * @return the number of particles
+	 */
+	public int getParticleCount(int frame) {
+		return this.segment(frame).getInt(this.frameOffset[frame] + 4);
+	}
+
+	/**
+	 * Get the number of the step a frame was recorded at, counting
+	 * every call to TrajectoryRecorder.record() from 0.
+	 *
+	 * @param frame the index of the frame
+	 * @return the step of the frame
+	 */
+	public long getStep(int frame) {
+		return this.segment(frame).getLong(this.frameOffset[frame] + 8);
+	}
+
+	/**
+	 * Get the system clock when a frame was recorded.
+	 *
+	 * @param frame the index of the frame
+	 * @return the simulated time of the frame
+	 */
+	public double getTime(int frame) {
+		return this.segment(frame).getDouble(this.frameOffset[frame] + 16);
+	}
+
+	/**
+	 * Find the first frame recorded at or after a time.
+	 *
+	 * @param t the simulated time
+	 * @return the index of the frame, or getFrameCount() if every frame is earlier
+	 */
+	public int seek(double t) {
+		int lo = 0;
+		int hi = this.frameCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.getTime(mid) < t) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Read the positions and velocities of a frame. Either
+	 * array may be null if it isn't wanted.
+	 *
+	 * @param frame the index of the frame
+	 * @param x an array of at least 2 * getParticleCount(frame) doubles for the interleaved positions
+	 * @param v an array of at least 2 * getParticleCount(frame) doubles for the interleaved velocities
+	 */
+	public void readFrame(int frame, double[] x, double[] v) {
+		int n = this.getParticleCount(frame);
+		ByteBuffer segment = this.segment(frame).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		segment.position(this.frameOffset[frame] + TrajectoryRecorder.FRAME_HEADER);
+		DoubleBuffer data = segment.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		if (x != null) {
+			data.get(x, 0, 2 * n);
+		} else {
+			data.position(2 * n);
+		}
+		if (v != null) {
+			data.get(v, 0, 2 * n);
+		}
+	}
+
+	/**
+	 * Get the position of one particle in a frame.
+	 *
+	 * @param frame the index of the frame
+	 * @param i the index of the particle in the system when the frame was recorded
+	 * @return the position of the particle
+	 */
+	public Vec2 getPosition(int frame, int i) {
+		ByteBuffer segment = this.segment(frame);
+		int p = this.frameOffset[frame] + TrajectoryRecorder.FRAME_HEADER + 16 * i;
+		return new Vec2(segment.getDouble(p), segment.getDouble(p + 8));
+	}
+
+	/**
+	 * Get the segment a frame is in.
+	 *
+	 * @param frame the index of the frame
+	 * @return the segment
+	 */
+	private ByteBuffer segment(int frame) {
+		if (frame < 0 || frame >= this.frameCount) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + this.frameCount);
+		}
+		return this.segments.get(this.frameSegment[frame]);
+	}
+}
@@ -0,0 +1,356 @@
+package physics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the positions and velocities of every particle in a system
+ * to disk as it runs, for analysing long runs afterwards.
+ *
+ * Calling record() after a step copies the state of the system into a
+ * ring buffer allocated off the heap, which is all the stepping thread
+ * has to do. A background thread takes the frames out of the ring and
+ * appends them to a series of memory-mapped segment files named
+ * base.00000, base.00001 and so on. If the writer falls behind and the
+ * ring fills up, record() either waits for room or drops the frame and
+ * counts it, depending on setBlocking(). Only every k-th call to
+ * record() is kept when the decimation is k.
+ *
+ * A frame is laid out the same way in the ring and in the files, in
+ * little-endian order:
+ * <pre>
+ * int length, int n, long step, double t, double[2n] x, double[2n] v
+ * </pre>
+ * where x and v are interleaved like in a ParticleStore. Each segment
+ * starts with a SEGMENT_HEADER byte header and ends at the first frame
+ * with a length of 0. Use a TrajectoryReader to read the files back.
+ */
+public class TrajectoryRecorder {
+	static final int MAGIC = 0x32445452; // "2DTR"
+	static final int VERSION = 1;
+	static final int SEGMENT_HEADER = 32;
+	static final int FRAME_HEADER = 24;
+
+	private static final int DEFAULT_RING_CAPACITY = 16 << 20;
+	private static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+	// Marks the rest of the ring as unused so the next frame starts at 0
+	private static final int WRAP = -1;
+
+	private String base;
+	private int decimation;
+	private long segmentSize;
+	private volatile boolean blocking;
+
+	// The ring, and the total number of bytes ever written to and read from it
+	private ByteBuffer ring;
+	private int capacity;
+	private AtomicLong writePosition;
+	private AtomicLong readPosition;
+
+	private long calls;
+	private long recordedFrames;
+	private AtomicLong droppedFrames;
+
+	private Thread writer;
+	private volatile boolean closed;
+	private volatile IOException failure;
+
+	// The segment the writer is filling
+	private FileChannel segmentChannel;
+	private MappedByteBuffer segment;
+	private int segmentIndex;
+	private long writtenFrames;
+
+	/**
+	 * Create a recorder with a 16 MB ring and 64 MB segments that
+	 * records every step.
+	 *
+	 * @param base the path the segment files are named after
+	 */
+	public TrajectoryRecorder(Path base) {
+		this(base, 1, DEFAULT_RING_CAPACITY, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Create a recorder. The writer thread is started right away.
+	 *
+	 * @param base the path the segment files are named after
+	 * @param decimation record every decimation-th call to record()
+	 * @param ringCapacity the size of the ring, in bytes; it has to hold at least two frames
+	 * @param segmentSize the size of each segment file, in bytes
+	 */
+	public TrajectoryRecorder(Path base, int decimation, int ringCapacity, long segmentSize) {
+		this.base = base.toString();
+		this.decimation = Math.max(decimation, 1);
+		this.segmentSize = segmentSize;
+		this.blocking = true;
+
+		this.capacity = ringCapacity & ~7;
+		this.ring = ByteBuffer.allocateDirect(this.capacity).order(ByteOrder.LITTLE_ENDIAN);
+		this.writePosition = new AtomicLong();
+		this.readPosition = new AtomicLong();
+		this.droppedFrames = new AtomicLong();
+		this.segmentIndex = -1;
+
+		this.writer = new Thread(this::drain, "trajectory writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Get the path of a segment file.
+	 *
+	 * @param base the path the segment files are named after
+	 * @param index the number of the segment
+	 * @return the path of the segment
+	 */
+	static Path segmentPath(String base, int index) {
+		return Paths.get(String.format("%s.%05d", base, index));
+	}
+
+	/**
+	 * Get the number of bytes a frame of a number of particles takes
+	 * up in the ring. The ring has to be at least twice this big.
+	 *
+	 * @param n the number of particles
+	 * @return the size of the frame, in bytes
+	 */
+	public static long frameSize(int n) {
+		return FRAME_HEADER + 32L * n;
+	}
+
+	/**
+	 * Set what record() does when the ring is full.
+	 *
+	 * @param blocking if true, wait for the writer to make room; if false, drop the frame
+	 */
+	public void setBlocking(boolean blocking) {
+		this.blocking = blocking;
+	}
+
+	/**
+	 * Get the number of frames put in the ring.
+	 *
+	 * @return the number of frames recorded
+	 */
+	public long getRecordedFrames() {
+		return this.recordedFrames;
+	}
+
+	/**
+	 * Get the number of frames that were dropped because
+	 * the ring was full.
+	 *
+	 * @return the number of frames dropped
+	 */
+	public long getDroppedFrames() {
+		return this.droppedFrames.get();
+	}
+
+	/**
+	 * Record the current state of a system, if this call isn't
+	 * skipped by the decimation. This should be called by the thread
+	 * that steps the system, after each step.
+	 *
+	 * @param ps the system to record
+	 * @throws IllegalArgumentException if the ring isn't big enough for two frames of the system
+	 */
+	public void record(ParticleSystem ps) {
+		long call = this.calls++;
+		if (call % this.decimation != 0) {
+			return;
+		}
+		if (this.closed) {
+			throw new IllegalStateException("Recorder is closed");
+		}
+		this.checkFailure();
+
+		ParticleStore store = ps.getParticleStore();
+		int n = store.size();
+		// A frame that doesn't fit before the end of the ring is put at the
+		// start, leaving the end empty. A frame bigger than half the ring
+		// might not fit at the start either, even once the ring is empty.
+		long size = frameSize(n);
+		if (2 * size > this.capacity) {
+			throw new IllegalArgumentException("A frame of " + n + " particles needs a ring of at least " 
+					+ (2 * size) + " bytes, not " + this.capacity);
+		}
+		int length = (int)size;
+
+		// Find room for the frame, wrapping back to the start of the
+		// ring if it doesn't fit before the end
+		long w = this.writePosition.get();
+		int offset = (int)(w % this.capacity);
+		int padding = (offset + length > this.capacity) ? this.capacity - offset : 0;
+		while (w + padding + length - this.readPosition.get() > this.capacity) {
+			if (!this.blocking) {
+				this.droppedFrames.incrementAndGet();
+				return;
+			}
+			LockSupport.unpark(this.writer);
+			LockSupport.parkNanos(100_000);
+			this.checkFailure();
+		}
+		if (padding > 0) {
+			this.ring.putInt(offset, WRAP);
+			offset = 0;
+		}
+
+		ByteBuffer ring = this.ring;
+		ring.putInt(offset, length);
+		ring.putInt(offset + 4, n);
+		ring.putLong(offset + 8, call);
+		ring.putDouble(offset + 16, ps.getTime());
+		double[] x = store.getPositions();
+		double[] v = store.getVelocities();
+		int p = offset + FRAME_HEADER;
+		for (int i = 0; i < 2 * n; i++, p += 8) {
+			ring.putDouble(p, x[i]);
+		}
+		for (int i = 0; i < 2 * n; i++, p += 8) {
+			ring.putDouble(p, v[i]);
+		}
+
+		this.writePosition.set(w + padding + length);
+		this.recordedFrames++;
+		LockSupport.unpark(this.writer);
+	}
+
+	/**
+	 * Wait for every recorded frame to be written, then stop
+	 * the writer and close the segment files.
+	 *
+	 * @throws IOException if a frame couldn't be written
+	 */
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		LockSupport.unpark(this.writer);
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.failure != null) {
+			throw this.failure;
+		}
+	}
+
+	/**
+	 * Throw the error the writer ran into, if there was one.
+	 */
+	private void checkFailure() {
+		if (this.failure != null) {
+			throw new UncheckedIOException("Trajectory writer failed", this.failure);
+		}
+	}
+
+	/**
+	 * The body of the writer thread, which moves frames from
+	 * the ring to the segment files until the recorder is closed.
+	 */
+	private void drain() {
+		try {
+			while (true) {
+				long r = this.readPosition.get();
+				if (r == this.writePosition.get()) {
+					if (this.closed && r == this.writePosition.get()) {
+						break;
+					}
+					LockSupport.parkNanos(10_000_000);
+					continue;
+				}
+
+				int offset = (int)(r % this.capacity);
+				int length = this.ring.getInt(offset);
+				if (length == WRAP) {
+					this.readPosition.set(r + this.capacity - offset);
+					continue;
+				}
+
+				this.writeFrame(offset, length);
+				this.readPosition.set(r + length);
+			}
+			this.closeSegment();
+		} catch (IOException e) {
+			this.failure = e;
+		}
+	}
+
+	/**
+	 * Copy a frame from the ring to the current segment, starting
+	 * a new segment if it doesn't fit.
+	 *
+	 * @param offset the offset of the frame in the ring
+	 * @param length the length of the frame
+	 * @throws IOException if a segment can't be created
+	 */
+	private void writeFrame(int offset, int length) throws IOException {
+		// Leave room for the 0 that ends the segment
+		if (this.segment == null || this.segment.remaining() < length + 4) {
+			this.openSegment(length);
+		}
+
+		ByteBuffer frame = this.ring.duplicate();
+		frame.limit(offset + length).position(offset);
+		this.segment.put(frame);
+		this.writtenFrames++;
+	}
+
+	/**
+	 * Close the current segment and map the next one.
+	 *
+	 * @param minimum the length of the frame that has to fit in the new segment
+	 * @throws IOException if the segment can't be created
+	 */
+	private void openSegment(int minimum) throws IOException {
+		this.closeSegment();
+
+		this.segmentIndex++;
+		if (this.segmentIndex == 0) {
+			// Get rid of segments left over from an older, longer recording
+			for (int i = 1; Files.deleteIfExists(segmentPath(this.base, i)); i++) {
+			}
+		}
+		long size = Math.max(this.segmentSize, SEGMENT_HEADER + minimum + 4);
+		this.segmentChannel = FileChannel.open(segmentPath(this.base, this.segmentIndex), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.segment = this.segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		this.segment.order(ByteOrder.LITTLE_ENDIAN);
+		this.segment.putInt(MAGIC);
+		this.segment.putInt(VERSION);
+		this.segment.putInt(this.segmentIndex);
+		this.segment.putInt(0);
+		this.segment.putLong(this.writtenFrames);
+		this.segment.putLong(0);
+	}
+
+	/**
+	 * Flush the current segment to disk and close it.
+	 *
+	 * @throws IOException if the segment can't be flushed
+	 */
+	private void closeSegment() throws IOException {
+		if (this.segment == null) {
+			return;
+		}
+
+		// The mapping starts out zeroed, so the frame after the last one already has a length of 0
+		this.segment.force();
+		this.segmentChannel.close();
+		this.segment = null;
+		this.segmentChannel = null;
+	}
+}
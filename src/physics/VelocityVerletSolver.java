@@ -0,0 +1,87 @@
+package physics;
+
+/**
+ * Solver that implements the velocity Verlet method. It is
+ * symplectic, so the energy of a conservative system (springs,
+ * gravity) oscillates around the right value instead of drifting
+ * away like it does with RK4, and it only needs one force evaluation
+ * per step. The accelerations at the end of a step are kept and used
+ * at the start of the next one.
+ *
+ * The saved accelerations are worked out again whenever particles or
+ * forces are added or removed, or the version of the particle store
+ * changes. Going through the setters of particles and forces changes
+ * it, and so do collisions that move particles at the end of a step.
+ *
+ * The method assumes that the forces only depend on the positions of
+ * the particles.
+ */
+public class VelocityVerletSolver implements NumericalSolver {
+	// The accelerations of the particles at the start of the next step
+	private double[] a;
+	
+	// The system, modification count and store version the accelerations were calculated for
+	private ParticleSystem cachedSystem;
+	private int cachedModCount;
+	private int cachedVersion;
+	
+	@Override
+	public void step(ParticleSystem ps, double dt) {
+		int n = ps.getStateLength() / 2;
+		if (!this.isCacheValid(ps, n)) {
+			if (this.a == null || this.a.length != n) {
+				this.a = new double[n];
+			}
+			ps.calculateAccelerations(this.a);
+		}
+		
+		double[] x = ps.getParticleStore().getPositions();
+		double[] v = ps.getParticleStore().getVelocities();
+		double[] a = this.a;
+		
+		// Move the particles using their current velocities and accelerations,
+		// and give the velocities the first half of the acceleration
+		for (int i = 0; i < n; i++) {
+			x[i] += dt * (v[i] + 0.5 * dt * a[i]);
+			v[i] += 0.5 * dt * a[i];
+		}
+		
+		// The accelerations at the new positions give the second half
+		ps.calculateAccelerations(a);
+		for (int i = 0; i < n; i++) {
+			v[i] += 0.5 * dt * a[i];
+		}
+		
+		// Collisions resolved by updateClock() change the version if they move anything
+		this.cachedSystem = ps;
+		this.cachedModCount = ps.getModificationCount();
+		this.cachedVersion = ps.getParticleStore().getVersion();
+		ps.updateClock(dt);
+	}
+	
+	/**
+	 * Throw away the accelerations saved from the last step. Call
+	 * this if the positions of the particles or the forces acting
+	 * on them were changed from outside the solver without going
+	 * through their setters or ParticleStore.markChanged().
+	 */
+	public void reset() {
+		this.cachedSystem = null;
+	}
+	
+	/**
+	 * Check whether the saved accelerations still belong to
+	 * the system being solved.
+	 * 
+	 * @param ps the system being solved
+	 * @param n the number of acceleration components in the system
+	 * @return true if the saved accelerations can be used
+	 */
+	private boolean isCacheValid(ParticleSystem ps, int n) {
+		return this.cachedSystem == ps 
+				&& this.cachedModCount == ps.getModificationCount()
+				&& this.cachedVersion == ps.getParticleStore().getVersion()
+				&& this.a != null
+				&& this.a.length == n;
+	}
+}
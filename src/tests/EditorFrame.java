@@ -27,6 +27,8 @@ public class EditorFrame extends JInternalFrame {
 	
 	JButton pausePlayButton;
 	JButton stepButton;
+	JButton saveButton;
+	JButton loadButton;
 	JButton quitButton;
 	
 	JRadioButton inspectButton;
@@ -65,21 +67,34 @@ public class EditorFrame extends JInternalFrame {
 		
 		this.pausePlayButton = new JButton(" Play");
 		this.stepButton = new JButton("Step");
+		this.saveButton = new JButton("Save");
+		this.loadButton = new JButton("Load");
 		this.quitButton = new JButton("Quit");
 		
 		this.pausePlayButton.setIgnoreRepaint(true);
 		this.stepButton.setIgnoreRepaint(true);
+		this.saveButton.setIgnoreRepaint(true);
+		this.loadButton.setIgnoreRepaint(true);
 		this.quitButton.setIgnoreRepaint(true);
 		
 		this.pausePlayButton.setFocusable(false);
 		this.stepButton.setFocusable(false);
+		this.saveButton.setFocusable(false);
+		this.loadButton.setFocusable(false);
 		this.quitButton.setFocusable(false);
 		
+		this.saveButton.setToolTipText("Save the scene to " + se.getScenePath());
+		this.loadButton.setToolTipText("Load the scene from " + se.getScenePath());
+		
 		this.pausePlayButton.addActionListener(e -> this.pause());
+		this.saveButton.addActionListener(e -> this.se.requestSave());
+		this.loadButton.addActionListener(e -> this.se.requestLoad());
 		this.quitButton.addActionListener(e -> this.quit());
 		
 		controlPanel.add(this.pausePlayButton);
 		controlPanel.add(this.stepButton);
+		controlPanel.add(this.saveButton);
+		controlPanel.add(this.loadButton);
 		controlPanel.add(this.quitButton);
 		
 		editorPanel.add(controlPanel);
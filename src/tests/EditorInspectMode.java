@@ -3,6 +3,8 @@ package tests;
 import java.awt.Graphics2D;
 import java.awt.event.MouseEvent;
 
+import physics.Vec2;
+
 public class EditorInspectMode implements EditorMode {
 	private SimulationEditor se;
 	
@@ -12,8 +14,10 @@ public class EditorInspectMode implements EditorMode {
 	
 	@Override
 	public void mousePressed(int mask) {
-		if (this.se.getSelectedObject() != null) {
-			this.se.getSelectedObject().setPosition(this.se.getMousePosition());
+		SimObject o = this.se.getSelectedObject();
+		if (o != null) {
+			Vec2 mouse = this.se.getMousePosition();
+			this.se.invokeLater(() -> o.setPosition(mouse));
 		}
 	}
 	
@@ -3,11 +3,19 @@ package tests;
 import graphics.InputManager;
 
 import java.awt.Graphics2D;
+import java.util.List;
+
+import physics.AABB;
+import physics.Vec2;
 
 public class EditorRemoveMode implements EditorMode {
 	private SimulationEditor se;
 	private EditorFrame ef;
 	
+	// Where the mouse was pressed if a rectangle is being dragged
+	// out to remove everything in it, or null if one isn't
+	private Vec2 dragStart;
+	
 	public EditorRemoveMode(SimulationEditor se, EditorFrame ef) {
 		this.se = se;
 		this.ef = ef;
@@ -20,7 +28,13 @@ public class EditorRemoveMode implements EditorMode {
 	
 	@Override
 	public void mouseReleased(int mask) {
-		
+		if (this.dragStart != null) {
+			List<SimObject> objects = this.se.getSimObjects(this.getDragBox());
+			for (int i = 0; i < objects.size(); i++) {
+				this.se.removeSimObject(objects.get(i));
+			}
+			this.dragStart = null;
+		}
 	}
 	
 	@Override
@@ -29,6 +43,9 @@ public class EditorRemoveMode implements EditorMode {
 			SimObject o = this.se.getSelectedObject();
 			if (o != null) {
 				this.se.removeSimObject(o);
+			} else {
+				// Clicking on nothing starts a rectangle
+				this.dragStart = this.se.getMousePosition();
 			}
 		}
 	}
@@ -46,6 +63,25 @@ public class EditorRemoveMode implements EditorMode {
 			mouseOverObject.drawHighlighted(g, this.se.getMousePosition());
 		}
 		
+		if (this.dragStart != null) {
+			AABB box = this.getDragBox();
+			g.drawRect((int)box.a.getX(), (int)box.a.getY(), (int)box.getWidth(), (int)box.getHeight());
+		}
+	}
+	
+	/**
+	 * Get the rectangle between where the mouse was pressed
+	 * and where it is now.
+	 * 
+	 * @return the rectangle being dragged out
+	 */
+	private AABB getDragBox() {
+		Vec2 mouse = this.se.getMousePosition();
+		return new AABB(
+				Math.min(this.dragStart.getX(), mouse.getX()),
+				Math.min(this.dragStart.getY(), mouse.getY()),
+				Math.max(this.dragStart.getX(), mouse.getX()),
+				Math.max(this.dragStart.getY(), mouse.getY()));
 	}
 	
 	@Override
@@ -55,6 +91,6 @@ public class EditorRemoveMode implements EditorMode {
 	
 	@Override
 	public void exit() {
-		
+		this.dragStart = null;
 	}
 }
@@ -6,6 +6,7 @@ import java.awt.event.MouseEvent;
 
 import physics.Particle;
 import physics.PivotedSpring;
+import physics.Vec2;
 
 public class EditorUnpausedMode implements EditorMode {
 	private SimulationEditor se;
@@ -23,8 +24,8 @@ public class EditorUnpausedMode implements EditorMode {
 	public void mousePressed(int mask) {
 		if (this.mouseSpring != null) {
 			PivotedSpring s = (PivotedSpring)this.mouseSpring.getPhysicsObject();
-			s.getPivot().setX(this.se.getMousePosition().getX());
-			s.getPivot().setY(this.se.getMousePosition().getY());
+			Vec2 mouse = this.se.getMousePosition();
+			this.se.invokeLater(() -> s.setPivot(mouse.getX(), mouse.getY()));
 		}
 	}
 	
@@ -5,6 +5,7 @@ import java.awt.Graphics2D;
 
 
 import physics.Vec2;
+import physics.AABB;
 import physics.Spring;
 import physics.Particle;
 import physics.PivotedSpring;
@@ -128,6 +129,25 @@ public class GraphicsUtils {
 		return points;
     }
     
+    /**
+     * Get the box around a spring as it is drawn. The spring is drawn
+     * as a zigzag that sticks out to the sides of the line between its
+     * ends, so the box reaches that far past the ends too.
+     * 
+     * @param a one of the end points of the spring
+     * @param b the other end point of the spring
+     * @param k the spring constant of the spring
+     * @return the box around the spring
+     */
+    public static AABB getSpringAABB(Vec2 a, Vec2 b, double k) {
+    	double pad = 0.5 * SPRING_CONSTANT / k;
+    	return new AABB(
+    			Math.min(a.getX(), b.getX()) - pad,
+    			Math.min(a.getY(), b.getY()) - pad,
+    			Math.max(a.getX(), b.getX()) + pad,
+    			Math.max(a.getY(), b.getY()) + pad);
+    }
+    
     /**
      * Check if a point is inside a rectangle.
      * 
@@ -0,0 +1,609 @@
+package tests;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import physics.*;
+
+/**
+ * Runs a simulation without a window, for batch runs on machines
+ * that don't have a display. Unlike the other tests this doesn't
+ * extend GameCore, and nothing in it touches AWT or Swing, so it
+ * starts right away even on a headless JVM.
+ *
+ * The runner builds one of the preset scenes, steps it with the
+ * chosen solver as fast as it can (or at a fixed ratio of simulated
+ * time to real time) and writes a line of metrics every few steps
+ * as CSV.
+ *
+ * Usage: java tests.HeadlessRunner [--scene chain|cloth|orbit|triangle|gas|file]
+ * [--solver euler|midpoint|rk4|verlet|leapfrog|dopri|implicit]
+ * [--steps N] [--dt seconds] [--rate ratio] [--every N] [--out file.csv]
+ * [--metrics name] [--checkpoint file] [--resume file]
+ * [--record base] [--decimate k] [--export file]
+ *
+ * The solver is RK4 unless --solver is given, except for the cloth,
+ * whose springs are too stiff for the explicit solvers at the default
+ * time step, so it is stepped with the implicit solver instead.
+ *
+ * --scene also takes the path of a scene file written by a SceneWriter
+ * or the SimulationEditor. --export writes the scene the run starts
+ * from to a file, in the binary form if the name ends in .bin and in
+ * the text form otherwise.
+ *
+ * With --checkpoint the state of the run is saved to a file every time
+ * a line of metrics is written. --resume picks a run back up from a
+ * checkpoint instead of building a scene; the run continues with the
+ * solver it was using unless --solver is given, and stops once it
+ * reaches the total number of steps.
+ *
+ * With --metrics the solver is wrapped in an InstrumentedSolver, the
+ * metrics are registered over JMX under the given name while the run
+ * goes, and a breakdown of the step time is printed at the end.
+ *
+ * With --record the positions and velocities of every k-th step are
+ * streamed to the segment files base.00000, base.00001 and so on by a
+ * TrajectoryRecorder, where k is given by --decimate.
+ */
+public class HeadlessRunner {
+	public static void main(String[] args) throws IOException {
+		HeadlessRunner runner = new HeadlessRunner();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (i + 1 >= args.length) {
+				usage("missing value for " + arg);
+			}
+			String value = args[++i];
+			switch (arg) {
+			case "--scene":
+				runner.setScene(value);
+				break;
+			case "--solver":
+				runner.setSolver(value);
+				break;
+			case "--steps":
+				runner.setSteps(Long.parseLong(value));
+				break;
+			case "--dt":
+				runner.setStepSize(Double.parseDouble(value));
+				break;
+			case "--rate":
+				runner.setRate(Double.parseDouble(value));
+				break;
+			case "--every":
+				runner.setSampleInterval(Integer.parseInt(value));
+				break;
+			case "--out":
+				runner.setOutput(value);
+				break;
+			case "--metrics":
+				runner.setMetricsName(value);
+				break;
+			case "--checkpoint":
+				runner.setCheckpoint(value);
+				break;
+			case "--resume":
+				runner.setResume(value);
+				break;
+			case "--record":
+				runner.setRecord(value);
+				break;
+			case "--decimate":
+				runner.setDecimation(Integer.parseInt(value));
+				break;
+			case "--export":
+				runner.setExport(value);
+				break;
+			default:
+				usage("unknown option " + arg);
+			}
+		}
+		runner.run();
+	}
+
+	/**
+	 * Print how to use the runner and exit.
+	 *
+	 * @param error what was wrong with the arguments
+	 */
+	private static void usage(String error) {
+		System.err.println(error);
+		System.err.println("usage: java tests.HeadlessRunner [--scene chain|cloth|orbit|triangle|gas|file]"
+				+ " [--solver euler|midpoint|rk4|verlet|leapfrog|dopri|implicit]"
+				+ " [--steps N] [--dt seconds] [--rate ratio] [--every N] [--out file.csv] [--metrics name]"
+				+ " [--checkpoint file] [--resume file] [--record base] [--decimate k]"
+				+ " [--export file]");
+		System.err.println("the solver is rk4 by default, or implicit for the cloth");
+		System.exit(2);
+	}
+
+	private String scene = "chain";
+	// The name of the solver, or null for the default for the scene or the solver of the resumed run
+	private String solver = null;
+	private long steps = 10000;
+	private double stepSize = 1.0 / 120.0;
+	// Simulated seconds per real second, or 0 to run as fast as possible
+	private double rate = 0.0;
+	private int sampleInterval = 100;
+	// The file to write metrics to, or null for standard output
+	private String output = null;
+	// The name to publish metrics under, or null to not record any
+	private String metricsName = null;
+	// The file to save checkpoints to, or null
+	private String checkpoint = null;
+	// The checkpoint to resume from, or null to start a new run
+	private String resume = null;
+	// The path to name trajectory segments after, or null to not record one
+	private String record = null;
+	private int decimation = 1;
+	// The file to write the starting scene to, or null
+	private String export = null;
+
+	/**
+	 * Set the preset scene to simulate.
+	 *
+	 * @param scene the name of the scene
+	 */
+	public void setScene(String scene) {
+		this.scene = scene;
+	}
+
+	/**
+	 * Set the solver to step the scene with.
+	 *
+	 * @param solver the name of the solver
+	 */
+	public void setSolver(String solver) {
+		this.solver = solver;
+	}
+
+	/**
+	 * Set the number of steps to run.
+	 *
+	 * @param steps the number of steps
+	 */
+	public void setSteps(long steps) {
+		this.steps = steps;
+	}
+
+	/**
+	 * Set the length of a step.
+	 *
+	 * @param stepSize the length of a step, in seconds
+	 */
+	public void setStepSize(double stepSize) {
+		this.stepSize = stepSize;
+	}
+
+	/**
+	 * Set how fast simulated time passes compared to real time.
+	 *
+	 * @param rate simulated seconds per real second, or 0 to run as fast as possible
+	 */
+	public void setRate(double rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * Set how often a line of metrics is written.
+	 *
+	 * @param sampleInterval the number of steps between lines
+	 */
+	public void setSampleInterval(int sampleInterval) {
+		this.sampleInterval = Math.max(sampleInterval, 1);
+	}
+
+	/**
+	 * Set the file metrics are written to.
+	 *
+	 * @param output the path of the file, or null for standard output
+	 */
+	public void setOutput(String output) {
+		this.output = output;
+	}
+
+	/**
+	 * Record where the step time goes and publish it over JMX.
+	 *
+	 * @param metricsName the name to register the metrics under, or null to not record any
+	 */
+	public void setMetricsName(String metricsName) {
+		this.metricsName = metricsName;
+	}
+
+	/**
+	 * Save the state of the run to a file as it goes.
+	 *
+	 * @param checkpoint the path of the file, or null to not save checkpoints
+	 */
+	public void setCheckpoint(String checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Resume a run from a checkpoint instead of building a scene.
+	 *
+	 * @param resume the path of the checkpoint, or null to start a new run
+	 */
+	public void setResume(String resume) {
+		this.resume = resume;
+	}
+
+	/**
+	 * Record the trajectory of the run.
+	 *
+	 * @param record the path to name the segment files after, or null to not record
+	 */
+	public void setRecord(String record) {
+		this.record = record;
+	}
+
+	/**
+	 * Set how often the trajectory is recorded.
+	 *
+	 * @param decimation the number of steps between recorded frames
+	 */
+	public void setDecimation(int decimation) {
+		this.decimation = Math.max(decimation, 1);
+	}
+
+	/**
+	 * Write the scene the run starts from to a file.
+	 *
+	 * @param export the path of the file, or null to not write the scene
+	 */
+	public void setExport(String export) {
+		this.export = export;
+	}
+
+	/**
+	 * Build the scene, run it and write the metrics.
+	 *
+	 * @throws IOException if the scene can't be read or the metrics can't be written
+	 */
+	public void run() throws IOException {
+		ParticleSystem ps;
+		NumericalSolver ns;
+		long firstStep = 0;
+		if (this.resume != null) {
+			Checkpoint cp = Checkpoint.read(Paths.get(this.resume));
+			ps = cp.getParticleSystem();
+			ns = (this.solver != null) ? createSolver(this.solver) : cp.createSolver();
+			firstStep = Math.round(cp.getTime() / this.stepSize);
+		} else {
+			ps = new ParticleSystem();
+			createScene(this.scene, ps);
+			ns = createSolver((this.solver != null) ? this.solver : defaultSolver(this.scene));
+		}
+		String name = (this.resume != null) ? this.resume : this.scene;
+		if (this.export != null) {
+			SceneWriter.write(ps, Paths.get(this.export), this.export.endsWith(".bin"));
+		}
+		String solverName = ns.getClass().getSimpleName();
+		SimulationMetrics metrics = null;
+		if (this.metricsName != null) {
+			metrics = new SimulationMetrics();
+			metrics.register(this.metricsName);
+			ns = new InstrumentedSolver(ns, metrics);
+		}
+
+		PrintWriter out;
+		if (this.output == null) {
+			out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+		} else {
+			out = new PrintWriter(Files.newBufferedWriter(Paths.get(this.output), StandardCharsets.UTF_8));
+		}
+
+		TrajectoryRecorder recorder = null;
+		if (this.record != null) {
+			// The ring has to hold at least two frames; room for a few more lets the writer fall behind
+			long frame = TrajectoryRecorder.frameSize(ps.getParticles().size());
+			int ring = (int)Math.min(Math.max(16L << 20, 4 * frame), Integer.MAX_VALUE);
+			recorder = new TrajectoryRecorder(Paths.get(this.record), this.decimation, ring, 64L << 20);
+		}
+
+		try {
+			out.println("step,time,kinetic_energy,centroid_x,centroid_y,max_speed,wall_ms");
+			long start = System.nanoTime();
+			this.sample(out, ps, firstStep, start);
+			if (recorder != null) {
+				recorder.record(ps);
+			}
+
+			for (long step = firstStep + 1; step <= this.steps; step++) {
+				ns.step(ps, this.stepSize);
+				if (recorder != null) {
+					recorder.record(ps);
+				}
+
+				if (this.rate > 0) {
+					// Wait until real time catches up with simulated time
+					long due = start + (long)((step - firstStep) * this.stepSize / this.rate * 1e9);
+					long now;
+					while ((now = System.nanoTime()) < due) {
+						LockSupport.parkNanos(due - now);
+					}
+				}
+
+				if (step % this.sampleInterval == 0 || step == this.steps) {
+					this.sample(out, ps, step, start);
+					if (this.checkpoint != null) {
+						Checkpoint.write(ps, ns, Paths.get(this.checkpoint));
+					}
+				}
+			}
+
+			long taken = Math.max(this.steps - firstStep, 0);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.err.printf(Locale.ROOT, "%s/%s: %d particles, %d forces, %d steps in %.3f s (%.0f steps/s)%n",
+					name, solverName, ps.getParticles().size(), ps.getForces().size(),
+					taken, seconds, taken / seconds);
+			if (metrics != null) {
+				System.err.println(metrics);
+			}
+			if (recorder != null) {
+				System.err.printf(Locale.ROOT, "recorded %d frames to %s (%d dropped)%n",
+						recorder.getRecordedFrames(), this.record, recorder.getDroppedFrames());
+			}
+		} finally {
+			if (recorder != null) {
+				recorder.close();
+			}
+			if (metrics != null) {
+				metrics.unregister();
+			}
+			if (this.output == null) {
+				out.flush();
+			} else {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Write a line of metrics about the current state of a system.
+	 *
+	 * @param out where to write the line
+	 * @param ps the system
+	 * @param step the number of steps taken so far
+	 * @param start the value of System.nanoTime() when the run started
+	 */
+	private void sample(PrintWriter out, ParticleSystem ps, long step, long start) {
+		ParticleStore store = ps.getParticleStore();
+		double[] x = store.getPositions();
+		double[] v = store.getVelocities();
+		double[] m = store.getMasses();
+		int n = store.size();
+
+		double kinetic = 0.0;
+		double cx = 0.0;
+		double cy = 0.0;
+		double maxSpeed2 = 0.0;
+		for (int i = 0; i < n; i++) {
+			double v2 = v[2 * i] * v[2 * i] + v[2 * i + 1] * v[2 * i + 1];
+			kinetic += 0.5 * m[i] * v2;
+			cx += x[2 * i];
+			cy += x[2 * i + 1];
+			maxSpeed2 = Math.max(maxSpeed2, v2);
+		}
+		if (n > 0) {
+			cx /= n;
+			cy /= n;
+		}
+
+		out.printf(Locale.ROOT, "%d,%.6f,%.9g,%.9g,%.9g,%.9g,%.3f%n",
+				step, step * this.stepSize, kinetic, cx, cy, Math.sqrt(maxSpeed2),
+				(System.nanoTime() - start) / 1e6);
+	}
+
+	/**
+	 * Create a solver from its name.
+	 *
+	 * @param name the name of the solver
+	 * @return the solver
+	 */
+	public static NumericalSolver createSolver(String name) {
+		switch (name) {
+		case "euler":
+			return new EulerSolver();
+		case "midpoint":
+			return new MidpointSolver();
+		case "rk4":
+			return new RK4Solver();
+		case "verlet":
+			return new VelocityVerletSolver();
+		case "leapfrog":
+			return new LeapfrogSolver();
+		case "dopri":
+			return new DormandPrinceSolver();
+		case "implicit":
+			return new ImplicitEulerSolver();
+		default:
+			throw new IllegalArgumentException("Unknown solver: " + name);
+		}
+	}
+
+	/**
+	 * Get the name of the solver a scene is stepped with when
+	 * no solver is given.
+	 *
+	 * @param scene the name of the scene or the path of a scene file
+	 * @return the name of the solver
+	 */
+	public static String defaultSolver(String scene) {
+		// The stiffest springs in the cloth have w * dt of about 3.7 at 120 Hz,
+		// which is past the stability limit of every explicit solver
+		return scene.equals("cloth") ? "implicit" : "rk4";
+	}
+
+	/**
+	 * Add the particles and forces of a preset scene to a system.
+	 * If the name isn't one of the presets it is read as the path
+	 * of a scene file instead.
+	 *
+	 * @param name the name of the scene or the path of a scene file
+	 * @param ps the system to add the scene to
+	 * @throws IOException if the scene file can't be read
+	 */
+	public static void createScene(String name, ParticleSystem ps) throws IOException {
+		switch (name) {
+		case "chain":
+			createChain(ps, 64);
+			break;
+		case "cloth":
+			createCloth(ps, 64, 64);
+			break;
+		case "orbit":
+			createOrbit(ps);
+			break;
+		case "triangle":
+			createTriangle(ps);
+			break;
+		case "gas":
+			createGas(ps, 100000);
+			break;
+		default:
+			if (!Files.isRegularFile(Paths.get(name))) {
+				throw new IllegalArgumentException("Unknown scene: " + name);
+			}
+			SceneLoader.load(Paths.get(name), ps);
+		}
+	}
+
+	/**
+	 * A chain of particles hanging from a pivot under gravity.
+	 *
+	 * @param ps the system to add the scene to
+	 * @param links the number of particles in the chain
+	 */
+	private static void createChain(ParticleSystem ps, int links) {
+		double spacing = 10;
+		Particle previous = null;
+		for (int i = 0; i < links; i++) {
+			Particle p = new Particle(100 + spacing * (i + 1), 100, 0, 0, 1);
+			ps.addParticle(p);
+			if (previous == null) {
+				ps.addForce(new PivotedSpring(p, new Vec2(100, 100), 5000, spacing));
+			} else {
+				ps.addForce(new Spring(previous, p, 5000, spacing));
+			}
+			previous = p;
+		}
+		ps.addForce(new Gravity(ps, 981));
+	}
+
+	/**
+	 * A sheet of cloth pinned at its top corners, with the springs
+	 * in a SpringNetwork.
+	 *
+	 * @param ps the system to add the scene to
+	 * @param w the number of particles across the cloth
+	 * @param h the number of particles down the cloth
+	 */
+	private static void createCloth(ParticleSystem ps, int w, int h) {
+		double spacing = 8;
+		double k = 2000;
+		Particle[] grid = new Particle[w * h];
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				Particle p = new Particle(100 + spacing * i, 100 + spacing * j, 0, 0, 0.1);
+				grid[j * w + i] = p;
+				ps.addParticle(p);
+			}
+		}
+
+		SpringNetwork network = new SpringNetwork(ps);
+		double diagonal = spacing * Math.sqrt(2);
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				Particle p = grid[j * w + i];
+				if (i + 1 < w) {
+					network.addSpring(p, grid[j * w + i + 1], k, spacing, 0.5);
+				}
+				if (j + 1 < h) {
+					network.addSpring(p, grid[(j + 1) * w + i], k, spacing, 0.5);
+				}
+				if (i + 1 < w && j + 1 < h) {
+					network.addSpring(p, grid[(j + 1) * w + i + 1], k / 4, diagonal, 0.1);
+					network.addSpring(grid[j * w + i + 1], grid[(j + 1) * w + i], k / 4, diagonal, 0.1);
+				}
+			}
+		}
+		ps.addForce(network);
+
+		// Pin the top corners to pivots just above them
+		ps.addForce(new PivotedSpring(grid[0], new Vec2(100, 100 - spacing), 10 * k, spacing));
+		ps.addForce(new PivotedSpring(grid[w - 1], new Vec2(100 + spacing * (w - 1), 100 - spacing), 10 * k, spacing));
+		ps.addForce(new Gravity(ps, 981));
+	}
+
+	/**
+	 * Two heavy particles orbiting each other, like AttractionTest.
+	 *
+	 * @param ps the system to add the scene to
+	 */
+	private static void createOrbit(ParticleSystem ps) {
+		Particle a = new Particle(100, 400, 0, 10, 10000);
+		Particle b = new Particle(1100, 400, 0, -10, 10000);
+		ps.addParticle(a, b);
+		ps.addForce(new GravityAttraction(a, b, 100));
+	}
+
+	/**
+	 * Three particles joined by springs, like Test1.
+	 *
+	 * @param ps the system to add the scene to
+	 */
+	private static void createTriangle(ParticleSystem ps) {
+		Particle p = new Particle(200, 200, 0, 0, 20);
+		Particle p2 = new Particle(300, 300, 0, 0, 10);
+		Particle p3 = new Particle(400, 100, 0, 0, 10);
+		ps.addParticle(p, p2, p3);
+
+		List<Force> springs = List.of(
+				new Spring(p, p2, 100, 100),
+				new Spring(p2, p3, 100, 100),
+				new Spring(p3, p, 200, 250));
+		ps.addForces(springs);
+	}
+
+	/**
+	 * A cloud of colliding circles with random velocities and
+	 * no other forces, for timing the collisions.
+	 *
+	 * @param ps the system to add the scene to
+	 * @param n the number of circles
+	 */
+	private static void createGas(ParticleSystem ps, int n) {
+		double spacing = 5;
+		double radius = 2;
+		int w = (int)Math.ceil(Math.sqrt(n));
+		Random random = new Random(1);
+		double[] x = new double[2 * n];
+		double[] v = new double[2 * n];
+		double[] m = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[2 * i] = spacing * (i % w);
+			x[2 * i + 1] = spacing * (i / w);
+			v[2 * i] = 20 * random.nextGaussian();
+			v[2 * i + 1] = 20 * random.nextGaussian();
+			m[i] = 1;
+		}
+
+		int first = ps.addParticles(x, v, m, n);
+		ParticleStore store = ps.getParticleStore();
+		for (int i = 0; i < n; i++) {
+			store.setRadius(first + i, radius);
+		}
+		ps.setCollisions(new ParticleCollisions());
+	}
+}
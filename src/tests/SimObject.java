@@ -10,7 +10,9 @@ import java.awt.Graphics2D;
 import javax.swing.JInternalFrame;
 
 import physics.Vec2;
+import physics.Particle;
 import physics.ParticleSystem;
+import physics.StateSnapshot;
 import physics.AABB;
 
 /**
@@ -63,6 +65,118 @@ public abstract class SimObject {
 	// A counter for ids
 	private static long count = 0;
 	
+	// When the physics runs on its own thread, SimObjects are drawn from
+	// the latest snapshot it published instead of the live particles
+	private static volatile StateSnapshot renderSnapshot = null;
+	
+	// Otherwise they are drawn blended between the state before
+	// the last fixed step and the current state
+	private static StateSnapshot previousSnapshot = null;
+	private static double interpolationAlpha = 1.0;
+	
+	/**
+	 * Set the snapshot SimObjects should draw particles from.
+	 * 
+	 * @param snapshot the snapshot, or null to draw the live particles
+	 */
+	public static void setRenderSnapshot(StateSnapshot snapshot) {
+		renderSnapshot = snapshot;
+	}
+	
+	/**
+	 * Set the state SimObjects are blended from when they are drawn.
+	 * 
+	 * @param previous the state before the last fixed step, or null to draw the live particles
+	 * @param alpha how far to blend from the previous state to the live particles
+	 */
+	public static void setInterpolation(StateSnapshot previous, double alpha) {
+		previousSnapshot = previous;
+		interpolationAlpha = alpha;
+	}
+	
+	/**
+	 * Get the position a particle should be drawn at.
+	 * 
+	 * @param p the particle
+	 * @return the position of the particle in the render snapshot, its
+	 * interpolated position, or its live position if there is neither;
+	 * null if there is a render snapshot and the particle isn't in it
+	 */
+	protected static Vec2 getRenderPosition(Particle p) {
+		StateSnapshot snapshot = renderSnapshot;
+		if (snapshot != null) {
+			return snapshot.getPosition(p);
+		}
+		if (previousSnapshot != null) {
+			Vec2 x = previousSnapshot.getInterpolatedPosition(p, interpolationAlpha);
+			if (x != null) {
+				return x;
+			}
+		}
+		return p.getPosition();
+	}
+	
+	/**
+	 * Get the position of a particle for working out what is under
+	 * the mouse. When the physics runs on its own thread this is the
+	 * position in the render snapshot, since the live particles are
+	 * being changed by that thread; otherwise it is the live position.
+	 * 
+	 * @param p the particle
+	 * @return the position of the particle, or null if there is a
+	 * render snapshot and the particle isn't in it yet
+	 */
+	protected static Vec2 getStatePosition(Particle p) {
+		StateSnapshot snapshot = renderSnapshot;
+		if (snapshot != null) {
+			return snapshot.getPosition(p);
+		}
+		return p.getPosition();
+	}
+	
+	/**
+	 * Get the velocity of a particle, from the render snapshot
+	 * when the physics runs on its own thread.
+	 * 
+	 * @param p the particle
+	 * @return the velocity of the particle, or null if there is a
+	 * render snapshot and the particle isn't in it yet
+	 */
+	protected static Vec2 getStateVelocity(Particle p) {
+		StateSnapshot snapshot = renderSnapshot;
+		if (snapshot != null) {
+			return snapshot.getVelocity(p);
+		}
+		return p.getVelocity();
+	}
+	
+	/**
+	 * Get the mass of a particle, from the render snapshot
+	 * when the physics runs on its own thread.
+	 * 
+	 * @param p the particle
+	 * @return the mass of the particle, or NaN if there is a
+	 * render snapshot and the particle isn't in it yet
+	 */
+	protected static double getStateMass(Particle p) {
+		StateSnapshot snapshot = renderSnapshot;
+		if (snapshot != null) {
+			return snapshot.getMass(p);
+		}
+		return p.getMass();
+	}
+	
+	/**
+	 * Get the box of an object whose particles aren't in the render
+	 * snapshot yet. The object is refit once a snapshot with them in
+	 * it is published, since the version of the store changes.
+	 * 
+	 * @return an empty box
+	 */
+	protected static AABB getPendingAABB() {
+		return new AABB(0, 0, 0, 0);
+	}
+	
 	public static void spawn(Types type, SimulationEditor se) {
 		if (type == null) {
 			return;
@@ -171,6 +285,16 @@ public abstract class SimObject {
 		this.updatedFields.push(r);
 	}
 	
+	/**
+	 * Check whether any fields on this SimObject are waiting
+	 * to be updated.
+	 * 
+	 * @return true if updateFields() has anything to do
+	 */
+	public boolean hasUpdatedFields() {
+		return !this.updatedFields.isEmpty();
+	}
+	
 	/**
 	 * Update the fields on this SimObject.
 	 */
@@ -50,13 +50,21 @@ public class SimParticle extends SimObject {
 	
 	@Override
 	public boolean mouseOver(Vec2 mousePosition) {
-		double dist = Vec2.sub(this.p.getPosition(), mousePosition).mag();
+		Vec2 x = SimObject.getStatePosition(this.p);
+		if (x == null) {
+			return false;
+		}
+		double dist = Vec2.sub(x, mousePosition).mag();
 		return dist <= this.r;
 	}
 	
 	@Override
 	public void draw(Graphics2D g) {
-		g.fillOval((int)(this.p.getPosition().getX() - this.r), (int)(this.p.getPosition().getY() - this.r), this.r * 2, this.r * 2);
+		Vec2 x = SimObject.getRenderPosition(this.p);
+		if (x == null) {
+			return;
+		}
+		g.fillOval((int)(x.getX() - this.r), (int)(x.getY() - this.r), this.r * 2, this.r * 2);
 	}
 	
 	@Override
@@ -66,7 +74,8 @@ public class SimParticle extends SimObject {
 			if (rad <= 0) {
 				rad = 1;
 			}
-			g.drawOval((int)this.p.getPosition().getX() - rad, (int)this.p.getPosition().getY() - rad, rad * 2, rad * 2);
+			Vec2 x = SimObject.getStatePosition(this.p);
+			g.drawOval((int)x.getX() - rad, (int)x.getY() - rad, rad * 2, rad * 2);
 		}
 	}
 	
@@ -78,11 +87,15 @@ public class SimParticle extends SimObject {
 	
 	@Override
 	public AABB getAABB() {
+		Vec2 x = SimObject.getStatePosition(this.p);
+		if (x == null) {
+			return SimObject.getPendingAABB();
+		}
 		return  new AABB(
-				this.p.getPosition().getX() - this.r,
-				this.p.getPosition().getY() - this.r,
-				this.p.getPosition().getX() + this.r,
-				this.p.getPosition().getY() + this.r);
+				x.getX() - this.r,
+				x.getY() - this.r,
+				x.getX() + this.r,
+				x.getY() + this.r);
 	}
 	
 	@Override
@@ -97,7 +110,8 @@ public class SimParticle extends SimObject {
 	
 	@Override
 	public void openObjectEditor(SimulationEditor se) {
-		if (this.getEditorShowing()) {
+		Vec2 x = SimObject.getStatePosition(this.p);
+		if (this.getEditorShowing() || x == null) {
 			return;
 		}
 		
@@ -105,15 +119,15 @@ public class SimParticle extends SimObject {
 		
 		ObjectEditor oe = new ObjectEditor("Object Editor", this);
 		
-		VectorField position = new VectorField("Position", this.p.getPosition());
-		VectorField velocity = new VectorField("Velocity", this.p.getVelocity());
-		NumberField mass = new NumberField("Mass", this.p.getMass());
+		VectorField position = new VectorField("Position", x);
+		VectorField velocity = new VectorField("Velocity", SimObject.getStateVelocity(this.p));
+		NumberField mass = new NumberField("Mass", SimObject.getStateMass(this.p));
 		
 		oe.addField(position);
 		oe.addField(velocity);
 		oe.addField(mass);
 
-		se.addObjectEditor(oe.build(this.p.getPosition()));
+		se.addObjectEditor(oe.build(x));
 	}
 	
 	@Override
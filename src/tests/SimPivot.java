@@ -16,6 +16,8 @@ public class SimPivot extends SimObject {
 	public static final int PIVOT_RADIUS = 5;
 	
 	private Vec2 x;
+	// The system the pivot is in, told when the pivot moves
+	private ParticleSystem ps;
 	
 	public SimPivot(Vec2 x) {
 		this.x = new Vec2();
@@ -34,11 +36,14 @@ public class SimPivot extends SimObject {
 	
 	@Override
 	public void addToSystem(ParticleSystem ps) { 
-		// Do nothing, pivots aren't represented in the ParticleSystem
+		// Pivots aren't represented in the ParticleSystem, but the
+		// springs attached to them are
+		this.ps = ps;
 	}
 	
 	@Override
 	public List<SimObject> removeFromSystem(ParticleSystem ps) {
+		this.ps = null;
 		return this.getReferencedObjects();
 	}
 	
@@ -46,6 +51,9 @@ public class SimPivot extends SimObject {
 	public void setPosition(Vec2 p) {
 		this.x.setX(p.getX());
 		this.x.setY(p.getY());
+		if (this.ps != null) {
+			this.ps.getParticleStore().markChanged();
+		}
 	}
 	
 	@Override
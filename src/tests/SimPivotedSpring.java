@@ -83,8 +83,13 @@ public class SimPivotedSpring extends SimObject{
 	
 	@Override
 	public boolean mouseOver(Vec2 mousePosition) {
+		Vec2 p = SimObject.getStatePosition(this.s.getParticle());
+		if (p == null) {
+			return false;
+		}
+		
 		Vec2[] points = GraphicsUtils.getPointsAroundSpring(
-				this.s.getParticle().getPosition(), 
+				p, 
 				this.s.getPivot(), 
 				this.s.getSpringConstant(), 
 				10,
@@ -97,7 +102,7 @@ public class SimPivotedSpring extends SimObject{
 	public void drawHighlighted(Graphics2D g, Vec2 mousePosition) {
 		if (this.mouseOver(mousePosition)) {
 			Vec2[] points = GraphicsUtils.getPointsAroundSpring(
-					this.s.getParticle().getPosition(), 
+					SimObject.getStatePosition(this.s.getParticle()), 
 					this.s.getPivot(), 
 					this.s.getSpringConstant(), 
 					10,
@@ -112,7 +117,11 @@ public class SimPivotedSpring extends SimObject{
 	
 	@Override
 	public void draw(Graphics2D g) {
-		GraphicsUtils.drawSpring(g, this.s.getPivot(), this.s.getParticle().getPosition(), this.s.getSpringConstant(), this.s.getLength());
+		Vec2 p = SimObject.getRenderPosition(this.s.getParticle());
+		if (p == null) {
+			return;
+		}
+		GraphicsUtils.drawSpring(g, this.s.getPivot(), p, this.s.getSpringConstant(), this.s.getLength());
 	}
 	
 	@Override
@@ -123,20 +132,12 @@ public class SimPivotedSpring extends SimObject{
 	
 	@Override
 	public AABB getAABB() {
-		Particle p = this.s.getParticle();
+		Vec2 p = SimObject.getStatePosition(this.s.getParticle());
+		if (p == null) {
+			return SimObject.getPendingAABB();
+		}
 		Vec2 pivot = this.s.getPivot();
-		Vec2 topLeft = new Vec2(
-				(p.getPosition().getX() < pivot.getX()) ? p.getPosition().getX() : pivot.getX(),
-				(p.getPosition().getY() < pivot.getY()) ? p.getPosition().getY() : pivot.getY());
-		Vec2 bottomRight = new Vec2(
-				(p.getPosition().getX() > pivot.getX()) ? p.getPosition().getX() : pivot.getX(),
-				(p.getPosition().getY() > pivot.getY()) ? p.getPosition().getY() : pivot.getY());
-		
-		return new AABB(
-				topLeft.getX(),
-				topLeft.getY(),
-				bottomRight.getX(),
-				bottomRight.getY());
+		return GraphicsUtils.getSpringAABB(p, pivot, this.s.getSpringConstant());
 	}
 	
 	@Override
@@ -83,10 +83,15 @@ public class SimSpring extends SimObject {
 	@Override
 	public boolean mouseOver(Vec2 mousePosition) {
 		Particle[] particles = this.s.getParticles();
+		Vec2 a = SimObject.getStatePosition(particles[0]);
+		Vec2 b = SimObject.getStatePosition(particles[1]);
+		if (a == null || b == null) {
+			return false;
+		}
 		
 		Vec2[] points = GraphicsUtils.getPointsAroundSpring(
-				particles[0].getPosition(), 
-				particles[1].getPosition(), 
+				a, 
+				b, 
 				this.s.getSpringConstant(), 
 				10,
 				10);
@@ -100,8 +105,8 @@ public class SimSpring extends SimObject {
 			Particle[] particles = this.s.getParticles();
 			
 			Vec2[] points = GraphicsUtils.getPointsAroundSpring(
-					particles[0].getPosition(), 
-					particles[1].getPosition(), 
+					SimObject.getStatePosition(particles[0]), 
+					SimObject.getStatePosition(particles[1]), 
 					this.s.getSpringConstant(), 
 					10,
 					10);
@@ -118,7 +123,12 @@ public class SimSpring extends SimObject {
 	@Override
 	public void draw(Graphics2D g) {
 		Particle[] particles = this.s.getParticles();
-		GraphicsUtils.drawSpring(g, particles[0].getPosition(), particles[1].getPosition(), this.s.getSpringConstant(), this.s.getLength());
+		Vec2 a = SimObject.getRenderPosition(particles[0]);
+		Vec2 b = SimObject.getRenderPosition(particles[1]);
+		if (a == null || b == null) {
+			return;
+		}
+		GraphicsUtils.drawSpring(g, a, b, this.s.getSpringConstant(), this.s.getLength());
 	}
 	
 	@Override
@@ -130,17 +140,12 @@ public class SimSpring extends SimObject {
 	@Override
 	public AABB getAABB() {
 		Particle[] particles = this.s.getParticles();
-		Vec2 topLeft = new Vec2(
-				(particles[0].getPosition().getX() < particles[1].getPosition().getX()) ? particles[0].getPosition().getX() : particles[1].getPosition().getX(),
-				(particles[0].getPosition().getY() < particles[1].getPosition().getY()) ? particles[0].getPosition().getY() : particles[1].getPosition().getY());
-		Vec2 bottomRight = new Vec2(
-				(particles[0].getPosition().getX() > particles[1].getPosition().getX()) ? particles[0].getPosition().getX() : particles[1].getPosition().getX(),
-				(particles[0].getPosition().getY() > particles[1].getPosition().getY()) ? particles[0].getPosition().getY() : particles[1].getPosition().getY());
-		return new AABB(
-				topLeft.getX(),
-				topLeft.getY(),
-				bottomRight.getX(),
-				bottomRight.getY());
+		Vec2 a = SimObject.getStatePosition(particles[0]);
+		Vec2 b = SimObject.getStatePosition(particles[1]);
+		if (a == null || b == null) {
+			return SimObject.getPendingAABB();
+		}
+		return GraphicsUtils.getSpringAABB(a, b, this.s.getSpringConstant());
 	}
 	
 	@Override
@@ -1,8 +1,15 @@
 package tests;
 
 import java.util.List;
+import java.util.Map;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.awt.AlphaComposite;
 import java.awt.Container;
 import java.awt.Cursor;
@@ -32,13 +39,24 @@ import graphics.NullRepaintManager;
 import graphics.GameAction;
 import graphics.InputManager;
 
+import physics.ParticleStore;
 import physics.ParticleSystem;
 import physics.NumericalSolver;
 import physics.Particle;
 import physics.RK4Solver;
 import physics.Vec2;
 import physics.AABB;
+import physics.AABBTree;
+import physics.NearestParticleFinder;
 import physics.Gravity;
+import physics.PivotedSpring;
+import physics.SceneListener;
+import physics.SceneReader;
+import physics.SceneWriter;
+import physics.Spring;
+import physics.SimulationThread;
+import physics.StateSnapshot;
+import physics.StateTimeline;
 
 /**
  * I've come to the realization that it might be better
@@ -49,8 +67,22 @@ import physics.Gravity;
  *
  */
 public class SimulationEditor extends GameCore {
+	// How much memory the rewind timeline can use, and how
+	// often it keeps a full copy of the system
+	private static final long TIMELINE_BUDGET = 64L << 20;
+	private static final int TIMELINE_KEYFRAME_INTERVAL = 30;
+	// How far an object can move past its box before the tree has to change
+	private static final double TREE_MARGIN = 8;
+	
 	public static void main(String[] args) {
 		SimulationEditor se = new SimulationEditor();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threaded")) {
+				se.setThreaded(true);
+			} else if (args[i].equals("--scene") && i + 1 < args.length) {
+				se.setScenePath(Paths.get(args[++i]));
+			}
+		}
 		se.run();
 	}
 	
@@ -63,24 +95,69 @@ public class SimulationEditor extends GameCore {
 	private GameAction spacebar;
 	private boolean spacebarTapped;
 	
+	// While paused, the arrow keys scrub through the timeline
+	private GameAction leftArrow;
+	private GameAction rightArrow;
+	
 	private boolean paused;
 	
 	private ParticleSystem ps;
 	private NumericalSolver ns;
 	
+	// If threaded is true the system is stepped by simThread instead
+	// of in update(), and every change to the system goes through it
+	private boolean threaded;
+	private SimulationThread simThread;
+	
+	// The state before the last fixed step, for drawing between steps
+	private StateSnapshot previousState;
+	// The latest state published by simThread. The UI reads the particles
+	// from this instead of the system, which simThread is changing.
+	private StateSnapshot renderState;
+	
+	// The recent states of the system, so it can be rewound
+	private StateTimeline timeline;
+	
 	// mouseOverObject is the object the mouse
 	// is currently hovering over. selectedObject
 	// is the object the mouse was hovering over when
 	// the mouse was last clicked.
 	private List<SimObject> objects;
+	// Where each object is in objects, so it can be removed without a search
+	private Map<SimObject, Integer> objectSlots;
+	// The order the objects were added in, which is the order they are drawn
+	// and picked in; objects moves them around when one is removed
+	private Map<SimObject, Long> addedOrder;
+	private long nextAddedOrder;
+	private Comparator<SimObject> byAddedOrder;
 	private SimObject mouseOverObject;
 	private SimObject selectedObject;
 	
+	// The boxes around the objects, for finding the ones under the
+	// mouse or on the screen without going through all of them
+	private AABBTree<SimObject> tree;
+	private Map<SimObject, Integer> treeProxies;
+	// Collects the objects found by a query on the tree
+	private List<SimObject> found;
+	// The version of the particle store when the tree was last refit
+	private int refitVersion;
+	
+	// Finds the particle nearest the mouse, and the SimParticle of each particle
+	private NearestParticleFinder nearestParticle;
+	private Map<Particle, SimParticle> simParticles;
+	
 	private List<JInternalFrame> objectEditors;
 	
 	private Gravity g;
 	
 	private Vec2 mousePosition;
+	
+	// The file the scene is saved to and loaded from. The buttons
+	// that save and load run on the event thread, so they only
+	// ask for it to be done in the next update.
+	private Path scenePath = Paths.get("editor.scene");
+	private volatile boolean saveRequested;
+	private volatile boolean loadRequested;
 
 	@Override
 	public void init() {
@@ -98,6 +175,11 @@ public class SimulationEditor extends GameCore {
 		this.spacebarTapped = false;
 		this.im.mapToKey(this.spacebar, KeyEvent.VK_SPACE);
 		
+		this.leftArrow = new GameAction("left arrow", GameAction.NORMAL);
+		this.rightArrow = new GameAction("right arrow", GameAction.NORMAL);
+		this.im.mapToKey(this.leftArrow, KeyEvent.VK_LEFT);
+		this.im.mapToKey(this.rightArrow, KeyEvent.VK_RIGHT);
+		
 		this.mousePosition = new Vec2(this.im.getMouseX(), this.im.getMouseY());
 		
 		this.paused = true;
@@ -106,6 +188,18 @@ public class SimulationEditor extends GameCore {
 		this.ns = new RK4Solver();
 		
 		this.objects = new ArrayList<>();
+		this.objectSlots = new IdentityHashMap<>();
+		this.addedOrder = new IdentityHashMap<>();
+		this.byAddedOrder = Comparator.comparingLong(this.addedOrder::get);
+		this.tree = new AABBTree<>(TREE_MARGIN);
+		this.treeProxies = new IdentityHashMap<>();
+		this.found = new ArrayList<>();
+		
+		this.nearestParticle = new NearestParticleFinder();
+		this.simParticles = new IdentityHashMap<>();
+		
+		this.previousState = new StateSnapshot();
+		this.timeline = new StateTimeline(TIMELINE_BUDGET, TIMELINE_KEYFRAME_INTERVAL);
 		
 		this.objectEditors = new ArrayList<>();
 		
@@ -113,6 +207,19 @@ public class SimulationEditor extends GameCore {
 		
 		this.ps.addForce(this.g);
 		
+		if (this.threaded) {
+			this.simThread = new SimulationThread(this.ps, this.ns, this.getFixedTimeStep());
+			this.simThread.setPaused(this.paused);
+			this.simThread.setTimeline(this.timeline);
+			this.simThread.start();
+			this.renderState = this.simThread.getSnapshot();
+			SimObject.setRenderSnapshot(this.renderState);
+		}
+		
+		if (Files.isRegularFile(this.scenePath)) {
+			this.loadRequested = true;
+		}
+		
 		this.ef = new EditorFrame(this);
 		((JFrame)this.screen.getFullScreenWindow()).getLayeredPane().add(this.ef);
 		this.screen.getFullScreenWindow().setFocusable(true);
@@ -160,48 +267,148 @@ public class SimulationEditor extends GameCore {
 			
 			this.leftMouseClicked = false;
 		}
+		
+		// Holding an arrow key while paused moves one step
+		// through the timeline every frame. Unpausing carries on
+		// from whatever step the timeline was left at.
+		if (this.isPaused()) {
+			if (this.leftArrow.isPressed()) {
+				this.invokeLater(() -> this.timeline.stepBack(this.ps));
+			}
+			if (this.rightArrow.isPressed()) {
+				this.invokeLater(() -> this.timeline.stepForward(this.ps));
+			}
+		}
 	}
 	
 	@Override
 	public void update(long elapsedTime) {
-		boolean objectFound = false;
-		for (int i = 0; i < this.objects.size(); i++) {
-			SimObject o = this.objects.get(i);
-			if (o.mouseOver(this.mousePosition)) {
-				this.mouseOverObject = o;
-				objectFound = true;
-				break;
+		if (this.saveRequested) {
+			this.saveRequested = false;
+			try {
+				this.saveScene(this.scenePath);
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Couldn't save " + this.scenePath + ": " + e);
 			}
 		}
-		
-		if (!objectFound) {
-			this.mouseOverObject = null;
+		if (this.loadRequested) {
+			this.loadRequested = false;
+			try {
+				this.loadScene(this.scenePath);
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Couldn't load " + this.scenePath + ": " + e);
+			}
 		}
 		
-		this.processInput();
+		if (this.threaded) {
+			this.renderState = this.simThread.getSnapshot();
+			SimObject.setRenderSnapshot(this.renderState);
+		}
 		
-		if (!this.isPaused()) {
-			double dt = elapsedTime / 1000.0;
-			this.ns.step(this.ps, dt);
-		} else {
-			
+		// Refit the tree to where the objects are now. Nothing can have
+		// moved if the particle store hasn't changed, since moving a pivot
+		// changes it too, and objects that haven't left their fat boxes
+		// don't change the tree.
+		int version = this.threaded ? this.renderState.getVersion() : this.ps.getParticleStore().getVersion();
+		if (version != this.refitVersion) {
+			this.refitVersion = version;
+			for (int i = 0; i < this.objects.size(); i++) {
+				SimObject o = this.objects.get(i);
+				this.tree.move(this.treeProxies.get(o), o.getAABB());
+			}
 		}
 		
+		this.mouseOverObject = this.pick(this.mousePosition);
+		
+		this.processInput();
+		
 		this.mousePosition.setX(this.im.getMouseX());
 		this.mousePosition.setY(this.im.getMouseY());
 		
 		for (int i = 0; i < this.objects.size(); i++) {
-			this.objects.get(i).updateFields();
+			SimObject o = this.objects.get(i);
+			if (o.hasUpdatedFields()) {
+				this.invokeLater(o::updateFields);
+			}
+		}
+	}
+	
+	/**
+	 * Find the object under a point. If there is more than one,
+	 * the one that was added first is picked.
+	 * 
+	 * @param p the point
+	 * @return the object under the point, or null if there isn't one
+	 */
+	private SimObject pick(Vec2 p) {
+		this.found.clear();
+		this.tree.query(p, (proxy, o) -> this.found.add(o));
+		
+		SimObject picked = null;
+		long pickedOrder = Long.MAX_VALUE;
+		for (int i = 0; i < this.found.size(); i++) {
+			SimObject o = this.found.get(i);
+			long order = this.addedOrder.get(o);
+			if (order < pickedOrder && o.mouseOver(p)) {
+				picked = o;
+				pickedOrder = order;
+			}
+		}
+		return picked;
+	}
+	
+	/**
+	 * Get the objects whose boxes overlap a box, such as the
+	 * rectangle dragged out by the mouse.
+	 * 
+	 * @param box the box
+	 * @return the objects that overlap it
+	 */
+	public List<SimObject> getSimObjects(AABB box) {
+		List<SimObject> objects = new ArrayList<>();
+		this.tree.query(box, (proxy, o) -> {
+			if (o.getAABB().overlaps(box)) {
+				objects.add(o);
+			}
+		});
+		return objects;
+	}
+	
+	@Override
+	public void fixedUpdate(double dt) {
+		if (!this.isPaused() && !this.threaded) {
+			this.previousState.capture(this.ps);
+			this.ns.step(this.ps, dt);
+			this.timeline.capture(this.ps);
 		}
 	}
 	
 	@Override
-	public void draw(Graphics2D g) {		
-		for (SimObject o : this.objects) {
-			o.draw(g);
+	public void draw(Graphics2D g) {
+		double t = this.ps.getTime();
+		if (this.threaded) {
+			t = this.renderState.getTime();
+		} else if (!this.isPaused()) {
+			SimObject.setInterpolation(this.previousState, this.getInterpolationAlpha());
+		} else {
+			SimObject.setInterpolation(null, 1.0);
+		}
+		
+		// Only draw the objects that are on the screen, in the order they were
+		// added so they don't swap places when the shape of the tree changes
+		this.found.clear();
+		this.tree.query(0, 0, this.screen.getWidth(), this.screen.getHeight(), (proxy, o) -> this.found.add(o));
+		this.found.sort(this.byAddedOrder);
+		for (int i = 0; i < this.found.size(); i++) {
+			this.found.get(i).draw(g);
 		}
 		
 		this.ef.getEditorMode().draw(g);
+		
+		if (this.isPaused()) {
+			g.setColor(Color.WHITE);
+			g.drawString(String.format("t = %.3f s (left/right arrows to rewind)", t), 0, 40);
+		}
 	}
 	
 	/**
@@ -212,6 +419,43 @@ public class SimulationEditor extends GameCore {
 	 */
 	public void setPaused(boolean paused) {
 		this.paused = paused;
+		if (this.simThread != null) {
+			this.simThread.setPaused(paused);
+		}
+	}
+	
+	/**
+	 * Set whether the physics runs on its own thread. This has
+	 * to be set before the SimulationEditor is run.
+	 * 
+	 * @param threaded if true, step the simulation on a separate thread
+	 */
+	public void setThreaded(boolean threaded) {
+		this.threaded = threaded;
+	}
+	
+	/**
+	 * Check whether the physics runs on its own thread.
+	 * 
+	 * @return if true, the simulation is stepped on a separate thread
+	 */
+	public boolean isThreaded() {
+		return this.threaded;
+	}
+	
+	/**
+	 * Make a change to the simulation. If the physics runs on its
+	 * own thread the change is made there between steps, otherwise
+	 * it is made right away.
+	 * 
+	 * @param edit the change to make
+	 */
+	public void invokeLater(Runnable edit) {
+		if (this.simThread != null) {
+			this.simThread.invokeLater(edit);
+		} else {
+			edit.run();
+		}
 	}
 	
 	/**
@@ -230,22 +474,45 @@ public class SimulationEditor extends GameCore {
 	 * @param o the SimObject to add
 	 */
 	public void addSimObject(SimObject o) {
-		o.addToSystem(this.ps);
+		this.invokeLater(() -> o.addToSystem(this.ps));
+		this.objectSlots.put(o, this.objects.size());
+		this.addedOrder.put(o, this.nextAddedOrder++);
 		this.objects.add(o);
+		this.treeProxies.put(o, this.tree.insert(o.getAABB(), o));
+		if (o.getType() == SimObject.Types.SIM_PARTICLE) {
+			this.simParticles.put((Particle)o.getPhysicsObject(), (SimParticle)o);
+		}
 	}
 	
 	/**
-	 * Remove a SimObject from the SimulationEditor.
+	 * Remove a SimObject from the SimulationEditor, along with
+	 * the objects that depend on it. The last object is moved
+	 * into the place of each object that is removed.
 	 * 
 	 * @param o the SimObject to remove
 	 */
 	public void removeSimObject(SimObject o) {
-		List<SimObject> objectsToRemove = o.removeFromSystem(this.ps);
-		for (int i = 0; i < this.objects.size(); i++) {
-			if (this.objects.get(i).equals(o)) {
-				this.objects.remove(i);
-				break;
-			}
+		Integer slot = this.objectSlots.remove(o);
+		if (slot == null) {
+			// Already removed along with another object
+			return;
+		}
+		this.addedOrder.remove(o);
+		this.tree.remove(this.treeProxies.remove(o));
+		if (o.getType() == SimObject.Types.SIM_PARTICLE) {
+			this.simParticles.remove(o.getPhysicsObject());
+		}
+		
+		List<SimObject> objectsToRemove;
+		if (this.simThread != null) {
+			objectsToRemove = this.simThread.invokeAndWait(() -> o.removeFromSystem(this.ps));
+		} else {
+			objectsToRemove = o.removeFromSystem(this.ps);
+		}
+		SimObject moved = this.objects.remove(this.objects.size() - 1);
+		if (slot != this.objects.size()) {
+			this.objects.set(slot, moved);
+			this.objectSlots.put(moved, slot);
 		}
 		
 		if (objectsToRemove != null) {
@@ -255,6 +522,170 @@ public class SimulationEditor extends GameCore {
 		}
 	}
 	
+	/**
+	 * Set the file the scene is saved to and loaded from. If the
+	 * file exists when the SimulationEditor starts, it is loaded.
+	 * 
+	 * @param scenePath the path of the scene file
+	 */
+	public void setScenePath(Path scenePath) {
+		this.scenePath = scenePath;
+	}
+	
+	/**
+	 * Get the file the scene is saved to and loaded from.
+	 * 
+	 * @return the path of the scene file
+	 */
+	public Path getScenePath() {
+		return this.scenePath;
+	}
+	
+	/**
+	 * Save the scene in the next update.
+	 */
+	public void requestSave() {
+		this.saveRequested = true;
+	}
+	
+	/**
+	 * Replace the scene with the one in the scene file in the next update.
+	 */
+	public void requestLoad() {
+		this.loadRequested = true;
+	}
+	
+	/**
+	 * Save every SimObject in the editor, and the gravity, to a
+	 * scene file in the text form.
+	 * 
+	 * @param path the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void saveScene(Path path) throws IOException {
+		if (this.simThread != null) {
+			// Read the particles between steps so the scene is consistent
+			this.simThread.invokeAndWait(() -> {
+				this.writeScene(path);
+				return null;
+			});
+		} else {
+			this.writeScene(path);
+		}
+	}
+	
+	/**
+	 * Write the scene file. Particles and pivots are written before
+	 * the springs, which refer to them by number.
+	 * 
+	 * @param path the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	private void writeScene(Path path) throws IOException {
+		try (SceneWriter writer = new SceneWriter(Files.newOutputStream(path), false)) {
+			writer.gravity(this.g.getConstant());
+			
+			Map<Object, Integer> numbers = new IdentityHashMap<>();
+			for (SimObject o : this.objects) {
+				if (o.getType() == SimObject.Types.SIM_PARTICLE) {
+					Particle p = (Particle)o.getPhysicsObject();
+					Vec2 x = p.getPosition();
+					Vec2 v = p.getVelocity();
+					numbers.put(p, writer.particle(x.getX(), x.getY(), v.getX(), v.getY(), p.getMass()));
+				} else if (o.getType() == SimObject.Types.SIM_PIVOT) {
+					Vec2 x = (Vec2)o.getPhysicsObject();
+					numbers.put(x, writer.pivot(x.getX(), x.getY()));
+				}
+			}
+			
+			for (SimObject o : this.objects) {
+				if (o.getType() == SimObject.Types.SIM_SPRING) {
+					Spring s = (Spring)o.getPhysicsObject();
+					Particle[] ends = s.getParticles();
+					writer.spring(numbers.get(ends[0]), numbers.get(ends[1]), s.getSpringConstant(), s.getLength(), 0.0);
+				} else if (o.getType() == SimObject.Types.SIM_PIVOTED_SPRING) {
+					PivotedSpring s = (PivotedSpring)o.getPhysicsObject();
+					Integer pivot = numbers.get(s.getPivot());
+					if (pivot == null) {
+						pivot = writer.pivot(s.getPivot().getX(), s.getPivot().getY());
+						numbers.put(s.getPivot(), pivot);
+					}
+					writer.pivotedSpring(numbers.get(s.getParticle()), pivot, s.getSpringConstant(), s.getLength());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Remove every SimObject from the editor and load the ones
+	 * in a scene file instead.
+	 * 
+	 * @param path the file to read
+	 * @throws IOException if the file can't be read or isn't a valid scene
+	 */
+	public void loadScene(Path path) throws IOException {
+		this.clearObjectEditors();
+		this.mouseOverObject = null;
+		this.selectedObject = null;
+		while (!this.objects.isEmpty()) {
+			this.removeSimObject(this.objects.get(this.objects.size() - 1));
+		}
+		
+		SceneReader.read(path, new SceneListener() {
+			private List<SimParticle> particles = new ArrayList<>();
+			private List<SimPivot> pivots = new ArrayList<>();
+			
+			@Override
+			public void particles(double[] x, double[] v, double[] m, int count) {
+				for (int i = 0; i < count; i++) {
+					SimParticle p = new SimParticle(new Particle(x[2 * i], x[2 * i + 1], v[2 * i], v[2 * i + 1], m[i]));
+					this.particles.add(p);
+					addSimObject(p);
+				}
+			}
+			
+			@Override
+			public void pivot(double x, double y) {
+				SimPivot p = new SimPivot(new Vec2(x, y));
+				this.pivots.add(p);
+				addSimObject(p);
+			}
+			
+			@Override
+			public void spring(int a, int b, double k, double l, double damping) {
+				// Springs in the editor don't have damping
+				SimParticle pa = this.particles.get(a);
+				SimParticle pb = this.particles.get(b);
+				SimSpring s = new SimSpring(new Spring((Particle)pa.getPhysicsObject(), (Particle)pb.getPhysicsObject(), k, l));
+				link(s, pa, pb);
+			}
+			
+			@Override
+			public void pivotedSpring(int particle, int pivot, double k, double l) {
+				SimParticle p = this.particles.get(particle);
+				SimPivot x = this.pivots.get(pivot);
+				SimPivotedSpring s = new SimPivotedSpring(new PivotedSpring((Particle)p.getPhysicsObject(), (Vec2)x.getPhysicsObject(), k, l));
+				link(s, p, x);
+			}
+			
+			@Override
+			public void gravity(double g) {
+				invokeLater(() -> SimulationEditor.this.g.setConstant(g));
+			}
+			
+			/**
+			 * Add a spring to the editor and let its ends know about it.
+			 */
+			private void link(SimObject s, SimObject a, SimObject b) {
+				s.addReferencedObject(a);
+				s.addReferencedObject(b);
+				a.addReferencedObject(s);
+				b.addReferencedObject(s);
+				addSimObject(s);
+			}
+		});
+	}
+	
 	/**
 	 * Create a new JButton.
 	 * 
@@ -359,25 +790,24 @@ public class SimulationEditor extends GameCore {
 	/**
 	 * Get the SimParticle that is closest to the mouse pointer.
 	 * 
-	 * @return the SimParticle that is closest to the mouse
+	 * @return the SimParticle that is closest to the mouse, or null if there are no particles
 	 */
 	public SimParticle getClosestSimParticle() {
-		SimObject closestParticle = null;
-		double closestDistance = Double.MAX_VALUE;
-		for (int i = 0; i < this.objects.size(); i++) {
-			SimObject o = this.objects.get(i);
-			if (o.getType() == SimObject.Types.SIM_PARTICLE) {
-				Particle p = (Particle)o.getPhysicsObject();
-				double dist = Vec2.sub(p.getPosition(), this.getMousePosition()).mag();
-				
-				if (dist < closestDistance) {
-					closestParticle = o;
-					closestDistance = dist;
-				}
-			}
+		double mx = this.mousePosition.getX();
+		double my = this.mousePosition.getY();
+		Particle closest;
+		if (this.threaded) {
+			StateSnapshot state = this.renderState;
+			int i = this.nearestParticle.nearest(state.getPositions(), state.size(),
+					state.getVersion(), mx, my);
+			closest = (i < 0) ? null : state.getParticle(i);
+		} else {
+			ParticleStore store = this.ps.getParticleStore();
+			int i = this.nearestParticle.nearest(store.getPositions(), store.size(),
+					store.getVersion(), mx, my);
+			closest = (i < 0) ? null : this.ps.getParticles().get(i);
 		}
-		
-		return (SimParticle)closestParticle;
+		return (closest == null) ? null : this.simParticles.get(closest);
 	}
 	
 }
@@ -7,9 +7,11 @@ import graphics.InputManager;
 
 import java.awt.event.KeyEvent;
 
+import physics.NearestParticleFinder;
 import physics.Particle;
 import physics.PivotedSpring;
 import physics.Vec2;
+import physics.ParticleStore;
 import physics.ParticleSystem;
 
 import java.util.List;
@@ -27,6 +29,10 @@ public abstract class TestHarness extends GameCore {
 	private GameAction spring;
 	private boolean drawSpring;
 	private Vec2 mousePosition;
+	
+	// Finds the particle nearest the mouse
+	private NearestParticleFinder nearestParticle;
+	
 	@Override
 	public void init() {
 		super.init();
@@ -39,6 +45,8 @@ public abstract class TestHarness extends GameCore {
 		
 		this.drawSpring = false;
 		this.mousePosition = new Vec2(this.im.getMouseX(), this.im.getMouseY());
+		
+		this.nearestParticle = new NearestParticleFinder();
 	}
 	
 	@Override
@@ -67,20 +75,19 @@ public abstract class TestHarness extends GameCore {
 	 */
 	protected void manageMouseInput(ParticleSystem ps, double k) {
 		if (this.spring.isPressed()) {
-			List<Particle> particles = ps.getParticles();
-			Particle closestParticle = particles.get(0);
-			if (closestParticle == null) {
+			ParticleStore store = ps.getParticleStore();
+			double mx = this.mousePosition.getX();
+			double my = this.mousePosition.getY();
+			int closest = this.nearestParticle.nearest(store.getPositions(), store.size(),
+					store.getVersion(), mx, my);
+			if (closest < 0) {
 				return;
 			}
 			
-			for (int i = 1; i < particles.size(); i++) {
-				Particle p = particles.get(i);
-				if (Vec2.sub(p.getPosition(), this.mousePosition).mag() < Vec2.sub(closestParticle.getPosition(), this.mousePosition).mag()) {
-					closestParticle = p;
-				}
-			}
-			
-			double l = Vec2.sub(closestParticle.getPosition(), this.mousePosition).mag();
+			double[] x = store.getPositions();
+			List<Particle> particles = ps.getParticles();
+			Particle closestParticle = particles.get(closest);
+			double l = Math.hypot(x[2 * closest] - mx, x[2 * closest + 1] - my);
 			
 			PivotedSpring spring = new PivotedSpring(closestParticle, this.mousePosition, k, l);
 		}